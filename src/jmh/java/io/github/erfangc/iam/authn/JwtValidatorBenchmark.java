@@ -0,0 +1,100 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * {@link JwtValidator#decodeAndVerify(String)} of an RS256 access token against a locally generated RSA key, so no JWKS endpoint
+ * is involved. With jwtCacheSize=0 every call is verified, otherwise the token is served from {@link VerifiedTokenCache}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtValidatorBenchmark {
+
+    private static final String KID = "benchmark";
+    private static final String ISSUER = "https://issuer.example.com/";
+    private static final String AUDIENCE = "https://iam.example.com";
+
+    @Param({"0", "10000"})
+    public int jwtCacheSize;
+
+    private JwtValidator jwtValidator;
+    private String token;
+
+    @Setup
+    public void setUp() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Map<String, Object> values = new HashMap<>();
+        values.put("kid", KID);
+        values.put("kty", "RSA");
+        values.put("alg", "RS256");
+        values.put("use", "sig");
+        values.put("n", base64Url(publicKey.getModulus()));
+        values.put("e", base64Url(publicKey.getPublicExponent()));
+        final Jwk jwk = Jwk.fromValues(values);
+        jwtValidator = new JwtValidator(
+                () -> singletonList(jwk),
+                ISSUER,
+                AUDIENCE,
+                Duration.ofHours(1),
+                Duration.ofSeconds(30),
+                new VerifiedTokenCache(jwtCacheSize, new SimpleMeterRegistry())
+        );
+        token = JWT.create()
+                .withKeyId(KID)
+                .withIssuer(ISSUER)
+                .withAudience(AUDIENCE)
+                .withSubject("joe")
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .sign(Algorithm.RSA256(publicKey, (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @Benchmark
+    public DecodedJWT decodeAndVerify() {
+        return jwtValidator.decodeAndVerify(token);
+    }
+}
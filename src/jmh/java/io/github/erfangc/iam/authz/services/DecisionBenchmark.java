@@ -0,0 +1,85 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.AuthorizeResponse;
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+
+/**
+ * The in-memory part of a decision ({@link AuthorizeService#decide(EffectivePermissions, AccessRequest)}) over synthetic role
+ * sets. The allowed request only matches the last policy of the last role, the denied one matches nothing, so both scan every policy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecisionBenchmark {
+
+    @Param({"1", "10"})
+    public int roles;
+
+    @Param({"10", "100"})
+    public int policiesPerRole;
+
+    private EffectivePermissions effectivePermissions;
+    private AccessRequest allowedRequest;
+    private AccessRequest deniedRequest;
+
+    @Setup
+    public void setUp() {
+        final List<CompiledRole> compiledRoles = new ArrayList<>();
+        final Set<String> roleIds = new HashSet<>();
+        for (int r = 0; r < roles; r++) {
+            final List<Policy> policies = new ArrayList<>();
+            for (int p = 0; p < policiesPerRole; p++) {
+                policies.add(
+                        new Policy()
+                                .setResource("/service-" + r + "-" + p + "/inventories/*")
+                                .setActions(asList("GET", "OPTIONS"))
+                );
+            }
+            compiledRoles.add(CompiledRole.compile(new Role().setId("role-" + r).setPolicies(policies)));
+            roleIds.add("role-" + r);
+        }
+        effectivePermissions = new EffectivePermissions(compiledRoles, roleIds, singleton("user:benchmark"));
+        allowedRequest = new AccessRequest()
+                .setSub("benchmark")
+                .setResource("/service-" + (roles - 1) + "-" + (policiesPerRole - 1) + "/inventories/product1")
+                .setAction("GET");
+        deniedRequest = new AccessRequest()
+                .setSub("benchmark")
+                .setResource("/service-0-0/orders/order1")
+                .setAction("GET");
+    }
+
+    @Benchmark
+    public AuthorizeResponse allowed() {
+        return AuthorizeService.decide(effectivePermissions, allowedRequest);
+    }
+
+    @Benchmark
+    public AuthorizeResponse denied() {
+        return AuthorizeService.decide(effectivePermissions, deniedRequest);
+    }
+}
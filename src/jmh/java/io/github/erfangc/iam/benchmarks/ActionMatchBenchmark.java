@@ -0,0 +1,79 @@
+package io.github.erfangc.iam.benchmarks;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.services.ActionRegistry;
+import io.github.erfangc.iam.authz.services.CompiledPolicy;
+import io.github.erfangc.iam.authz.services.CompiledRole;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Compares checking a request's action with {@link List#contains(Object)} on every policy against the single AND on the masks
+ * interned by {@link ActionRegistry}, on a role where no policy allows the action so every policy is visited
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ActionMatchBenchmark {
+
+    private static final String ACTION = "DELETE";
+
+    @Param({"10", "100", "500"})
+    public int policies;
+
+    private Role role;
+    private CompiledRole compiledRole;
+    private String resource;
+
+    @Setup
+    public void setUp() {
+        final List<Policy> policies = new ArrayList<>();
+        for (int i = 0; i < this.policies; i++) {
+            policies.add(new Policy().setResource("/inventories/*").setActions(asList("GET", "OPTIONS", "PUT", "POST")));
+        }
+        role = new Role().setId("benchmark").setPolicies(policies);
+        compiledRole = CompiledRole.compile(role);
+        resource = "/inventories/product1";
+    }
+
+    @Benchmark
+    public boolean listContains() {
+        for (Policy policy : role.getPolicies()) {
+            final List<String> actions = policy.getActions();
+            if (actions.contains("*") || actions.contains(ACTION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean mask() {
+        final long actionBit = ActionRegistry.bitOf(ACTION);
+        for (CompiledPolicy policy : compiledRole.getPolicies()) {
+            if (policy.matches(resource, ACTION, actionBit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
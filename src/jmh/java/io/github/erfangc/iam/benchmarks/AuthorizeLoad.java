@@ -0,0 +1,121 @@
+package io.github.erfangc.iam.benchmarks;
+
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
+import io.github.erfangc.iam.authz.services.AccessRequest;
+import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.github.erfangc.iam.authz.services.EffectivePermissionsCache;
+import io.github.erfangc.iam.authz.services.PolicyChangePublisher;
+import io.github.erfangc.iam.authz.services.RoleBindingsService;
+import io.github.erfangc.iam.authz.services.RolesService;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import io.lettuce.core.RedisClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import redis.embedded.RedisServer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures _authorize throughput with the blocking and the non-blocking ({@link AuthorizeService#authorizeRequestAsync(AccessRequest)})
+ * pipelines while Redis round trips are slowed down by {@link LatencyProxy} (1, 10 and 50 ms)
+ * <p>
+ * A fixed pool of 200 threads stands in for Tomcat's workers and 2000 concurrent clients offer load. In blocking mode a worker
+ * is parked for the full decision; in non-blocking mode it only dispatches the decision and is released, as with DeferredResult.
+ * The effective-permissions cache is disabled so that every decision goes to Redis
+ * <p>
+ * Not a JMH benchmark, run with <code>mvn -P benchmarks test-compile exec:java -Dexec.mainClass=io.github.erfangc.iam.benchmarks.AuthorizeLoad -Dexec.classpathScope=test</code>
+ */
+public class AuthorizeLoad {
+
+    private static final int WORKERS = 200;
+    private static final int CLIENTS = 2000;
+    private static final long DURATION_MILLIS = 5000;
+    private static final int REDIS_PORT = 6379;
+
+    public static void main(String[] args) throws Exception {
+        final RedisServer redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        try {
+            seed();
+            System.out.println("latencyMs mode        decisions/s  threads");
+            for (long latencyMillis : new long[]{1, 10, 50}) {
+                try (LatencyProxy proxy = new LatencyProxy("localhost", REDIS_PORT, TimeUnit.MILLISECONDS.toMicros(latencyMillis))) {
+                    final RedisClient redisClient = RedisClient.create("redis://localhost:" + proxy.getPort());
+                    final AuthorizeService authorizeService = new AuthorizeService(redisClient, new EffectivePermissionsCache(0), new SimpleMeterRegistry());
+                    run(latencyMillis, "blocking", authorizeService, false);
+                    run(latencyMillis, "non-blocking", authorizeService, true);
+                    redisClient.shutdown();
+                }
+            }
+        } finally {
+            redisServer.stop();
+        }
+        //
+        // embedded-redis leaves a non-daemon thread behind
+        //
+        System.exit(0);
+    }
+
+    private static void seed() {
+        final RedisClient redisClient = RedisClient.create("redis://localhost:" + REDIS_PORT);
+        final PolicyChangePublisher publisher = new PolicyChangePublisher(redisClient, new EffectivePermissionsCache(0));
+        final RolesService rolesService = new RolesService(redisClient, publisher);
+        final RoleBindingsService roleBindingsService = new RoleBindingsService(redisClient, publisher);
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("contractors")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-contractor")));
+        redisClient.shutdown();
+    }
+
+    private static void run(long latencyMillis, String mode, AuthorizeService authorizeService, boolean nonBlocking) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        final Semaphore clients = new Semaphore(CLIENTS);
+        final AtomicLong decisions = new AtomicLong();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AccessRequest accessRequest = new AccessRequest().setSub("joe").setResource("/inventories/product1").setAction("GET");
+        final int threadsBefore = Thread.activeCount();
+        final long start = System.nanoTime();
+        final Thread loadGenerator = new Thread(() -> {
+            while (running.get()) {
+                try {
+                    clients.acquire();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                workers.submit(() -> {
+                    if (nonBlocking) {
+                        authorizeService.authorizeRequestAsync(accessRequest).whenComplete((response, e) -> {
+                            decisions.incrementAndGet();
+                            clients.release();
+                        });
+                    } else {
+                        try {
+                            authorizeService.authorizeRequest(accessRequest);
+                        } finally {
+                            decisions.incrementAndGet();
+                            clients.release();
+                        }
+                    }
+                });
+            }
+        });
+        loadGenerator.start();
+        Thread.sleep(DURATION_MILLIS);
+        running.set(false);
+        final long completed = decisions.get();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        final int threads = Thread.activeCount() - threadsBefore;
+        loadGenerator.interrupt();
+        workers.shutdown();
+        workers.awaitTermination(30, TimeUnit.SECONDS);
+        clients.acquire(CLIENTS);
+        System.out.printf("%-9d %-12s %11.0f  %7d%n", latencyMillis, mode, completed / seconds, threads);
+    }
+}
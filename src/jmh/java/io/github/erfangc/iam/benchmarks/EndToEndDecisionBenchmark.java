@@ -0,0 +1,89 @@
+package io.github.erfangc.iam.benchmarks;
+
+import io.github.erfangc.iam.authz.models.AuthorizeResponse;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
+import io.github.erfangc.iam.authz.services.AccessRequest;
+import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.github.erfangc.iam.authz.services.EffectivePermissionsCache;
+import io.github.erfangc.iam.authz.services.EffectivePolicyMaterializer;
+import io.github.erfangc.iam.authz.services.EvaluationMode;
+import io.github.erfangc.iam.authz.services.PolicyChangePublisher;
+import io.github.erfangc.iam.authz.services.RoleBindingsService;
+import io.github.erfangc.iam.authz.services.RolesService;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import io.lettuce.core.RedisClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.embedded.RedisServer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A complete {@link AuthorizeService#authorizeRequest(AccessRequest)} against embedded Redis, with the effective-permissions
+ * cache on (warm decisions) and off (every decision loads from Redis), for each {@link EvaluationMode} that embedded Redis supports
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndDecisionBenchmark {
+
+    private static final int REDIS_PORT = 6390;
+
+    @Param({"COMMANDS", "LUA", "MATERIALIZED"})
+    public EvaluationMode evaluationMode;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private RedisServer redisServer;
+    private RedisClient redisClient;
+    private EffectivePolicyMaterializer materializer;
+    private AuthorizeService authorizeService;
+    private AccessRequest accessRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        redisClient = RedisClient.create("redis://localhost:" + REDIS_PORT);
+        final EffectivePermissionsCache cache = new EffectivePermissionsCache(cached ? 10000 : 0);
+        materializer = new EffectivePolicyMaterializer(redisClient, evaluationMode == EvaluationMode.MATERIALIZED, 1000);
+        final PolicyChangePublisher publisher = new PolicyChangePublisher(redisClient, cache, materializer);
+        final RolesService rolesService = new RolesService(redisClient, publisher);
+        final RoleBindingsService roleBindingsService = new RoleBindingsService(redisClient, publisher);
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("contractors")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-contractor")));
+        authorizeService = new AuthorizeService(redisClient, cache, new SimpleMeterRegistry()).setEvaluationMode(evaluationMode);
+        accessRequest = new AccessRequest().setSub("joe").setResource("/inventories/product1").setAction("GET");
+    }
+
+    @TearDown
+    public void tearDown() {
+        materializer.close();
+        redisClient.shutdown();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public AuthorizeResponse authorizeRequest() {
+        return authorizeService.authorizeRequest(accessRequest);
+    }
+}
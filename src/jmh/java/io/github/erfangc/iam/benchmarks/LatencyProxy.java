@@ -0,0 +1,84 @@
+package io.github.erfangc.iam.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TCP proxy that delays every chunk of bytes flowing from the upstream back to the client by a fixed latency, which adds that
+ * latency to every Redis round trip while preserving ordering (and therefore pipelining)
+ */
+public class LatencyProxy implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final long latencyMicros;
+    private final ExecutorService acceptor = Executors.newCachedThreadPool();
+
+    public LatencyProxy(String upstreamHost, int upstreamPort, long latencyMicros) throws IOException {
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+        this.latencyMicros = latencyMicros;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress("localhost", 0));
+        acceptor.submit(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket client = serverSocket.accept();
+                final Socket upstream = new Socket(upstreamHost, upstreamPort);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                acceptor.submit(() -> pipe(client.getInputStream(), upstream.getOutputStream(), 0));
+                acceptor.submit(() -> pipe(upstream.getInputStream(), client.getOutputStream(), latencyMicros));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private Void pipe(InputStream in, OutputStream out, long delayMicros) {
+        //
+        // a single thread per direction with equal delays keeps chunks in order
+        //
+        final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+        final byte[] buffer = new byte[16384];
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                final byte[] chunk = Arrays.copyOf(buffer, read);
+                writer.schedule(() -> {
+                    out.write(chunk);
+                    out.flush();
+                    return null;
+                }, delayMicros, TimeUnit.MICROSECONDS);
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            writer.shutdown();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        acceptor.shutdownNow();
+    }
+}
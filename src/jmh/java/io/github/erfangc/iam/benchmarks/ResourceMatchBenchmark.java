@@ -0,0 +1,85 @@
+package io.github.erfangc.iam.benchmarks;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.services.CompiledPolicy;
+import io.github.erfangc.iam.authz.services.CompiledRole;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * Compares the per-request regular expression matching {@link io.github.erfangc.iam.authz.services.AuthorizeService} used to do
+ * against {@link io.github.erfangc.iam.authz.services.ResourcePattern} on a role where the only matching policy is the last one
+ * (the worst case for a linear scan)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceMatchBenchmark {
+
+    private static final String ACTION = "GET";
+
+    @Param({"10", "100", "500"})
+    public int policies;
+
+    private Role role;
+    private CompiledRole compiledRole;
+    private String resource;
+
+    @Setup
+    public void setUp() {
+        final List<Policy> policies = new ArrayList<>();
+        for (int i = 0; i < this.policies; i++) {
+            policies.add(new Policy().setResource("/service-" + i + "/inventories/*/items").setActions(asList("GET", "OPTIONS")));
+        }
+        role = new Role().setId("benchmark").setPolicies(policies);
+        compiledRole = CompiledRole.compile(role);
+        resource = "/service-" + (this.policies - 1) + "/inventories/product1/items";
+    }
+
+    @Benchmark
+    public boolean regex() {
+        for (Policy policy : role.getPolicies()) {
+            final List<String> actions = policy.getActions();
+            final boolean actionMatch = actions.contains("*") || actions.contains(ACTION);
+            final String regex = Stream
+                    .of(policy.getResource().split("/"))
+                    .map(token -> token.equals("*") ? ".*" : token)
+                    .collect(joining("\\/"));
+            if (resource.matches(regex) && actionMatch) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        for (CompiledPolicy policy : compiledRole.getPolicies()) {
+            if (policy.matches(resource, ACTION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
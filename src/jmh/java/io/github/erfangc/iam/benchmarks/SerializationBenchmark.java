@@ -0,0 +1,77 @@
+package io.github.erfangc.iam.benchmarks;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static java.util.Arrays.asList;
+
+/**
+ * Jackson (de)serialization of {@link Role} and {@link RoleBinding} with the shared {@link io.github.erfangc.iam.Utilities#objectMapper},
+ * which is what every cache miss pays for each binding and role it loads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "100"})
+    public int policies;
+
+    private Role role;
+    private String roleJson;
+    private RoleBinding roleBinding;
+    private String roleBindingJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        final List<Policy> policies = new ArrayList<>();
+        for (int i = 0; i < this.policies; i++) {
+            policies.add(new Policy().setResource("/service-" + i + "/inventories/*").setActions(asList("GET", "OPTIONS", "PUT")));
+        }
+        role = new Role().setId("benchmark").setPolicies(policies);
+        roleJson = objectMapper.writeValueAsString(role);
+        roleBinding = new RoleBinding().setId("joe-as-benchmark").setRoleId("benchmark").setPrincipalType("user").setPrincipalId("joe");
+        roleBindingJson = objectMapper.writeValueAsString(roleBinding);
+    }
+
+    @Benchmark
+    public Role readRole() throws IOException {
+        return objectMapper.readValue(roleJson, Role.class);
+    }
+
+    @Benchmark
+    public String writeRole() throws IOException {
+        return objectMapper.writeValueAsString(role);
+    }
+
+    @Benchmark
+    public RoleBinding readRoleBinding() throws IOException {
+        return objectMapper.readValue(roleBindingJson, RoleBinding.class);
+    }
+
+    @Benchmark
+    public String writeRoleBinding() throws IOException {
+        return objectMapper.writeValueAsString(roleBinding);
+    }
+}
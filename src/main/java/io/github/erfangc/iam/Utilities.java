@@ -7,6 +7,7 @@ public class Utilities {
     public static final String STATE = "state";
     public static final String CREDENTIALS = "credentials";
     public static final String SUB = "sub";
+    public static final String DECODED_JWT = "decodedJwt";
     public static final String X_AUTH_REQUEST_REDIRECT = "X-Auth-Request-Redirect";
     public static final ObjectMapper objectMapper = new ObjectMapper()
             .findAndRegisterModules()
@@ -0,0 +1,73 @@
+package io.github.erfangc.iam.audit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * {@link AuditRecord} is one authentication or authorization outcome as written by {@link DecisionAuditLog}, one JSON object per
+ * line. Fields that do not apply to the event are omitted
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AuditRecord {
+
+    public enum Event {
+        AUTHENTICATED,
+        UNAUTHENTICATED,
+        ALLOWED,
+        DENIED
+    }
+
+    private final long ts;
+    private final Event event;
+    private final String sub;
+    private final String resource;
+    private final String action;
+    private final String roleId;
+    private final String channel;
+
+    AuditRecord(long ts, Event event, String sub, String resource, String action, String roleId, String channel) {
+        this.ts = ts;
+        this.event = event;
+        this.sub = sub;
+        this.resource = resource;
+        this.action = action;
+        this.roleId = roleId;
+        this.channel = channel;
+    }
+
+    /**
+     * Epoch milliseconds of the event
+     */
+    public long getTs() {
+        return ts;
+    }
+
+    public Event getEvent() {
+        return event;
+    }
+
+    public String getSub() {
+        return sub;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * The role whose policy granted access, <code>root</code> for root users
+     */
+    public String getRoleId() {
+        return roleId;
+    }
+
+    /**
+     * API or Web, for authentication events
+     */
+    public String getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.erfangc.iam.audit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where {@link DecisionAuditLog} writes batches of records to, only ever called from its writer thread
+ */
+public interface AuditSink extends AutoCloseable {
+
+    /**
+     * @param lines the records serialized as JSON, one per element
+     */
+    void write(List<String> lines) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,263 @@
+package io.github.erfangc.iam.audit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.github.erfangc.iam.audit.AuditRecord.Event;
+import io.lettuce.core.RedisClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+
+/**
+ * {@link DecisionAuditLog} records every authentication and authorization outcome without slowing down the request that produced it
+ * <p>
+ * Request threads only allocate a small {@link AuditRecord} and offer it to a bounded lock-free {@link RingBuffer}. A single writer thread
+ * drains the buffer in batches of up to <code>AUDIT_BATCH_SIZE</code> (512 by default), serializes them and hands them to the configured
+ * {@link AuditSink}, parking briefly whenever the buffer is empty. <code>AUDIT_SINK</code> is one of:
+ * <ul>
+ *     <li><code>log</code> (the default) the <code>iam.audit</code> logger, see {@link LogAuditSink}</li>
+ *     <li><code>file</code> a rotating NDJSON file at <code>AUDIT_FILE</code>, see {@link FileAuditSink}</li>
+ *     <li><code>redis</code> the Redis Stream <code>AUDIT_STREAM_KEY</code> (iam:audit by default), see {@link RedisStreamAuditSink}</li>
+ *     <li><code>none</code> nothing is recorded</li>
+ * </ul>
+ * When the sink cannot keep up the buffer (<code>AUDIT_BUFFER_SIZE</code>, 8192 by default) fills up and records are dropped according to
+ * <code>AUDIT_DROP_POLICY</code> rather than blocking requests. Dropped records, and records lost to sink failures, are counted by
+ * <code>iam.audit.records</code> so a gap in the audit trail is never silent
+ */
+@Component
+public class DecisionAuditLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(DecisionAuditLog.class);
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int DEFAULT_BATCH_SIZE = 512;
+    private static final long DEFAULT_FILE_MAX_BYTES = 100L * 1024 * 1024;
+    private static final int DEFAULT_FILE_MAX_FILES = 5;
+    private static final long DEFAULT_STREAM_MAX_LENGTH = 1_000_000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final AuditSink sink;
+    private final RingBuffer<AuditRecord> buffer;
+    private final DropPolicy dropPolicy;
+    private final int batchSize;
+    private final Counter written;
+    private final Counter dropped;
+    private final Counter failed;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    @Autowired
+    public DecisionAuditLog(RedisClient redisClient, MeterRegistry meterRegistry) {
+        this(
+                sinkFromEnv(redisClient),
+                intFromEnv("AUDIT_BUFFER_SIZE", DEFAULT_BUFFER_SIZE),
+                DropPolicy.fromEnv(),
+                intFromEnv("AUDIT_BATCH_SIZE", DEFAULT_BATCH_SIZE),
+                meterRegistry
+        );
+    }
+
+    /**
+     * @param sink null to record nothing
+     */
+    public DecisionAuditLog(AuditSink sink, int bufferSize, DropPolicy dropPolicy, int batchSize, MeterRegistry meterRegistry) {
+        this.sink = sink;
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.dropPolicy = dropPolicy;
+        this.batchSize = batchSize;
+        written = counter(meterRegistry, "written", "Audit records handed to the sink");
+        dropped = counter(meterRegistry, "dropped", "Audit records discarded because the buffer was full");
+        failed = counter(meterRegistry, "failed", "Audit records lost because the sink failed to write them");
+        Gauge.builder("iam.audit.buffer.size", buffer, RingBuffer::size)
+                .description("Audit records waiting for the writer thread")
+                .register(meterRegistry);
+        if (sink != null) {
+            writer = new Thread(this::run, "decision-audit-log");
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+        logger.info(
+                "{} has started with sink={} bufferSize={} dropPolicy={} batchSize={}",
+                DecisionAuditLog.class.getSimpleName(),
+                sink == null ? "none" : sink.getClass().getSimpleName(),
+                buffer.capacity(),
+                dropPolicy,
+                batchSize
+        );
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String outcome, String description) {
+        return Counter.builder("iam.audit.records").tag("outcome", outcome).description(description).register(meterRegistry);
+    }
+
+    private static AuditSink sinkFromEnv(RedisClient redisClient) {
+        final String sink = System.getenv("AUDIT_SINK");
+        if (sink == null || sink.isEmpty() || "log".equalsIgnoreCase(sink)) {
+            return new LogAuditSink();
+        } else if ("file".equalsIgnoreCase(sink)) {
+            final String file = System.getenv("AUDIT_FILE");
+            try {
+                return new FileAuditSink(
+                        Paths.get(file == null || file.isEmpty() ? "iam-audit.ndjson" : file),
+                        longFromEnv("AUDIT_FILE_MAX_BYTES", DEFAULT_FILE_MAX_BYTES),
+                        intFromEnv("AUDIT_FILE_MAX_FILES", DEFAULT_FILE_MAX_FILES)
+                );
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if ("redis".equalsIgnoreCase(sink)) {
+            final String key = System.getenv("AUDIT_STREAM_KEY");
+            return new RedisStreamAuditSink(
+                    redisClient,
+                    key == null || key.isEmpty() ? "iam:audit" : key,
+                    longFromEnv("AUDIT_STREAM_MAX_LENGTH", DEFAULT_STREAM_MAX_LENGTH)
+            );
+        } else if ("none".equalsIgnoreCase(sink)) {
+            return null;
+        }
+        throw new IllegalArgumentException("AUDIT_SINK must be one of log, file, redis, none but was " + sink);
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static long longFromEnv(String name, long defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+
+    public void authenticated(String channel, String sub, String resource, String action) {
+        record(Event.AUTHENTICATED, sub, resource, action, null, channel);
+    }
+
+    public void unauthenticated(String channel, String resource, String action) {
+        record(Event.UNAUTHENTICATED, null, resource, action, null, channel);
+    }
+
+    /**
+     * @param roleId the role whose policy granted access
+     */
+    public void allowed(String sub, String resource, String action, String roleId) {
+        record(Event.ALLOWED, sub, resource, action, roleId, null);
+    }
+
+    public void denied(String sub, String resource, String action) {
+        record(Event.DENIED, sub, resource, action, null, null);
+    }
+
+    private void record(Event event, String sub, String resource, String action, String roleId, String channel) {
+        if (writer == null) {
+            return;
+        }
+        final AuditRecord record = new AuditRecord(System.currentTimeMillis(), event, sub, resource, action, roleId, channel);
+        if (buffer.offer(record)) {
+            return;
+        }
+        if (dropPolicy == DropPolicy.DROP_OLDEST) {
+            //
+            // make room once, should another producer take it first this record is the one dropped
+            //
+            if (buffer.poll() != null) {
+                dropped.increment();
+            }
+            if (buffer.offer(record)) {
+                return;
+            }
+        }
+        dropped.increment();
+    }
+
+    private void run() {
+        final List<AuditRecord> batch = new ArrayList<>(batchSize);
+        while (running) {
+            if (drain(batch) == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        //
+        // write out whatever made it into the buffer before close
+        //
+        int drained;
+        do {
+            drained = drain(batch);
+        } while (drained > 0);
+    }
+
+    /**
+     * @return the number of records taken off the buffer
+     */
+    private int drain(List<AuditRecord> batch) {
+        AuditRecord record;
+        while (batch.size() < batchSize && (record = buffer.poll()) != null) {
+            batch.add(record);
+        }
+        final int size = batch.size();
+        if (size == 0) {
+            return 0;
+        }
+        try {
+            final List<String> lines = new ArrayList<>(size);
+            for (AuditRecord next : batch) {
+                lines.add(objectMapper.writeValueAsString(next));
+            }
+            sink.write(lines);
+            written.increment(size);
+        } catch (JsonProcessingException e) {
+            logger.error("Cannot serialize audit records, error={}", e.getMessage());
+            failed.increment(size);
+        } catch (Exception e) {
+            logger.error("Cannot write {} audit records, error={}", size, e.getMessage());
+            failed.increment(size);
+        } finally {
+            batch.clear();
+        }
+        return size;
+    }
+
+    public long getWritten() {
+        return (long) written.count();
+    }
+
+    public long getDropped() {
+        return (long) dropped.count();
+    }
+
+    public long getFailed() {
+        return (long) failed.count();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(CLOSE_TIMEOUT_MILLIS);
+            sink.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Cannot close audit sink, error={}", e.getMessage());
+        }
+    }
+}
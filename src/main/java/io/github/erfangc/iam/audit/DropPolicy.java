@@ -0,0 +1,20 @@
+package io.github.erfangc.iam.audit;
+
+/**
+ * What {@link DecisionAuditLog} does with a record when its buffer is full, configured through <code>AUDIT_DROP_POLICY</code>
+ */
+public enum DropPolicy {
+    /**
+     * Discard the record being added (the default)
+     */
+    DROP_NEWEST,
+    /**
+     * Discard the oldest buffered record to make room for the one being added
+     */
+    DROP_OLDEST;
+
+    public static DropPolicy fromEnv() {
+        final String dropPolicy = System.getenv("AUDIT_DROP_POLICY");
+        return dropPolicy == null || dropPolicy.isEmpty() ? DROP_NEWEST : valueOf(dropPolicy.toUpperCase());
+    }
+}
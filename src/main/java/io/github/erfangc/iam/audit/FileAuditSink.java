@@ -0,0 +1,87 @@
+package io.github.erfangc.iam.audit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * {@link FileAuditSink} appends records as newline delimited JSON to a file, flushing once per batch
+ * <p>
+ * Once the file reaches maxBytes it is rotated the way logrotate does it: <code>audit.ndjson</code> becomes <code>audit.ndjson.1</code>,
+ * <code>audit.ndjson.1</code> becomes <code>audit.ndjson.2</code> and so on, keeping at most maxFiles rotated files. A batch is never
+ * split across files
+ */
+public class FileAuditSink implements AuditSink {
+
+    private final Path path;
+    private final long maxBytes;
+    private final int maxFiles;
+    private BufferedWriter writer;
+    private long bytes;
+
+    public FileAuditSink(Path path, long maxBytes, int maxFiles) throws IOException {
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    private void open() throws IOException {
+        final Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                StandardCharsets.UTF_8
+        ));
+        bytes = Files.size(path);
+    }
+
+    @Override
+    public void write(List<String> lines) throws IOException {
+        if (bytes >= maxBytes) {
+            rotate();
+        }
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+            //
+            // records are ASCII apart from the odd subject or resource, counting chars is close enough for rotation
+            //
+            bytes += line.length() + 1;
+        }
+        writer.flush();
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+        if (maxFiles > 0) {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+        open();
+    }
+
+    private Path rotated(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
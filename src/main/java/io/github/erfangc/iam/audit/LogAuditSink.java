@@ -0,0 +1,25 @@
+package io.github.erfangc.iam.audit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * {@link LogAuditSink} writes records to the <code>iam.audit</code> logger at INFO, still one line per record but from the writer
+ * thread rather than the request thread. The default sink, so audit records keep showing up where the old per-decision log
+ * lines did
+ */
+public class LogAuditSink implements AuditSink {
+
+    private static final Logger logger = LoggerFactory.getLogger("iam.audit");
+
+    @Override
+    public void write(List<String> lines) {
+        if (logger.isInfoEnabled()) {
+            for (String line : lines) {
+                logger.info(line);
+            }
+        }
+    }
+}
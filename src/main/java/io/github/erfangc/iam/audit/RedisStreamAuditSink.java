@@ -0,0 +1,52 @@
+package io.github.erfangc.iam.audit;
+
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.XAddArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RedisStreamAuditSink} appends records to a Redis Stream, one entry per record with the JSON under the <code>record</code>
+ * field. A batch is pipelined on a connection of its own, so it costs one round trip however many records it holds. The stream is
+ * trimmed to roughly maxLength entries as it is written, requires Redis 5 or later
+ */
+public class RedisStreamAuditSink implements AuditSink {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final StatefulRedisConnection<String, String> conn;
+    private final String key;
+    private final XAddArgs xAddArgs;
+
+    public RedisStreamAuditSink(RedisClient redisClient, String key, long maxLength) {
+        this.conn = redisClient.connect();
+        this.conn.setAutoFlushCommands(false);
+        this.key = key;
+        this.xAddArgs = new XAddArgs().maxlen(maxLength).approximateTrimming();
+    }
+
+    @Override
+    public void write(List<String> lines) throws IOException {
+        final RedisAsyncCommands<String, String> async = conn.async();
+        final List<RedisFuture<String>> futures = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            futures.add(async.xadd(key, xAddArgs, "record", line));
+        }
+        conn.flushCommands();
+        if (!LettuceFutures.awaitAll(TIMEOUT_SECONDS, TimeUnit.SECONDS, futures.toArray(new RedisFuture[0]))) {
+            throw new IOException("Timed out appending " + lines.size() + " records to " + key);
+        }
+    }
+
+    @Override
+    public void close() {
+        conn.close();
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.erfangc.iam.authn;
 
+import com.auth0.jwt.JWT;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import feign.Feign;
 import feign.jackson.JacksonDecoder;
@@ -13,7 +14,12 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,9 +32,14 @@ import static org.springframework.util.CollectionUtils.toMultiValueMap;
 @RequestMapping("/iam/api/v1/callback")
 public class CallbackController {
 
+    private static final Duration DEFAULT_COOKIE_SESSION_TTL = Duration.ofHours(1);
     private Auth0Client auth0Client;
+    private SessionTokenCache sessionTokenCache;
+    private CookieSessions cookieSessions;
 
-    public CallbackController() {
+    public CallbackController(SessionTokenCache sessionTokenCache, CookieSessions cookieSessions) {
+        this.sessionTokenCache = sessionTokenCache;
+        this.cookieSessions = cookieSessions;
         auth0Client = Feign
                 .builder()
                 .encoder(new JacksonEncoder())
@@ -37,28 +48,27 @@ public class CallbackController {
     }
 
     @RequestMapping(method = RequestMethod.GET)
-    public ResponseEntity<?> callback(HttpServletRequest httpServletRequest) throws JsonProcessingException {
-        final HttpSession httpSession = authorizationCodeExchange(httpServletRequest);
-        Map<String, List<String>> mvm = new HashMap<>();
+    public ResponseEntity<?> callback(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws IOException {
         String redirectUrl = "/";
-        if (httpSession.getAttribute(X_AUTH_REQUEST_REDIRECT) != null) {
-            redirectUrl = ((String) httpSession.getAttribute(X_AUTH_REQUEST_REDIRECT));
+        if (cookieSessions.isEnabled()) {
+            final String redirect = cookieAuthorizationCodeExchange(httpServletRequest, httpServletResponse);
+            if (redirect != null) {
+                redirectUrl = redirect;
+            }
+        } else {
+            final HttpSession httpSession = authorizationCodeExchange(httpServletRequest);
+            if (httpSession.getAttribute(X_AUTH_REQUEST_REDIRECT) != null) {
+                redirectUrl = ((String) httpSession.getAttribute(X_AUTH_REQUEST_REDIRECT));
+            }
         }
+        Map<String, List<String>> mvm = new HashMap<>();
         mvm.put("Location", singletonList(redirectUrl));
         MultiValueMap<String, String> headers = toMultiValueMap(mvm);
         return new ResponseEntity<>(headers, HttpStatus.FOUND);
     }
 
     private HttpSession authorizationCodeExchange(HttpServletRequest httpServletRequest) throws JsonProcessingException {
-        //
-        // gather all the pieces of information needed to exchange code for token
-        //
-        final String callback = System.getenv("CALLBACK");
-        final String clientId = System.getenv("CLIENT_ID");
-        final String clientSecret = System.getenv("CLIENT_SECRET");
-        final String code = httpServletRequest.getParameter("code");
         final String state = httpServletRequest.getParameter("state");
-
         final HttpSession session = httpServletRequest.getSession();
         String sessionState = (String) session.getAttribute(STATE);
         if (sessionState == null || !sessionState.equals(state)) {
@@ -68,15 +78,62 @@ public class CallbackController {
         //
         // perform the actual code exchange for a token, store the token in session
         //
-        final Credentials credentials = auth0Client.exchangeCode(
+        final Credentials credentials = exchangeCode(httpServletRequest);
+        session.removeAttribute(STATE);
+        session.setAttribute(CREDENTIALS, objectMapper.writeValueAsString(credentials));
+        //
+        // a new login on an existing session replaces its token
+        //
+        sessionTokenCache.evict(session.getId());
+        return session;
+    }
+
+    /**
+     * The stateless counterpart of {@link #authorizationCodeExchange(HttpServletRequest)}, state comes from and the token goes
+     * into cookies managed by {@link CookieSessions}
+     *
+     * @return the original request uri the login was started for
+     */
+    private String cookieAuthorizationCodeExchange(HttpServletRequest httpServletRequest,
+                                                   HttpServletResponse httpServletResponse) throws IOException {
+        final String state = httpServletRequest.getParameter("state");
+        final Map<String, String> loginState = cookieSessions.getLoginState(httpServletRequest);
+        cookieSessions.clearLoginState(httpServletRequest, httpServletResponse);
+        if (loginState == null || loginState.get(STATE) == null || !loginState.get(STATE).equals(state)) {
+            throw new IllegalStateException("Session is in an invalid state");
+        }
+        final Credentials credentials = exchangeCode(httpServletRequest);
+        final String accessToken = credentials.getAccessToken();
+        if (accessToken == null) {
+            throw new IllegalStateException("Code exchange did not return an access token");
+        }
+        //
+        // the cookie lives exactly as long as the token it carries, the filter still verifies the token on every request
+        //
+        final Date expiresAt = JWT.decode(accessToken).getExpiresAt();
+        cookieSessions.setAccessToken(
+                httpServletRequest,
+                httpServletResponse,
+                accessToken,
+                expiresAt != null ? expiresAt.toInstant() : Instant.now().plus(DEFAULT_COOKIE_SESSION_TTL)
+        );
+        return loginState.get(X_AUTH_REQUEST_REDIRECT);
+    }
+
+    private Credentials exchangeCode(HttpServletRequest httpServletRequest) {
+        //
+        // gather all the pieces of information needed to exchange code for token
+        //
+        final String callback = System.getenv("CALLBACK");
+        final String clientId = System.getenv("CLIENT_ID");
+        final String clientSecret = System.getenv("CLIENT_SECRET");
+        final String code = httpServletRequest.getParameter("code");
+        return auth0Client.exchangeCode(
                 "authorization_code",
                 clientId,
                 clientSecret,
                 code,
                 callback
         );
-        session.removeAttribute(STATE);
-        session.setAttribute(CREDENTIALS, objectMapper.writeValueAsString(credentials));
-        return session;
     }
 }
@@ -0,0 +1,151 @@
+package io.github.erfangc.iam.authn;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.github.erfangc.iam.Utilities.STATE;
+import static io.github.erfangc.iam.Utilities.X_AUTH_REQUEST_REDIRECT;
+import static io.github.erfangc.iam.Utilities.objectMapper;
+
+/**
+ * {@link CookieSessions} keeps web callers' state in cookies encrypted by {@link EncryptedCookieCodec} instead of a spring-session
+ * session when <code>SESSION_MODE=cookie</code>, so authenticating a web request is CPU work only and never touches Redis
+ * <p>
+ * Two cookies are used: <code>IAM_LOGIN</code> carries the OAuth state and the original request uri between <code>/login</code>
+ * and <code>/callback</code> for {@link #LOGIN_TTL}, <code>IAM_SESSION</code> carries the access token until it expires.
+ * Keys are read from <code>SESSION_COOKIE_KEYS</code> as <code>kid:base64key</code> pairs separated by commas, the first
+ * one encrypts. A session cookie presented under a retired key is re-issued under the current key
+ */
+@Component
+public class CookieSessions {
+
+    private static final Logger logger = LoggerFactory.getLogger(CookieSessions.class);
+    public static final String SESSION_COOKIE = "IAM_SESSION";
+    public static final String LOGIN_COOKIE = "IAM_LOGIN";
+    public static final Duration LOGIN_TTL = Duration.ofMinutes(10);
+    private static final String PATH = "/";
+
+    private final SessionMode sessionMode;
+    private final EncryptedCookieCodec codec;
+    private final Clock clock;
+
+    @Autowired
+    public CookieSessions() {
+        this(SessionMode.fromEnv(), System.getenv("SESSION_COOKIE_KEYS"), Clock.systemUTC());
+    }
+
+    CookieSessions(SessionMode sessionMode, String keys, Clock clock) {
+        this.sessionMode = sessionMode;
+        this.clock = clock;
+        if (sessionMode == SessionMode.COOKIE) {
+            if (keys == null || keys.isEmpty()) {
+                throw new IllegalStateException("SESSION_COOKIE_KEYS must be set when SESSION_MODE is cookie");
+            }
+            codec = EncryptedCookieCodec.fromSpec(keys, clock);
+            logger.info("{} has started with currentKeyId={}", CookieSessions.class.getSimpleName(), codec.getCurrentKeyId());
+        } else {
+            codec = null;
+        }
+    }
+
+    public SessionMode getSessionMode() {
+        return sessionMode;
+    }
+
+    public boolean isEnabled() {
+        return sessionMode == SessionMode.COOKIE;
+    }
+
+    /**
+     * @return the access token carried by the session cookie, or null if there is none or it cannot be trusted
+     */
+    public String getAccessToken(HttpServletRequest request, HttpServletResponse response) {
+        final EncryptedCookieCodec.Decoded decoded = codec.decode(SESSION_COOKIE, readCookie(request, SESSION_COOKIE));
+        if (decoded == null) {
+            return null;
+        }
+        if (!decoded.isCurrentKey()) {
+            setAccessToken(request, response, decoded.getValue(), decoded.getExpiresAt());
+        }
+        return decoded.getValue();
+    }
+
+    public void setAccessToken(HttpServletRequest request, HttpServletResponse response, String accessToken, Instant expiresAt) {
+        writeCookie(request, response, SESSION_COOKIE, codec.encode(SESSION_COOKIE, accessToken, expiresAt), Duration.between(clock.instant(), expiresAt));
+    }
+
+    public void setLoginState(HttpServletRequest request, HttpServletResponse response, String state, String redirect) throws IOException {
+        final Map<String, String> loginState = new HashMap<>();
+        loginState.put(STATE, state);
+        loginState.put(X_AUTH_REQUEST_REDIRECT, redirect);
+        final String value = objectMapper.writeValueAsString(loginState);
+        writeCookie(request, response, LOGIN_COOKIE, codec.encode(LOGIN_COOKIE, value, clock.instant().plus(LOGIN_TTL)), LOGIN_TTL);
+    }
+
+    /**
+     * @return the state and redirect stored by {@link #setLoginState(HttpServletRequest, HttpServletResponse, String, String)},
+     * keyed by {@link io.github.erfangc.iam.Utilities#STATE} and {@link io.github.erfangc.iam.Utilities#X_AUTH_REQUEST_REDIRECT},
+     * or null if the login cookie is missing, expired or cannot be trusted
+     */
+    public Map<String, String> getLoginState(HttpServletRequest request) throws IOException {
+        final EncryptedCookieCodec.Decoded decoded = codec.decode(LOGIN_COOKIE, readCookie(request, LOGIN_COOKIE));
+        if (decoded == null) {
+            return null;
+        }
+        return objectMapper.readValue(decoded.getValue(), new TypeReference<Map<String, String>>() {
+        });
+    }
+
+    public void clearLoginState(HttpServletRequest request, HttpServletResponse response) {
+        writeCookie(request, response, LOGIN_COOKIE, "", Duration.ZERO);
+    }
+
+    public void clear(HttpServletRequest request, HttpServletResponse response) {
+        clearLoginState(request, response);
+        writeCookie(request, response, SESSION_COOKIE, "", Duration.ZERO);
+    }
+
+    private static String readCookie(HttpServletRequest request, String name) {
+        final Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (cookie.getName().equals(name)) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static void writeCookie(HttpServletRequest request, HttpServletResponse response, String name, String value, Duration maxAge) {
+        //
+        // Lax keeps the cookies on the top level redirect back from the IdP to /callback, secure follows the request
+        // the same way spring-session's DefaultCookieSerializer does
+        //
+        final ResponseCookie cookie = ResponseCookie
+                .from(name, value)
+                .path(PATH)
+                .httpOnly(true)
+                .secure(request.isSecure())
+                .sameSite("Lax")
+                .maxAge(maxAge.isNegative() ? Duration.ZERO : maxAge)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
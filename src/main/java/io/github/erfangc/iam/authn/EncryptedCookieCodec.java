@@ -0,0 +1,172 @@
+package io.github.erfangc.iam.authn;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * {@link EncryptedCookieCodec} turns a value into a cookie value that only this service can read or forge, using AES-GCM
+ * <p>
+ * An encoded value looks like <code>&lt;kid&gt;.&lt;base64url(iv | ciphertext | tag)&gt;</code>. The plaintext carries the
+ * expiry of the value, so an expired cookie is rejected even if the browser keeps sending it, and the cookie name is
+ * authenticated as associated data, so a value issued for one cookie cannot be replayed as another
+ * <p>
+ * Keys form a ring, the first key encrypts and every key decrypts. To rotate, put the new key first and keep the retired one
+ * behind it until the cookies it issued have expired or been re-issued (see {@link Decoded#isCurrentKey()})
+ */
+public class EncryptedCookieCodec {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final Pattern KEY_ID = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final String currentKeyId;
+    private final Map<String, SecretKey> keys;
+    private final Clock clock;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    /**
+     * @param keys the key ring by key id, in iteration order, the first key is used to encrypt
+     */
+    public EncryptedCookieCodec(Map<String, byte[]> keys, Clock clock) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("at least one cookie key is required");
+        }
+        final Map<String, SecretKey> ring = new LinkedHashMap<>();
+        for (Map.Entry<String, byte[]> entry : keys.entrySet()) {
+            final String keyId = entry.getKey();
+            final int length = entry.getValue().length;
+            if (!KEY_ID.matcher(keyId).matches()) {
+                throw new IllegalArgumentException("cookie key id " + keyId + " must match " + KEY_ID.pattern());
+            }
+            if (length != 16 && length != 24 && length != 32) {
+                throw new IllegalArgumentException("cookie key " + keyId + " must be 16, 24 or 32 bytes long but is " + length);
+            }
+            ring.put(keyId, new SecretKeySpec(entry.getValue(), "AES"));
+        }
+        this.currentKeyId = ring.keySet().iterator().next();
+        this.keys = Collections.unmodifiableMap(ring);
+        this.clock = clock;
+    }
+
+    /**
+     * Parses a key ring of the form <code>kid1:base64key1,kid2:base64key2</code>, the first key is used to encrypt
+     */
+    public static EncryptedCookieCodec fromSpec(String spec, Clock clock) {
+        final Map<String, byte[]> keys = new LinkedHashMap<>();
+        for (String part : spec.split(",")) {
+            final String trimmed = part.trim();
+            final int separator = trimmed.indexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("cookie keys must be given as kid:base64key");
+            }
+            keys.put(trimmed.substring(0, separator), Base64.getDecoder().decode(trimmed.substring(separator + 1)));
+        }
+        return new EncryptedCookieCodec(keys, clock);
+    }
+
+    public String getCurrentKeyId() {
+        return currentKeyId;
+    }
+
+    public String encode(String name, String value, Instant expiresAt) {
+        final byte[] iv = new byte[IV_LENGTH];
+        secureRandom.nextBytes(iv);
+        final byte[] payload = value.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer plaintext = ByteBuffer.allocate(Long.BYTES + payload.length);
+        plaintext.putLong(expiresAt.getEpochSecond()).put(payload);
+        try {
+            final Cipher cipher = cipher(Cipher.ENCRYPT_MODE, keys.get(currentKeyId), iv, name);
+            final byte[] ciphertext = cipher.doFinal(plaintext.array());
+            final byte[] message = ByteBuffer.allocate(IV_LENGTH + ciphertext.length).put(iv).put(ciphertext).array();
+            return currentKeyId + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(message);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to encrypt cookie " + name, e);
+        }
+    }
+
+    /**
+     * @return the decoded value, or null if the cookie is malformed, was encrypted with a key that is no longer in the ring,
+     * fails authentication or has expired
+     */
+    public Decoded decode(String name, String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        final int separator = encoded.indexOf('.');
+        if (separator <= 0) {
+            return null;
+        }
+        final String keyId = encoded.substring(0, separator);
+        final SecretKey key = keys.get(keyId);
+        if (key == null) {
+            return null;
+        }
+        try {
+            final byte[] message = Base64.getUrlDecoder().decode(encoded.substring(separator + 1));
+            if (message.length < IV_LENGTH + TAG_BITS / 8 + Long.BYTES) {
+                return null;
+            }
+            final byte[] iv = new byte[IV_LENGTH];
+            System.arraycopy(message, 0, iv, 0, IV_LENGTH);
+            final Cipher cipher = cipher(Cipher.DECRYPT_MODE, key, iv, name);
+            final ByteBuffer plaintext = ByteBuffer.wrap(cipher.doFinal(message, IV_LENGTH, message.length - IV_LENGTH));
+            final Instant expiresAt = Instant.ofEpochSecond(plaintext.getLong());
+            if (!clock.instant().isBefore(expiresAt)) {
+                return null;
+            }
+            final String value = new String(plaintext.array(), plaintext.position(), plaintext.remaining(), StandardCharsets.UTF_8);
+            return new Decoded(value, expiresAt, keyId.equals(currentKeyId));
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static Cipher cipher(int mode, SecretKey key, byte[] iv, String name) throws GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(name.getBytes(StandardCharsets.UTF_8));
+        return cipher;
+    }
+
+    public static class Decoded {
+
+        private final String value;
+        private final Instant expiresAt;
+        private final boolean currentKey;
+
+        Decoded(String value, Instant expiresAt, boolean currentKey) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.currentKey = currentKey;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         * False when the value was encrypted with a retired key and should be re-issued under the current one
+         */
+        public boolean isCurrentKey() {
+            return currentKey;
+        }
+    }
+}
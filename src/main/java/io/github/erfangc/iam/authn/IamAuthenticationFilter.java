@@ -2,12 +2,17 @@ package io.github.erfangc.iam.authn;
 
 import com.auth0.jwt.interfaces.DecodedJWT;
 import io.github.erfangc.iam.Utilities;
+import io.github.erfangc.iam.audit.DecisionAuditLog;
 import io.github.erfangc.iam.authn.models.Credentials;
 import io.github.erfangc.iam.authn.models.Operation;
 import io.github.erfangc.iam.authz.models.AuthorizeResponse;
 import io.github.erfangc.iam.authz.services.AccessRequest;
 import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.http.HttpHeaders;
+import org.springframework.session.web.http.CookieHttpSessionIdResolver;
+import org.springframework.session.web.http.CookieSerializer;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
@@ -18,11 +23,13 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static io.github.erfangc.iam.Utilities.CREDENTIALS;
+import static io.github.erfangc.iam.Utilities.DECODED_JWT;
 import static io.github.erfangc.iam.Utilities.SUB;
 import static java.util.Collections.singleton;
 
@@ -40,52 +47,97 @@ import static java.util.Collections.singleton;
  * We have to take care to ensure that this filter runs after the {@link org.springframework.session.web.http.SessionRepositoryFilter} of Spring Session
  * and that filter creates a wrapper {@link HttpServletRequest} object that we take advantage of here by calling it's <code>getSession()</code> method, which
  * creates a session if one does not exist
+ * <p>
+ * The session is only loaded when {@link SessionTokenCache} does not already know the access token for the session id carried by
+ * the request's cookie. When {@link CookieSessions} is enabled there is no session at all, the access token is decrypted from
+ * the request's cookie instead
+ * <p>
+ * The stages of a request are timed by <code>iam.authn.stage</code>: <code>token</code> obtaining the access token from the header,
+ * cookie or session, <code>verify</code> verifying it and <code>authorize</code> the authorization decision. Stages that fail are not timed
  */
 @Component
 public class IamAuthenticationFilter extends OncePerRequestFilter {
 
     /**
-     * A list of {@link Operation} that does not require authentication
+     * The {@link Operation}(s) that do not require authentication, the built-in ones plus those configured through <code>PUBLIC_ROUTES</code>
      */
-    private final Set<Operation> noAuthOperations;
+    private final PublicRoutes publicRoutes;
     private JwtValidator jwtValidator;
     private AuthorizeService authorizeService;
+    private SessionTokenCache sessionTokenCache;
+    private CookieHttpSessionIdResolver sessionIdResolver;
+    private CookieSessions cookieSessions;
+    private DecisionAuditLog auditLog;
+    private Timer tokenStage;
+    private Timer verifyStage;
+    private Timer authorizeStage;
 
-    public IamAuthenticationFilter(JwtValidator jwtValidator, AuthorizeService authorizeService) {
+    public IamAuthenticationFilter(JwtValidator jwtValidator,
+                                   AuthorizeService authorizeService,
+                                   SessionTokenCache sessionTokenCache,
+                                   CookieSerializer cookieSerializer,
+                                   CookieSessions cookieSessions,
+                                   DecisionAuditLog auditLog,
+                                   MeterRegistry meterRegistry) {
         this.jwtValidator = jwtValidator;
         this.authorizeService = authorizeService;
-        noAuthOperations = new HashSet<>();
-        noAuthOperations.add(
+        this.sessionTokenCache = sessionTokenCache;
+        this.cookieSessions = cookieSessions;
+        this.auditLog = auditLog;
+        this.tokenStage = stage(meterRegistry, "token");
+        this.verifyStage = stage(meterRegistry, "verify");
+        this.authorizeStage = stage(meterRegistry, "authorize");
+        this.sessionIdResolver = new CookieHttpSessionIdResolver();
+        this.sessionIdResolver.setCookieSerializer(cookieSerializer);
+        final List<Operation> operations = new ArrayList<>();
+        operations.add(
                 new Operation()
                         .setResource("/")
                         .setVerbs(singleton("GET"))
         );
-        noAuthOperations.add(
+        operations.add(
                 new Operation()
                         .setResource("/iam/api/v1/callback")
                         .setVerbs(singleton("GET"))
         );
-        noAuthOperations.add(
+        operations.add(
                 new Operation()
                         .setResource("/iam/api/v1/login")
                         .setVerbs(singleton("GET"))
         );
-        noAuthOperations.add(
+        operations.add(
                 new Operation()
                         .setResource("/iam/api/v1/logout")
                         .setVerbs(singleton("GET"))
         );
+        operations.addAll(PublicRoutes.parse(System.getenv("PUBLIC_ROUTES")));
+        publicRoutes = new PublicRoutes(operations);
+        logger.info(IamAuthenticationFilter.class.getSimpleName() + " has started with publicRoutes=" + publicRoutes.getOperations());
+    }
+
+    private static Timer stage(MeterRegistry meterRegistry, String stage) {
+        return Timer
+                .builder("iam.authn.stage")
+                .description("Time spent in each stage of authenticating and authorizing a request")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static long record(Timer timer, long start) {
+        final long now = System.nanoTime();
+        timer.record(now - start, TimeUnit.NANOSECONDS);
+        return now;
     }
 
     private boolean allowUnauthenticated(HttpServletRequest httpServletRequest) {
-        final String resource = httpServletRequest.getRequestURI();
-        final String verb = httpServletRequest.getMethod();
-        for (Operation noAuthOperation : noAuthOperations) {
-            if (noAuthOperation.getVerbs().contains(verb) && noAuthOperation.getResource().equals(resource)) {
-                return true;
-            }
-        }
-        return false;
+        //
+        // match against the servlet path, which the container has already decoded and normalized, rather than the raw request uri,
+        // so a prefix route such as /static/** cannot be used to reach /static/../anything
+        //
+        final String pathInfo = httpServletRequest.getPathInfo();
+        final String path = httpServletRequest.getServletPath() + (pathInfo == null ? "" : pathInfo);
+        return publicRoutes.matches(httpServletRequest.getMethod(), path);
     }
 
     @Override
@@ -104,27 +156,28 @@ public class IamAuthenticationFilter extends OncePerRequestFilter {
             final String method = httpServletRequest.getMethod();
             String accessToken;
             DecodedJWT decodedJwt;
+            long start = System.nanoTime();
             try {
                 if (isApiCall) {
                     // handle JWT based authentication
                     accessToken = extractAccessToken(authorization);
+                } else if (cookieSessions.isEnabled()) {
+                    // handle encrypted cookie based authentication
+                    accessToken = getAccessTokenFromCookie(httpServletRequest, httpServletResponse);
                 } else {
                     // handle session based authentication
                     accessToken = getAccessTokenFromSession(httpServletRequest, httpServletResponse);
                 }
+                start = record(tokenStage, start);
                 decodedJwt = jwtValidator.decodeAndVerify(accessToken);
+                start = record(verifyStage, start);
                 //
                 // Request authenticated
                 //
                 String sub = decodedJwt.getSubject();
                 httpServletRequest.setAttribute(SUB, sub);
-                logger.info(
-                        "Authenticated request"
-                                + " type=" + (isApiCall ? "API" : "Web")
-                                + " sub=" + sub
-                                + " requestUri=" + requestURI
-                                + " method=" + method
-                );
+                httpServletRequest.setAttribute(DECODED_JWT, decodedJwt);
+                auditLog.authenticated(isApiCall ? "API" : "Web", sub, requestURI, method);
                 //
                 // if the request is to authenticate another request, allow it go through, that is the main point of IAM
                 // once authenticated everyone is allowed to call the _authorize operation against some resource and action
@@ -142,6 +195,7 @@ public class IamAuthenticationFilter extends OncePerRequestFilter {
                                     .setResource(requestURI)
                                     .setAction(method)
                     );
+                    record(authorizeStage, start);
                     if (authorizeResponse.getAllowed()) {
                         filterChain.doFilter(httpServletRequest, httpServletResponse);
                     } else {
@@ -152,12 +206,7 @@ public class IamAuthenticationFilter extends OncePerRequestFilter {
                 //
                 // Request unauthenticated
                 //
-                logger.info(
-                        "Unable to authenticated request"
-                                + " type=" + (isApiCall ? "API" : "Web")
-                                + " requestUri=" + requestURI
-                                + " method=" + method
-                );
+                auditLog.unauthenticated(isApiCall ? "API" : "Web", requestURI, method);
                 handleAuthenticationFailed(httpServletResponse, isApiCall);
             }
         }
@@ -193,7 +242,25 @@ public class IamAuthenticationFilter extends OncePerRequestFilter {
         }
     }
 
+    private String getAccessTokenFromCookie(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws UnauthenticatedException {
+        final String accessToken = cookieSessions.getAccessToken(httpServletRequest, httpServletResponse);
+        if (accessToken == null) {
+            throw new UnauthenticatedException("Unable to retrieve access token from session cookie");
+        }
+        return accessToken;
+    }
+
     private String getAccessTokenFromSession(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws UnauthenticatedException {
+        //
+        // the session cookie alone is enough if we have seen this session recently
+        //
+        final List<String> sessionIds = sessionIdResolver.resolveSessionIds(httpServletRequest);
+        if (!sessionIds.isEmpty()) {
+            final String accessToken = sessionTokenCache.get(sessionIds.get(0));
+            if (accessToken != null) {
+                return accessToken;
+            }
+        }
         //
         // create or get a session based on cookie value
         //
@@ -207,7 +274,11 @@ public class IamAuthenticationFilter extends OncePerRequestFilter {
         // attempts to retrieve and validate the access token from session, if this fails the user must login again
         //
         try {
-            return Utilities.objectMapper.readValue((String) credentials, Credentials.class).getAccessToken();
+            final String accessToken = Utilities.objectMapper.readValue((String) credentials, Credentials.class).getAccessToken();
+            if (accessToken != null) {
+                sessionTokenCache.put(session.getId(), accessToken);
+            }
+            return accessToken;
         } catch (Exception e) {
             session.invalidate();
             throw new UnauthenticatedException("Unable to deserialize access token from session credentials, error: " + e.getMessage());
@@ -0,0 +1,14 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+
+import java.util.List;
+
+/**
+ * Fetches every key currently published by the IdP, i.e. {@link com.auth0.jwk.UrlJwkProvider#getAll()}
+ */
+@FunctionalInterface
+public interface JwkSetProvider {
+    List<Jwk> getAll() throws JwkException;
+}
@@ -1,22 +1,22 @@
 package io.github.erfangc.iam.authn;
 
-import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.JwkProviderBuilder;
+import com.auth0.jwk.UrlJwkProvider;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.erfangc.iam.jfr.FlightEvent;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.security.interfaces.RSAPublicKey;
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
 
 /**
- * {@link JwtValidator} is a singleton helper that caches Jwks (Json Web Key Sets) from our OAuth 2.0 OpenID Connect
- * IdP and uses that information to validate JWT tokens. Users only have to use the {@link JwtValidator#decodeAndVerify(String)} method
+ * {@link JwtValidator} is a singleton helper that keeps Jwks (Json Web Key Sets) from our OAuth 2.0 OpenID Connect
+ * IdP up to date through {@link JwtVerifiers} and uses that information to validate JWT tokens. Users only have to use the {@link JwtValidator#decodeAndVerify(String)} method
  * once they've obtained the access token either through authorization header or session
  * <p>
  * The {@link JwtValidator#decodeAndVerify(String)} method not only verifies the signature but also produces a {@link DecodedJWT} instance
@@ -25,33 +25,96 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class JwtValidator {
 
-    private final JwkProvider jwkProvider;
-    private String issuer = System.getenv("ISSUER");
-    private String audience = System.getenv("AUDIENCE");
+    private static final Duration DEFAULT_JWKS_REFRESH_INTERVAL = Duration.ofMinutes(15);
+    private static final Duration DEFAULT_JWKS_MIN_FETCH_INTERVAL = Duration.ofSeconds(30);
+    private static final int JWKS_TIMEOUT_MILLIS = 5000;
 
-    public JwtValidator() {
-        jwkProvider = new JwkProviderBuilder(issuer)
-                .cached(5, 10, TimeUnit.HOURS)
-                .build();
+    private final JwtVerifiers jwtVerifiers;
+    private final VerifiedTokenCache verifiedTokenCache;
+
+    @Autowired
+    public JwtValidator(VerifiedTokenCache verifiedTokenCache) {
+        this(
+                jwksFor(System.getenv("ISSUER")),
+                System.getenv("ISSUER"),
+                System.getenv("AUDIENCE"),
+                durationFromEnv("JWKS_REFRESH_SECONDS", DEFAULT_JWKS_REFRESH_INTERVAL),
+                durationFromEnv("JWKS_MIN_FETCH_SECONDS", DEFAULT_JWKS_MIN_FETCH_INTERVAL),
+                verifiedTokenCache
+        );
+    }
+
+    public JwtValidator(JwkSetProvider jwkSetProvider,
+                        String issuer,
+                        String audience,
+                        Duration jwksRefreshInterval,
+                        Duration jwksMinFetchInterval,
+                        VerifiedTokenCache verifiedTokenCache) {
+        this.jwtVerifiers = new JwtVerifiers(jwkSetProvider, issuer, audience, jwksRefreshInterval, jwksMinFetchInterval);
+        this.verifiedTokenCache = verifiedTokenCache;
+    }
+
+    private static JwkSetProvider jwksFor(String issuer) {
+        return new UrlJwkProvider(jwksUrl(issuer), JWKS_TIMEOUT_MILLIS, JWKS_TIMEOUT_MILLIS)::getAll;
+    }
+
+    /**
+     * Like auth0's JwkProviderBuilder, an issuer without a scheme such as <code>tenant.auth0.com</code> is taken to be served over https
+     */
+    static URL jwksUrl(String issuer) {
+        try {
+            final String base = issuer != null && !issuer.startsWith("http") ? "https://" + issuer : issuer;
+            return new URL(new URL(base), "/.well-known/jwks.json");
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("ISSUER must be a URL, got " + issuer, e);
+        }
     }
 
+    private static Duration durationFromEnv(String name, Duration defaultValue) {
+        final String seconds = System.getenv(name);
+        return seconds == null || seconds.isEmpty() ? defaultValue : Duration.ofSeconds(Long.parseLong(seconds));
+    }
+
+    /**
+     * Tokens that have been verified before and have not expired are served from {@link VerifiedTokenCache} without being
+     * verified again. Each call is recorded as a {@link FlightEvent#jwtVerification()}
+     */
     public DecodedJWT decodeAndVerify(String token) throws UnauthenticatedException {
-        final DecodedJWT decodedJWT = JWT.decode(token);
-        //
-        // find the kid from jwkProvider, use that to construct the public key needed
-        //
-        final String kid = decodedJWT.getKeyId();
+        final FlightEvent event = FlightEvent.jwtVerification();
+        final DecodedJWT cached = verifiedTokenCache.get(token);
+        if (cached != null) {
+            event.commit(cached.getSubject(), null, null, null, "cached", 0);
+            return cached;
+        }
+        DecodedJWT decodedJWT = null;
         try {
-            final JWTVerifier jwtVerifier = jwtVerifierForKid(kid);
-            return jwtVerifier.verify(decodedJWT);
-        } catch (JwkException | JWTVerificationException e) {
+            decodedJWT = JWT.decode(token);
+            //
+            // the verifier for the token's kid is prepared ahead of time by JwtVerifiers
+            //
+            final String kid = decodedJWT.getKeyId();
+            final JWTVerifier jwtVerifier = jwtVerifiers.forKid(kid);
+            final DecodedJWT verified = jwtVerifier.verify(decodedJWT);
+            verifiedTokenCache.put(token, verified);
+            event.commit(verified.getSubject(), null, null, null, "verified", 0);
+            return verified;
+        } catch (JWTVerificationException e) {
+            event.commit(decodedJWT == null ? null : decodedJWT.getSubject(), null, null, null, "rejected", 0);
+            if (decodedJWT == null) {
+                throw e;
+            }
             throw new UnauthenticatedException(e);
+        } catch (UnauthenticatedException e) {
+            //
+            // the kid is unknown or the keys could not be fetched
+            //
+            event.commit(decodedJWT.getSubject(), null, null, null, "rejected", 0);
+            throw e;
         }
     }
 
-    private JWTVerifier jwtVerifierForKid(String kid) throws JwkException {
-        final Jwk jwk = jwkProvider.get(kid);
-        final RSAPublicKey publicKey = (RSAPublicKey) jwk.getPublicKey();
-        return JWT.require(Algorithm.RSA256(publicKey, null)).withIssuer(issuer).withAudience(audience).acceptLeeway(0).build();
+    @PreDestroy
+    public void close() {
+        jwtVerifiers.close();
     }
 }
@@ -0,0 +1,159 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link JwtVerifiers} holds one ready to use {@link JWTVerifier} per kid published by the IdP, so verifying a token never builds
+ * a verifier or talks to the IdP on the request thread when the kid is known
+ * <p>
+ * The key set is fetched on a background thread at start and then every refresh interval, so keys that are published ahead of
+ * a rotation are in place before the first token signed with them arrives. A token with an unknown kid triggers a fetch, but:
+ * <ul>
+ *     <li>only one fetch is ever in flight, concurrent requests wait for that same fetch</li>
+ *     <li>a new fetch is started at most once per minimum fetch interval, otherwise the kid is rejected right away</li>
+ * </ul>
+ * so a flood of tokens with made-up kids costs at most one call to the IdP per interval
+ */
+public class JwtVerifiers implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtVerifiers.class);
+    private static final long FETCH_TIMEOUT_MILLIS = 10000;
+
+    private final JwkSetProvider jwkSetProvider;
+    private final String issuer;
+    private final String audience;
+    private final long minFetchIntervalNanos;
+    private final ScheduledExecutorService executor;
+    private volatile Map<String, JWTVerifier> verifiers = Collections.emptyMap();
+    private CompletableFuture<Void> inFlight;
+    private long lastFetchNanos;
+    private boolean fetched;
+
+    public JwtVerifiers(JwkSetProvider jwkSetProvider, String issuer, String audience, Duration refreshInterval, Duration minFetchInterval) {
+        this.jwkSetProvider = jwkSetProvider;
+        this.issuer = issuer;
+        this.audience = audience;
+        this.minFetchIntervalNanos = minFetchInterval.toNanos();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refresh, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        logger.info(
+                "{} has started with refreshInterval={} minFetchInterval={}",
+                JwtVerifiers.class.getSimpleName(),
+                refreshInterval,
+                minFetchInterval
+        );
+    }
+
+    /**
+     * @throws UnauthenticatedException if the kid is not published by the IdP, or cannot be looked up right now
+     */
+    public JWTVerifier forKid(String kid) throws UnauthenticatedException {
+        final JWTVerifier verifier = verifiers.get(kid);
+        if (verifier != null) {
+            return verifier;
+        }
+        final CompletableFuture<Void> fetch = fetchForUnknownKid();
+        if (fetch == null) {
+            throw new UnauthenticatedException("Unknown kid " + kid);
+        }
+        try {
+            fetch.get(FETCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnauthenticatedException("Interrupted while fetching kid " + kid, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new UnauthenticatedException("Cannot fetch kid " + kid, e);
+        }
+        final JWTVerifier fetched = verifiers.get(kid);
+        if (fetched == null) {
+            throw new UnauthenticatedException("Unknown kid " + kid);
+        }
+        return fetched;
+    }
+
+    private synchronized CompletableFuture<Void> fetchForUnknownKid() {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        if (fetched && System.nanoTime() - lastFetchNanos < minFetchIntervalNanos) {
+            return null;
+        }
+        return refresh();
+    }
+
+    /**
+     * Starts fetching the key set unless a fetch is already in flight, in which case that one is returned
+     */
+    synchronized CompletableFuture<Void> refresh() {
+        if (inFlight != null) {
+            return inFlight;
+        }
+        final CompletableFuture<Void> fetch = new CompletableFuture<>();
+        inFlight = fetch;
+        fetched = true;
+        lastFetchNanos = System.nanoTime();
+        executor.execute(() -> {
+            try {
+                verifiers = load();
+                fetch.complete(null);
+            } catch (Exception e) {
+                logger.error("Cannot fetch JWKS, keeping {} known kid(s) error={}", verifiers.size(), e.getMessage());
+                fetch.completeExceptionally(e);
+            } finally {
+                synchronized (JwtVerifiers.this) {
+                    inFlight = null;
+                }
+            }
+        });
+        return fetch;
+    }
+
+    private Map<String, JWTVerifier> load() throws JwkException {
+        final List<Jwk> jwks = jwkSetProvider.getAll();
+        final Map<String, JWTVerifier> ret = new HashMap<>();
+        for (Jwk jwk : jwks) {
+            if (jwk.getId() == null || !"RSA".equals(jwk.getType())) {
+                continue;
+            }
+            try {
+                final RSAPublicKey publicKey = (RSAPublicKey) jwk.getPublicKey();
+                ret.put(
+                        jwk.getId(),
+                        JWT.require(Algorithm.RSA256(publicKey, null)).withIssuer(issuer).withAudience(audience).acceptLeeway(0).build()
+                );
+            } catch (JwkException e) {
+                logger.error("Ignoring JWK kid={} error={}", jwk.getId(), e.getMessage());
+            }
+        }
+        logger.info("Fetched JWKS kids={}", ret.keySet());
+        return Collections.unmodifiableMap(ret);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -9,7 +9,9 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
 import java.security.SecureRandom;
 
 import static io.github.erfangc.iam.Utilities.STATE;
@@ -20,10 +22,21 @@ import static java.util.Collections.singletonList;
  * The {@link LoginLogoutController} handles calls to <code>/login</code> and <code>/logout</code>
  * <p>
  * <code>/login</code> will redirect to IdP login screen while <code>/logout</code> will do the same to the Idp logout page
+ * <p>
+ * Login state lives in the spring-session session, or in an encrypted cookie when {@link CookieSessions} is enabled
  */
 @Controller
 @RequestMapping("/iam/api/v1")
 public class LoginLogoutController {
+
+    private SessionTokenCache sessionTokenCache;
+    private CookieSessions cookieSessions;
+
+    public LoginLogoutController(SessionTokenCache sessionTokenCache, CookieSessions cookieSessions) {
+        this.sessionTokenCache = sessionTokenCache;
+        this.cookieSessions = cookieSessions;
+    }
+
     /**
      * Generates a new random string using {@link SecureRandom}.
      * The output can be used as State or Nonce values for API requests.
@@ -38,18 +51,22 @@ public class LoginLogoutController {
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "login")
-    public ResponseEntity<?> login(HttpServletRequest request) {
-        HttpSession session = request.getSession(true);
+    public ResponseEntity<?> login(HttpServletRequest request, HttpServletResponse response) throws IOException {
         //
         // Construct the OAuth 2.0 Authorization Code Exchange URL to initialize login
         //
         final String state = secureRandomString();
-        session.setAttribute(STATE, state);
         String originalRequestUri = request.getParameter("originalRequestUri");
         if (originalRequestUri == null) {
             originalRequestUri = "/home";
         }
-        session.setAttribute(X_AUTH_REQUEST_REDIRECT, originalRequestUri);
+        if (cookieSessions.isEnabled()) {
+            cookieSessions.setLoginState(request, response, state, originalRequestUri);
+        } else {
+            HttpSession session = request.getSession(true);
+            session.setAttribute(STATE, state);
+            session.setAttribute(X_AUTH_REQUEST_REDIRECT, originalRequestUri);
+        }
         //
         // store a randomly generated state into the session before redirecting the requester to login with our Idp
         // when the login flow is complete, our /callback endpoint will validate the state generated here with the one
@@ -72,9 +89,14 @@ public class LoginLogoutController {
     }
 
     @RequestMapping(method = RequestMethod.GET, path = "logout")
-    public ResponseEntity<?> logout(HttpServletRequest request) {
-        final HttpSession session = request.getSession();
-        session.invalidate();
+    public ResponseEntity<?> logout(HttpServletRequest request, HttpServletResponse response) {
+        if (cookieSessions.isEnabled()) {
+            cookieSessions.clear(request, response);
+        } else {
+            final HttpSession session = request.getSession();
+            sessionTokenCache.evict(session.getId());
+            session.invalidate();
+        }
         HttpHeaders headers = new HttpHeaders();
         String issuer = System.getenv("ISSUER");
         String logoutUrl = issuer + "logout";
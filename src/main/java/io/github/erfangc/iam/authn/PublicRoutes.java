@@ -0,0 +1,155 @@
+package io.github.erfangc.iam.authn;
+
+import io.github.erfangc.iam.authn.models.Operation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link PublicRoutes} is the precompiled index of {@link Operation}(s) that {@link IamAuthenticationFilter} lets through without
+ * authentication. Routes are stored in a trie of path segments, so a lookup walks the request path once instead of comparing it
+ * against every route
+ * <p>
+ * A route's resource is split on <code>/</code> into segments, each segment is one of:
+ * <ul>
+ *     <li><code>*</code> matches exactly one path segment, i.e. <code>/users/*&#47;avatar</code> matches <code>/users/1/avatar</code></li>
+ *     <li><code>**</code>, only as the last segment, matches zero or more path segments, i.e. <code>/static/**</code> matches
+ *     <code>/static</code>, <code>/static/app.js</code> and <code>/static/js/app.js</code></li>
+ *     <li>anything else must equal the path segment exactly (including a trailing empty segment)</li>
+ * </ul>
+ * A verb of <code>*</code> allows every method
+ */
+public class PublicRoutes {
+
+    private static final String ANY_VERB = "*";
+    private static final String ANY_SEGMENT = "*";
+    private static final String ANY_SEGMENTS = "**";
+
+    private final Node root = new Node();
+    private final List<Operation> operations = new ArrayList<>();
+
+    public PublicRoutes(Collection<Operation> operations) {
+        for (Operation operation : operations) {
+            add(operation);
+        }
+    }
+
+    /**
+     * Parses routes of the form <code>GET,HEAD /actuator/health;* /static/**</code>, i.e. routes separated by <code>;</code>,
+     * each one being a comma separated list of verbs followed by the resource. A route without verbs allows every method
+     */
+    public static List<Operation> parse(String spec) {
+        final List<Operation> operations = new ArrayList<>();
+        if (spec == null) {
+            return operations;
+        }
+        for (String route : spec.split(";")) {
+            final String[] parts = route.trim().split("\\s+");
+            if (parts.length == 1 && parts[0].isEmpty()) {
+                continue;
+            }
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("public route " + route.trim() + " must be given as VERBS /resource");
+            }
+            final String verbs = parts.length == 2 ? parts[0] : ANY_VERB;
+            operations.add(
+                    new Operation()
+                            .setResource(parts[parts.length - 1])
+                            .setVerbs(new LinkedHashSet<>(Arrays.asList(verbs.split(","))))
+            );
+        }
+        return operations;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    private void add(Operation operation) {
+        final String resource = operation.getResource();
+        if (resource == null || !resource.startsWith("/")) {
+            throw new IllegalArgumentException("public route resource " + resource + " must start with /");
+        }
+        final Set<String> verbs = new HashSet<>();
+        for (String verb : operation.getVerbs()) {
+            verbs.add(verb.trim().toUpperCase());
+        }
+        final String[] segments = resource.substring(1).split("/", -1);
+        Node node = root;
+        for (int i = 0; i < segments.length; i++) {
+            final String segment = segments[i];
+            if (segment.equals(ANY_SEGMENTS)) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("public route resource " + resource + " may only use ** as its last segment");
+                }
+                node.subtreeVerbs.addAll(verbs);
+                operations.add(operation);
+                return;
+            }
+            if (segment.equals(ANY_SEGMENT)) {
+                if (node.anySegment == null) {
+                    node.anySegment = new Node();
+                }
+                node = node.anySegment;
+            } else {
+                node = node.literals.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+        node.verbs.addAll(verbs);
+        operations.add(operation);
+    }
+
+    /**
+     * @param path the decoded and normalized request path, i.e. without <code>..</code> segments or path parameters
+     */
+    public boolean matches(String verb, String path) {
+        if (verb == null || path == null || !path.startsWith("/")) {
+            return false;
+        }
+        return matches(root, verb, path, 1);
+    }
+
+    /**
+     * @param start the index of the next path segment to be matched below node
+     */
+    private static boolean matches(Node node, String verb, String path, int start) {
+        if (allows(node.subtreeVerbs, verb)) {
+            return true;
+        }
+        int end = path.indexOf('/', start);
+        final boolean last = end < 0;
+        if (last) {
+            end = path.length();
+        }
+        final Node literal = node.literals.get(path.substring(start, end));
+        if (literal != null && matchesRest(literal, verb, path, end, last)) {
+            return true;
+        }
+        return node.anySegment != null && matchesRest(node.anySegment, verb, path, end, last);
+    }
+
+    private static boolean matchesRest(Node node, String verb, String path, int end, boolean last) {
+        if (last) {
+            return allows(node.verbs, verb) || allows(node.subtreeVerbs, verb);
+        }
+        return matches(node, verb, path, end + 1);
+    }
+
+    private static boolean allows(Set<String> verbs, String verb) {
+        return !verbs.isEmpty() && (verbs.contains(verb) || verbs.contains(ANY_VERB));
+    }
+
+    private static class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private Node anySegment;
+        private final Set<String> verbs = new HashSet<>();
+        private final Set<String> subtreeVerbs = new HashSet<>();
+    }
+}
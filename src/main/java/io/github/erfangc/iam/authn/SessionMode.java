@@ -0,0 +1,21 @@
+package io.github.erfangc.iam.authn;
+
+/**
+ * Where web (non API) callers keep their credentials between requests, configured through the <code>SESSION_MODE</code>
+ * environment variable
+ */
+public enum SessionMode {
+    /**
+     * A spring-session session stored in Redis, identified by the session cookie (the default)
+     */
+    REDIS,
+    /**
+     * No server side state, the access token travels in a cookie encrypted and authenticated by {@link EncryptedCookieCodec}
+     */
+    COOKIE;
+
+    public static SessionMode fromEnv() {
+        final String mode = System.getenv("SESSION_MODE");
+        return mode == null || mode.isEmpty() ? REDIS : valueOf(mode.toUpperCase());
+    }
+}
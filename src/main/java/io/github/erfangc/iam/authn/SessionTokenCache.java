@@ -0,0 +1,139 @@
+package io.github.erfangc.iam.authn;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.session.events.SessionDestroyedEvent;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * {@link SessionTokenCache} is a near-cache of session id to the access token stored in that session's credentials, so that
+ * {@link IamAuthenticationFilter} can authenticate web requests without loading the session from Redis and parsing its
+ * credentials every time
+ * <p>
+ * Entries live for a short TTL (<code>SESSION_CACHE_TTL_SECONDS</code>, 30 by default) in a bounded LRU (<code>SESSION_CACHE_SIZE</code>,
+ * 10000 by default, 0 disables it). The TTL also guarantees the session is still read, and its idle timeout in Redis extended, at
+ * least that often while it is in use. Sessions that are deleted or expire anywhere are evicted through spring-session's
+ * {@link SessionDestroyedEvent}(s), logout and login evict their own session right away
+ */
+@Component
+public class SessionTokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionTokenCache.class);
+    private static final int DEFAULT_MAX_SIZE = 10000;
+    private static final Duration DEFAULT_TTL = Duration.ofSeconds(30);
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public SessionTokenCache(MeterRegistry meterRegistry) {
+        this(intFromEnv("SESSION_CACHE_SIZE", DEFAULT_MAX_SIZE), ttlFromEnv(), meterRegistry, Clock.systemUTC());
+    }
+
+    SessionTokenCache(int maxSize, Duration ttl, MeterRegistry meterRegistry, Clock clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        hits = Counter
+                .builder("iam.session.cache")
+                .description("Lookups of session access tokens by session id")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        misses = Counter
+                .builder("iam.session.cache")
+                .description("Lookups of session access tokens by session id")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        logger.info("{} has started with maxSize={} ttl={}", SessionTokenCache.class.getSimpleName(), maxSize, ttl);
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static Duration ttlFromEnv() {
+        final String seconds = System.getenv("SESSION_CACHE_TTL_SECONDS");
+        return seconds == null || seconds.isEmpty() ? DEFAULT_TTL : Duration.ofSeconds(Long.parseLong(seconds));
+    }
+
+    /**
+     * @return the access token of the given session, null if it is not cached or the entry has expired
+     */
+    public String get(String sessionId) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        String accessToken = null;
+        synchronized (this) {
+            final Entry entry = entries.get(sessionId);
+            if (entry != null) {
+                if (entry.expiresAtMillis > clock.millis()) {
+                    accessToken = entry.accessToken;
+                } else {
+                    entries.remove(sessionId);
+                }
+            }
+        }
+        if (accessToken == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return accessToken;
+    }
+
+    public void put(String sessionId, String accessToken) {
+        if (maxSize <= 0) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(sessionId, new Entry(accessToken, clock.millis() + ttlMillis));
+            if (entries.size() > maxSize) {
+                final Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public synchronized void evict(String sessionId) {
+        entries.remove(sessionId);
+    }
+
+    /**
+     * Covers both {@link org.springframework.session.events.SessionDeletedEvent} and {@link org.springframework.session.events.SessionExpiredEvent},
+     * which spring-session-data-redis publishes on every instance from Redis keyspace notifications
+     */
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent event) {
+        evict(event.getSessionId());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        private final String accessToken;
+        private final long expiresAtMillis;
+
+        private Entry(String accessToken, long expiresAtMillis) {
+            this.accessToken = accessToken;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * {@link VerifiedTokenCache} remembers tokens that {@link JwtValidator} has already verified, so that the same bearer token
+ * presented again is not decoded and RSA verified again. Entries are keyed by the SHA-256 digest of the raw token and are only
+ * served until the token's <code>exp</code>, tokens without one are never cached
+ * <p>
+ * The cache is a bounded LRU sized by the <code>JWT_CACHE_SIZE</code> environment variable (10000 by default, 0 disables it). Hits
+ * and misses are counted on the <code>iam.jwt.verified.cache</code> meter
+ */
+@Component
+public class VerifiedTokenCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerifiedTokenCache.class);
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+    private final Clock clock;
+    private final LinkedHashMap<String, DecodedJWT> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Counter hits;
+    private final Counter misses;
+
+    @Autowired
+    public VerifiedTokenCache(MeterRegistry meterRegistry) {
+        this(maxSizeFromEnv(), meterRegistry);
+    }
+
+    public VerifiedTokenCache(int maxSize, MeterRegistry meterRegistry) {
+        this(maxSize, meterRegistry, Clock.systemUTC());
+    }
+
+    VerifiedTokenCache(int maxSize, MeterRegistry meterRegistry, Clock clock) {
+        this.maxSize = maxSize;
+        this.clock = clock;
+        hits = Counter
+                .builder("iam.jwt.verified.cache")
+                .description("Lookups of verified JWTs by token digest")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        misses = Counter
+                .builder("iam.jwt.verified.cache")
+                .description("Lookups of verified JWTs by token digest")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        logger.info("{} has started with maxSize={}", VerifiedTokenCache.class.getSimpleName(), maxSize);
+    }
+
+    private static int maxSizeFromEnv() {
+        final String maxSize = System.getenv("JWT_CACHE_SIZE");
+        return maxSize == null || maxSize.isEmpty() ? DEFAULT_MAX_SIZE : Integer.parseInt(maxSize);
+    }
+
+    /**
+     * @return the previously verified token, null if it has not been verified or has expired since
+     */
+    public DecodedJWT get(String token) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        final String digest = DigestUtils.sha256Hex(token);
+        final DecodedJWT decodedJWT;
+        synchronized (this) {
+            decodedJWT = entries.get(digest);
+            if (decodedJWT != null && isExpired(decodedJWT)) {
+                entries.remove(digest);
+                misses.increment();
+                return null;
+            }
+        }
+        if (decodedJWT == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return decodedJWT;
+    }
+
+    /**
+     * Must only be called with a token that has just been successfully verified
+     */
+    public void put(String token, DecodedJWT decodedJWT) {
+        if (maxSize <= 0 || decodedJWT.getExpiresAt() == null || isExpired(decodedJWT)) {
+            return;
+        }
+        final String digest = DigestUtils.sha256Hex(token);
+        synchronized (this) {
+            entries.put(digest, decodedJWT);
+            if (entries.size() > maxSize) {
+                final Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(DecodedJWT decodedJWT) {
+        final Date expiresAt = decodedJWT.getExpiresAt();
+        return !expiresAt.after(Date.from(clock.instant()));
+    }
+}
@@ -1,5 +1,6 @@
 package io.github.erfangc.iam.authn.models;
 
+import java.util.Objects;
 import java.util.Set;
 
 public class Operation {
@@ -23,4 +24,26 @@ public class Operation {
         this.verbs = verbs;
         return this;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Operation operation = (Operation) o;
+        return Objects.equals(resource, operation.resource) && Objects.equals(verbs, operation.verbs);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(resource, verbs);
+    }
+
+    @Override
+    public String toString() {
+        return verbs + " " + resource;
+    }
 }
@@ -1,28 +1,103 @@
 package io.github.erfangc.iam.authz.controllers;
 
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.github.erfangc.iam.authz.models.AuthorizeBatchRequest;
+import io.github.erfangc.iam.authz.models.AuthorizeBatchResponse;
 import io.github.erfangc.iam.authz.models.AuthorizeResponse;
 import io.github.erfangc.iam.authz.services.AccessRequest;
 import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.github.erfangc.iam.authz.services.PolicyChangeSubscriber;
+import io.github.erfangc.iam.authz.services.PolicySnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
+import static io.github.erfangc.iam.Utilities.DECODED_JWT;
 import static io.github.erfangc.iam.Utilities.SUB;
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
+import static org.springframework.web.bind.annotation.RequestMethod.POST;
 
 @Controller
 @RequestMapping("/iam/api/v1")
 public class AuthorizeController {
+    public static final String X_POLICY_VERSION = "X-Policy-Version";
+    /**
+     * What a cacheable decision depends on besides the policy version: who is asking and what they are asking for
+     */
+    private static final List<String> VARY = unmodifiableList(asList(
+            HttpHeaders.AUTHORIZATION,
+            HttpHeaders.COOKIE,
+            "X-Auth-Request-Redirect",
+            "X-Original-Method"
+    ));
     private AuthorizeService authorizeService;
+    private PolicyChangeSubscriber policyChangeSubscriber;
+    /**
+     * When true decisions are made on Lettuce async commands and the response is completed off the Tomcat worker thread, so
+     * workers are not parked while Redis is slow. Controlled by the AUTHORIZE_ASYNC environment variable
+     */
+    private boolean async;
+    /**
+     * When true <code>_authorize</code> answers with an empty 204 or 403 and no JSON body, for proxies that only look at the status
+     * and headers. Controlled by the AUTHORIZE_NO_CONTENT environment variable
+     */
+    private boolean noContent;
+    private IdentityHeaders identityHeaders;
+    /**
+     * How long a proxy may cache a <code>_authorize</code> decision, controlled by the AUTHORIZE_MAX_AGE_SECONDS environment
+     * variable. When set, decisions carry the policy version as their ETag and a revalidation at an unchanged version is answered
+     * with 304 without deciding again. When not set decisions must not be cached
+     * <p>
+     * A decision belongs to the caller who asked for it, so it is only ever cacheable as <code>private</code> and varies on the
+     * credentials and the request being authorized, a proxy caching it must key on the same, see README
+     */
+    private Duration maxAge;
 
-    public AuthorizeController(AuthorizeService authorizeService) {
+    @Autowired
+    public AuthorizeController(AuthorizeService authorizeService, PolicyChangeSubscriber policyChangeSubscriber) {
+        this(
+                authorizeService,
+                policyChangeSubscriber,
+                Boolean.parseBoolean(System.getenv("AUTHORIZE_ASYNC")),
+                Boolean.parseBoolean(System.getenv("AUTHORIZE_NO_CONTENT")),
+                IdentityHeaders.fromEnv(),
+                maxAgeFromEnv()
+        );
+    }
+
+    AuthorizeController(AuthorizeService authorizeService,
+                        PolicyChangeSubscriber policyChangeSubscriber,
+                        boolean async,
+                        boolean noContent,
+                        IdentityHeaders identityHeaders,
+                        Duration maxAge) {
         this.authorizeService = authorizeService;
+        this.policyChangeSubscriber = policyChangeSubscriber;
+        this.async = async;
+        this.noContent = noContent;
+        this.identityHeaders = identityHeaders;
+        this.maxAge = maxAge;
+    }
+
+    private static Duration maxAgeFromEnv() {
+        final String maxAgeSeconds = System.getenv("AUTHORIZE_MAX_AGE_SECONDS");
+        return maxAgeSeconds == null || maxAgeSeconds.isEmpty() ? null : Duration.ofSeconds(Long.parseLong(maxAgeSeconds));
     }
 
     @RequestMapping(
@@ -30,21 +105,96 @@ public class AuthorizeController {
             path = "/_authorize"
     )
     @ResponseBody
-    public ResponseEntity<AuthorizeResponse> authorizeRequest(HttpServletRequest httpServletRequest) {
+    public CompletionStage<ResponseEntity<AuthorizeResponse>> authorizeRequest(HttpServletRequest httpServletRequest) {
         String resource = httpServletRequest.getHeader("X-Auth-Request-Redirect");
         String action = httpServletRequest.getHeader("X-Original-Method");
         String sub = httpServletRequest.getAttribute(SUB).toString();
         AccessRequest accessRequest = new AccessRequest().setAction(action).setResource(resource).setSub(sub);
-        final AuthorizeResponse response = authorizeService.authorizeRequest(accessRequest);
+        //
+        // the version is read before deciding, so the decision reflects at least that version and can be cached under it
+        //
+        final long policyVersion = policyVersion();
+        final String eTag = maxAge != null && policyVersion >= 0 ? "\"" + policyVersion + "\"" : null;
+        if (eTag != null && eTagMatches(httpServletRequest.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            return completedFuture(new ResponseEntity<>(cacheHeaders(new HttpHeaders(), policyVersion, eTag), HttpStatus.NOT_MODIFIED));
+        }
+        final CompletionStage<AuthorizeResponse> response = async
+                ? authorizeService.authorizeRequestAsync(accessRequest)
+                : completedFuture(authorizeService.authorizeRequest(accessRequest));
+        final DecodedJWT decodedJwt = (DecodedJWT) httpServletRequest.getAttribute(DECODED_JWT);
+        return response.thenApply(it -> toResponseEntity(it, sub, decodedJwt, policyVersion, eTag));
+    }
+
+    private ResponseEntity<AuthorizeResponse> toResponseEntity(AuthorizeResponse response,
+                                                               String sub,
+                                                               DecodedJWT decodedJwt,
+                                                               long policyVersion,
+                                                               String eTag) {
         if (response.getAllowed()) {
             //
-            // TODO include user headers to forward to upstream
+            // identity headers for the proxy to forward upstream, i.e. nginx auth_request_set
             //
-            MultiValueMap<String, String> headers = new HttpHeaders();
-            return new ResponseEntity<>(response, headers, HttpStatus.OK);
+            MultiValueMap<String, String> headers = cacheHeaders(identityHeaders.headers(sub, response.getRoles(), decodedJwt), policyVersion, eTag);
+            return noContent
+                    ? new ResponseEntity<>(headers, HttpStatus.NO_CONTENT)
+                    : new ResponseEntity<>(response, headers, HttpStatus.OK);
+        } else {
+            MultiValueMap<String, String> headers = cacheHeaders(new HttpHeaders(), policyVersion, eTag);
+            return noContent
+                    ? new ResponseEntity<>(headers, HttpStatus.FORBIDDEN)
+                    : new ResponseEntity<>(response, headers, HttpStatus.FORBIDDEN);
+        }
+    }
+
+    /**
+     * The version decisions are made against, exact in snapshot mode, otherwise the one this instance's cache is known to reflect
+     */
+    private long policyVersion() {
+        final PolicySnapshot snapshot = authorizeService.getPolicySnapshot();
+        return snapshot != null ? snapshot.getVersion() : policyChangeSubscriber.getPolicyVersion();
+    }
+
+    private HttpHeaders cacheHeaders(HttpHeaders headers, long policyVersion, String eTag) {
+        if (policyVersion >= 0) {
+            headers.set(X_POLICY_VERSION, String.valueOf(policyVersion));
+        }
+        if (eTag != null) {
+            headers.setETag(eTag);
+            headers.setCacheControl(CacheControl.maxAge(maxAge.getSeconds(), TimeUnit.SECONDS).cachePrivate().getHeaderValue());
+            headers.setVary(VARY);
         } else {
-            return new ResponseEntity<>(response, HttpStatus.FORBIDDEN);
+            headers.setCacheControl(CacheControl.noStore().getHeaderValue());
+        }
+        return headers;
+    }
+
+    private static boolean eTagMatches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            final String trimmed = candidate.trim();
+            if (trimmed.equals(eTag) || trimmed.equals("W/" + eTag)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Authorizes many (resource, action) pairs for the authenticated subject in one call, i.e. for a UI deciding which controls to render
+     */
+    @RequestMapping(
+            method = POST,
+            path = "/_authorize:batch"
+    )
+    @ResponseBody
+    public CompletionStage<AuthorizeBatchResponse> authorizeRequests(HttpServletRequest httpServletRequest, @RequestBody AuthorizeBatchRequest body) {
+        String sub = httpServletRequest.getAttribute(SUB).toString();
+        final CompletionStage<List<AuthorizeResponse>> responses = async
+                ? authorizeService.authorizeRequestsAsync(sub, body.getAccessRequests())
+                : completedFuture(authorizeService.authorizeRequests(sub, body.getAccessRequests()));
+        return responses.thenApply(it -> new AuthorizeBatchResponse().setResponses(it));
     }
 
 }
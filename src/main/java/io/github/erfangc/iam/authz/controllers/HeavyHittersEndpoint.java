@@ -0,0 +1,28 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import io.github.erfangc.iam.authz.services.HeavyHitters;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Exposes the subjects, resource prefixes and denials that dominate this instance's authorization traffic on <code>/actuator/heavyhitters</code>,
+ * see {@link HeavyHitters}
+ */
+@Component
+@Endpoint(id = "heavyhitters")
+public class HeavyHittersEndpoint {
+
+    private HeavyHitters heavyHitters;
+
+    public HeavyHittersEndpoint(HeavyHitters heavyHitters) {
+        this.heavyHitters = heavyHitters;
+    }
+
+    @ReadOperation
+    public Map<String, Object> heavyHitters() {
+        return heavyHitters.report();
+    }
+}
@@ -1,6 +1,7 @@
 package io.github.erfangc.iam.authz.controllers;
 
 import io.github.erfangc.iam.authz.models.*;
+import io.github.erfangc.iam.authz.services.GroupsService;
 import io.github.erfangc.iam.authz.services.RoleBindingsService;
 import io.github.erfangc.iam.authz.services.RolesService;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -16,10 +17,12 @@ public class IamController {
 
     private RolesService rolesService;
     private RoleBindingsService roleBindingsService;
+    private GroupsService groupsService;
 
-    public IamController(RolesService rolesService, RoleBindingsService roleBindingsService) {
+    public IamController(RolesService rolesService, RoleBindingsService roleBindingsService, GroupsService groupsService) {
         this.rolesService = rolesService;
         this.roleBindingsService = roleBindingsService;
+        this.groupsService = groupsService;
     }
 
     @RequestMapping(method = GET, path = "/roles")
@@ -62,4 +65,24 @@ public class IamController {
         return roleBindingsService.deleteRoleBinding(id);
     }
 
-}
\ No newline at end of file
+    @RequestMapping(method = GET, path = "/groups/{id}")
+    public GetGroupResponse getGroup(@PathVariable String id) {
+        return groupsService.getGroup(id);
+    }
+
+    @RequestMapping(method = DELETE, path = "/groups/{id}")
+    public DeleteGroupResponse deleteGroup(@PathVariable String id) {
+        return groupsService.deleteGroup(id);
+    }
+
+    @RequestMapping(method = POST, path = "/groups/{id}/members")
+    public AddGroupMemberResponse addGroupMember(@PathVariable String id, @RequestBody AddGroupMemberRequest body) {
+        return groupsService.addGroupMember(id, body);
+    }
+
+    @RequestMapping(method = DELETE, path = "/groups/{id}/members/{memberType}/{memberId}")
+    public RemoveGroupMemberResponse removeGroupMember(@PathVariable String id, @PathVariable String memberType, @PathVariable String memberId) {
+        return groupsService.removeGroupMember(id, memberType, memberId);
+    }
+
+}
@@ -0,0 +1,132 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import com.auth0.jwt.interfaces.Claim;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.springframework.http.HttpHeaders;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link IdentityHeaders} builds the headers returned with an allowed <code>_authorize</code> decision, so the proxy can forward
+ * the caller's identity upstream (i.e. with nginx <code>auth_request_set</code>) and services behind it do not have to verify
+ * the token again
+ * <p>
+ * Configured through the environment:
+ * <ul>
+ *     <li><code>IDENTITY_SUBJECT_HEADER</code> carries the subject, <code>X-Auth-Subject</code> by default</li>
+ *     <li><code>IDENTITY_ROLES_HEADER</code> carries the comma separated ids of the subject's roles, <code>X-Auth-Roles</code> by default</li>
+ *     <li><code>IDENTITY_CLAIM_HEADERS</code> maps further headers to token claims, i.e. <code>X-Auth-Email=email,X-Auth-Org=https://example.com/org</code></li>
+ * </ul>
+ * Setting either of the first two to an empty string disables that header
+ */
+public class IdentityHeaders {
+
+    private final String subjectHeader;
+    private final String rolesHeader;
+    private final Map<String, String> claimHeaders;
+
+    /**
+     * @param claimHeaders claim name by header name
+     */
+    public IdentityHeaders(String subjectHeader, String rolesHeader, Map<String, String> claimHeaders) {
+        this.subjectHeader = subjectHeader == null || subjectHeader.isEmpty() ? null : subjectHeader;
+        this.rolesHeader = rolesHeader == null || rolesHeader.isEmpty() ? null : rolesHeader;
+        this.claimHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(claimHeaders));
+    }
+
+    public static IdentityHeaders fromEnv() {
+        return new IdentityHeaders(
+                envOrDefault("IDENTITY_SUBJECT_HEADER", "X-Auth-Subject"),
+                envOrDefault("IDENTITY_ROLES_HEADER", "X-Auth-Roles"),
+                parseClaimHeaders(System.getenv("IDENTITY_CLAIM_HEADERS"))
+        );
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        final String value = System.getenv(name);
+        return value == null ? defaultValue : value;
+    }
+
+    static Map<String, String> parseClaimHeaders(String spec) {
+        final Map<String, String> claimHeaders = new LinkedHashMap<>();
+        if (spec == null || spec.trim().isEmpty()) {
+            return claimHeaders;
+        }
+        for (String part : spec.split(",")) {
+            final int separator = part.indexOf('=');
+            if (separator <= 0 || separator == part.length() - 1) {
+                throw new IllegalArgumentException("identity claim headers must be given as Header-Name=claim");
+            }
+            claimHeaders.put(part.substring(0, separator).trim(), part.substring(separator + 1).trim());
+        }
+        return claimHeaders;
+    }
+
+    /**
+     * @param roles the ids of the subject's roles, may be null (i.e. for root users)
+     * @param decodedJwt the caller's verified token, may be null
+     */
+    public HttpHeaders headers(String sub, List<String> roles, DecodedJWT decodedJwt) {
+        final HttpHeaders headers = new HttpHeaders();
+        if (subjectHeader != null && sub != null) {
+            headers.set(subjectHeader, sanitize(sub));
+        }
+        if (rolesHeader != null && roles != null) {
+            headers.set(rolesHeader, sanitize(String.join(",", roles)));
+        }
+        if (decodedJwt != null) {
+            for (Map.Entry<String, String> entry : claimHeaders.entrySet()) {
+                final String value = claimValue(decodedJwt.getClaim(entry.getValue()));
+                if (value != null) {
+                    headers.set(entry.getKey(), sanitize(value));
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Strings and numbers are forwarded as is, arrays are joined with commas, anything else is skipped
+     */
+    private static String claimValue(Claim claim) {
+        if (claim.isNull()) {
+            return null;
+        }
+        final String value = claim.asString();
+        if (value != null) {
+            return value;
+        }
+        try {
+            final List<String> values = claim.asList(String.class);
+            if (values != null) {
+                return String.join(",", values);
+            }
+        } catch (Exception e) {
+            // not an array of strings
+        }
+        final Double number = claim.asDouble();
+        if (number != null) {
+            final Long asLong = claim.asLong();
+            return asLong != null && asLong.doubleValue() == number ? asLong.toString() : number.toString();
+        }
+        final Boolean bool = claim.asBoolean();
+        return bool != null ? bool.toString() : null;
+    }
+
+    /**
+     * Header values must not contain control characters, which a claim could otherwise use to inject headers
+     */
+    private static String sanitize(String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != 0x7f) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
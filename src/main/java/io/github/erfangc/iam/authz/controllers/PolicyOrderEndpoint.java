@@ -0,0 +1,28 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import io.github.erfangc.iam.authz.services.RoleStatistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Exposes, per role, how many policies had to be tried before one allowed a request on <code>/actuator/policyorder</code>, see
+ * {@link RoleStatistics}
+ */
+@Component
+@Endpoint(id = "policyorder")
+public class PolicyOrderEndpoint {
+
+    private RoleStatistics roleStatistics;
+
+    public PolicyOrderEndpoint(RoleStatistics roleStatistics) {
+        this.roleStatistics = roleStatistics;
+    }
+
+    @ReadOperation
+    public Map<String, Map<String, Object>> policyOrder() {
+        return roleStatistics.report();
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.github.erfangc.iam.authz.services.PolicySnapshot;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the version of the {@link PolicySnapshot} this instance makes decisions against on <code>/actuator/policysnapshot</code>,
+ * comparing it with <code>iam:policy-version</code> in Redis tells how far behind an instance is
+ */
+@Component
+@Endpoint(id = "policysnapshot")
+public class PolicySnapshotEndpoint {
+
+    private AuthorizeService authorizeService;
+
+    public PolicySnapshotEndpoint(AuthorizeService authorizeService) {
+        this.authorizeService = authorizeService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> policySnapshot() {
+        final Map<String, Object> ret = new LinkedHashMap<>();
+        ret.put("evaluationMode", authorizeService.getEvaluationMode());
+        final PolicySnapshot snapshot = authorizeService.getPolicySnapshot();
+        if (snapshot != null) {
+            ret.put("version", snapshot.getVersion());
+            ret.put("roles", snapshot.roleCount());
+            ret.put("roleBindings", snapshot.roleBindingCount());
+        }
+        return ret;
+    }
+}
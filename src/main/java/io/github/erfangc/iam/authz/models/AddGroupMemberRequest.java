@@ -0,0 +1,16 @@
+package io.github.erfangc.iam.authz.models;
+
+public class AddGroupMemberRequest {
+
+    private GroupMember member;
+
+    public GroupMember getMember() {
+        return this.member;
+    }
+
+    public AddGroupMemberRequest setMember(GroupMember member) {
+        this.member = member;
+        return this;
+    }
+
+}
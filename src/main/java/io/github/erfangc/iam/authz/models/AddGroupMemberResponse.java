@@ -0,0 +1,26 @@
+package io.github.erfangc.iam.authz.models;
+
+public class AddGroupMemberResponse {
+
+    private String message;
+    private String timestamp;
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public AddGroupMemberResponse setMessage(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public String getTimestamp() {
+        return this.timestamp;
+    }
+
+    public AddGroupMemberResponse setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+}
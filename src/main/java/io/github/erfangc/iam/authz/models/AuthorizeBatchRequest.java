@@ -0,0 +1,20 @@
+package io.github.erfangc.iam.authz.models;
+
+import io.github.erfangc.iam.authz.services.AccessRequest;
+
+import java.util.List;
+
+public class AuthorizeBatchRequest {
+
+    private List<AccessRequest> accessRequests;
+
+    public List<AccessRequest> getAccessRequests() {
+        return this.accessRequests;
+    }
+
+    public AuthorizeBatchRequest setAccessRequests(List<AccessRequest> accessRequests) {
+        this.accessRequests = accessRequests;
+        return this;
+    }
+
+}
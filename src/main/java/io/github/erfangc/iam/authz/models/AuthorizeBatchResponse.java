@@ -0,0 +1,18 @@
+package io.github.erfangc.iam.authz.models;
+
+import java.util.List;
+
+public class AuthorizeBatchResponse {
+
+    private List<AuthorizeResponse> responses;
+
+    public List<AuthorizeResponse> getResponses() {
+        return this.responses;
+    }
+
+    public AuthorizeBatchResponse setResponses(List<AuthorizeResponse> responses) {
+        this.responses = responses;
+        return this;
+    }
+
+}
@@ -1,11 +1,25 @@
 package io.github.erfangc.iam.authz.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.List;
 
 public class AuthorizeResponse {
 
     private Boolean allowed;
     private String message;
     private String timestamp;
+    /**
+     * The roles bound to the subject when access is granted, forwarded as a header by {@link io.github.erfangc.iam.authz.controllers.AuthorizeController}
+     * rather than serialized
+     */
+    @JsonIgnore
+    private List<String> roles;
+    /**
+     * The roles tried before access was granted or, when it was denied, every role bound to the subject
+     */
+    @JsonIgnore
+    private int rolesEvaluated;
 
     public Boolean getAllowed() {
         return this.allowed;
@@ -34,4 +48,22 @@ public class AuthorizeResponse {
         return this;
     }
 
-}
\ No newline at end of file
+    public List<String> getRoles() {
+        return this.roles;
+    }
+
+    public AuthorizeResponse setRoles(List<String> roles) {
+        this.roles = roles;
+        return this;
+    }
+
+    public int getRolesEvaluated() {
+        return this.rolesEvaluated;
+    }
+
+    public AuthorizeResponse setRolesEvaluated(int rolesEvaluated) {
+        this.rolesEvaluated = rolesEvaluated;
+        return this;
+    }
+
+}
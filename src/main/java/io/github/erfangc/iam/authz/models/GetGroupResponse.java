@@ -0,0 +1,16 @@
+package io.github.erfangc.iam.authz.models;
+
+public class GetGroupResponse {
+
+    private Group group;
+
+    public Group getGroup() {
+        return this.group;
+    }
+
+    public GetGroupResponse setGroup(Group group) {
+        this.group = group;
+        return this;
+    }
+
+}
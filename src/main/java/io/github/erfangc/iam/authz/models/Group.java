@@ -0,0 +1,28 @@
+package io.github.erfangc.iam.authz.models;
+
+import java.util.List;
+
+public class Group {
+
+    private String id;
+    private List<GroupMember> members;
+
+    public String getId() {
+        return this.id;
+    }
+
+    public Group setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public List<GroupMember> getMembers() {
+        return this.members;
+    }
+
+    public Group setMembers(List<GroupMember> members) {
+        this.members = members;
+        return this;
+    }
+
+}
@@ -0,0 +1,26 @@
+package io.github.erfangc.iam.authz.models;
+
+public class GroupMember {
+
+    private String memberType;
+    private String memberId;
+
+    public String getMemberType() {
+        return this.memberType;
+    }
+
+    public GroupMember setMemberType(String memberType) {
+        this.memberType = memberType;
+        return this;
+    }
+
+    public String getMemberId() {
+        return this.memberId;
+    }
+
+    public GroupMember setMemberId(String memberId) {
+        this.memberId = memberId;
+        return this;
+    }
+
+}
@@ -0,0 +1,26 @@
+package io.github.erfangc.iam.authz.models;
+
+public class RemoveGroupMemberResponse {
+
+    private String message;
+    private String timestamp;
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public RemoveGroupMemberResponse setMessage(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public String getTimestamp() {
+        return this.timestamp;
+    }
+
+    public RemoveGroupMemberResponse setTimestamp(String timestamp) {
+        this.timestamp = timestamp;
+        return this;
+    }
+
+}
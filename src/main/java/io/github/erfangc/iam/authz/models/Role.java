@@ -6,6 +6,7 @@ public class Role {
 
     private String id;
     private List<Policy> policies;
+    private List<String> inherits;
 
     public String getId() {
         return this.id;
@@ -25,4 +26,13 @@ public class Role {
         return this;
     }
 
+    public List<String> getInherits() {
+        return this.inherits;
+    }
+
+    public Role setInherits(List<String> inherits) {
+        this.inherits = inherits;
+        return this;
+    }
+
 }
\ No newline at end of file
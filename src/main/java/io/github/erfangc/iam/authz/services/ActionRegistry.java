@@ -0,0 +1,71 @@
+package io.github.erfangc.iam.authz.services;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ActionRegistry} interns the actions named by policies into bits of a long, so {@link CompiledPolicy} can check an action
+ * with a single AND instead of comparing strings
+ * <p>
+ * HTTP methods are registered up front, any other action gets the next free bit the first time a policy naming it is compiled.
+ * Only policies register actions, the action of a request is merely looked up so requests cannot exhaust the registry. Actions
+ * that are not registered, including those that no longer fit once all bits are taken, share {@link #OTHER} and are compared
+ * by name as before
+ */
+public final class ActionRegistry {
+
+    /**
+     * The bit of every action without one of its own
+     */
+    public static final long OTHER = 1L << 63;
+    /**
+     * The mask of <code>*</code>, which matches every action
+     */
+    public static final long ALL = -1L;
+    private static final int CAPACITY = 63;
+    private static final Map<String, Long> bits = new ConcurrentHashMap<>();
+
+    static {
+        for (String method : new String[]{"GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "TRACE", "CONNECT"}) {
+            register(method);
+        }
+    }
+
+    private ActionRegistry() {
+    }
+
+    /**
+     * @return the bit of the given action, {@link #OTHER} if it has none
+     */
+    public static long bitOf(String action) {
+        final Long bit = action == null ? null : bits.get(action);
+        return bit == null ? OTHER : bit;
+    }
+
+    /**
+     * @return the mask of the given actions, registering those that have no bit yet
+     */
+    public static long maskOf(Collection<String> actions) {
+        long mask = 0;
+        for (String action : actions) {
+            if ("*".equals(action)) {
+                return ALL;
+            }
+            if (action != null) {
+                mask |= register(action);
+            }
+        }
+        return mask;
+    }
+
+    private static long register(String action) {
+        final Long bit = bits.get(action);
+        if (bit != null) {
+            return bit;
+        }
+        synchronized (bits) {
+            return bits.computeIfAbsent(action, k -> bits.size() < CAPACITY ? 1L << bits.size() : OTHER);
+        }
+    }
+}
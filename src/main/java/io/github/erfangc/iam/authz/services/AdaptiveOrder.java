@@ -0,0 +1,50 @@
+package io.github.erfangc.iam.authz.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link AdaptiveOrder} is the order in which a list of candidates (the policies of a role, the roles of a subject) is evaluated,
+ * adapted over time so that the candidates that match most often are tried first
+ * <p>
+ * Each match is counted against the candidate, and a candidate that has matched more often than the one in front of it swaps
+ * places with it. Orders are copy-on-write: an evaluation reads one order from start to end while swaps publish a new permutation,
+ * so every evaluation still sees every candidate exactly once. Since decisions are allow-if-any the order only changes how soon a
+ * match is found, never whether one is
+ */
+class AdaptiveOrder {
+
+    private final AtomicLongArray hits;
+    private volatile int[] order;
+
+    AdaptiveOrder(int size) {
+        hits = new AtomicLongArray(size);
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * @return indices into the candidates, in the order they should be evaluated. Must not be modified
+     */
+    int[] get() {
+        return order;
+    }
+
+    /**
+     * @param order as returned by {@link #get()} for the evaluation that matched
+     * @param position the position in order of the candidate that matched
+     */
+    void matched(int[] order, int position) {
+        final long count = hits.incrementAndGet(order[position]);
+        if (position > 0 && count > hits.get(order[position - 1])) {
+            //
+            // a concurrent swap may be lost to this one, either way a permutation is published
+            //
+            final int[] promoted = order.clone();
+            promoted[position - 1] = order[position];
+            promoted[position] = order[position - 1];
+            this.order = promoted;
+        }
+    }
+}
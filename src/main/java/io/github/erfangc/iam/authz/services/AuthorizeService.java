@@ -1,142 +1,655 @@
 package io.github.erfangc.iam.authz.services;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import io.github.erfangc.iam.ApiException;
+import io.github.erfangc.iam.audit.DecisionAuditLog;
 import io.github.erfangc.iam.authz.models.AuthorizeResponse;
 import io.github.erfangc.iam.authz.models.RoleBinding;
-import io.github.erfangc.iam.authz.models.Policy;
-import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.jfr.FlightEvent;
+import io.lettuce.core.KeyValue;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.api.StatefulRedisConnection;
-import io.lettuce.core.api.sync.RedisCommands;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static io.github.erfangc.iam.Utilities.objectMapper;
-import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingKey;
-import static io.github.erfangc.iam.authz.services.Namespaces.roleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.EFFECTIVE_STALE_KEY;
 import static java.util.Arrays.asList;
-import static java.util.stream.Collectors.joining;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
+/**
+ * {@link AuthorizeService} decides whether a subject may perform an action on a resource, see {@link EvaluationMode} for how the
+ * subject's roles are loaded
+ * <p>
+ * Every stage of a decision is timed by <code>iam.authorize.stage</code>: <code>groups</code> resolving the subject's groups on a
+ * {@link GroupClosureCache} miss, <code>bindings</code> and <code>roles</code> loading bindings and roles with commands, <code>load</code>
+ * loading them with a script or from materialized views, and <code>match</code> evaluating policies. Decisions are counted by
+ * <code>iam.authorize.decisions</code> per outcome, lookups of {@link EffectivePermissionsCache} and {@link GroupClosureCache} by
+ * <code>iam.authz.cache</code> and <code>iam.group.closure.cache</code> per result
+ */
 @Service
 public class AuthorizeService {
 
     private static final Logger logger = LoggerFactory.getLogger(AuthorizeService.class);
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final TypeReference<List<Map<String, String>>> MATERIALIZED_VIEW = new TypeReference<List<Map<String, String>>>() {
+    };
+    private RedisClient redisClient;
     private StatefulRedisConnection<String, String> conn;
+    private EffectivePermissionsCache cache;
+    private CompiledRoles compiledRoles;
+    private GroupClosureCache groupClosureCache;
+    private GroupClosureScript groupClosureScript = new GroupClosureScript();
+    private EffectiveRolesScript effectiveRolesScript;
+    private PolicySnapshotStore policySnapshotStore;
+    private EvaluationMode evaluationMode;
     private List<String> rootUsers;
+    private DistributionSummary redisRoundTrips;
+    private Timer groupsStage;
+    private Timer bindingsStage;
+    private Timer rolesStage;
+    private Timer loadStage;
+    private Timer matchStage;
+    private Counter allowedDecisions;
+    private Counter deniedDecisions;
+    private Counter rootDecisions;
+    private Counter cacheHits;
+    private Counter cacheMisses;
+    private Counter groupClosureCacheHits;
+    private Counter groupClosureCacheMisses;
+    /**
+     * Records every decision, null when decisions are not audited
+     */
+    private DecisionAuditLog auditLog;
+    /**
+     * Tracks the busiest subjects and resources, null when they are not tracked
+     */
+    private HeavyHitters heavyHitters;
+    /**
+     * Parses, compiles and matches what Redis replied, so Lettuce I/O threads only do I/O. Sized by the DECISION_THREADS environment
+     * variable, one per processor by default, null when set to 0 in which case decisions are completed on the I/O thread
+     */
+    private ExecutorService decisionExecutor;
 
-    public AuthorizeService(RedisClient redisClient) {
+    public AuthorizeService(RedisClient redisClient, EffectivePermissionsCache cache, MeterRegistry meterRegistry) {
+        this(redisClient, cache, new GroupClosureCache(0), meterRegistry);
+    }
+
+    public AuthorizeService(RedisClient redisClient,
+                            EffectivePermissionsCache cache,
+                            GroupClosureCache groupClosureCache,
+                            MeterRegistry meterRegistry) {
+        this(redisClient, cache, groupClosureCache, new CompiledRoles(), meterRegistry, null, null);
+    }
+
+    @Autowired
+    public AuthorizeService(RedisClient redisClient,
+                            EffectivePermissionsCache cache,
+                            GroupClosureCache groupClosureCache,
+                            CompiledRoles compiledRoles,
+                            MeterRegistry meterRegistry,
+                            DecisionAuditLog auditLog,
+                            HeavyHitters heavyHitters) {
+        this.redisClient = redisClient;
         conn = redisClient.connect();
+        this.cache = cache;
+        this.groupClosureCache = groupClosureCache;
+        this.compiledRoles = compiledRoles;
+        this.auditLog = auditLog;
+        this.heavyHitters = heavyHitters;
+        final int decisionThreads = intFromEnv("DECISION_THREADS", Runtime.getRuntime().availableProcessors());
+        final AtomicInteger decisionThread = new AtomicInteger();
+        this.decisionExecutor = decisionThreads > 0 ? Executors.newFixedThreadPool(decisionThreads, runnable -> {
+            final Thread thread = new Thread(runnable, "authorize-decision-" + decisionThread.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
         final String rootUsers = System.getenv("ROOT_USERS");
         this.rootUsers = asList((rootUsers == null ? "" : rootUsers).split(","));
-        logger.info("{} has started with root users={}", AuthorizeService.class.getSimpleName(), this.rootUsers);
+        redisRoundTrips = DistributionSummary
+                .builder("iam.authorize.redis.round.trips")
+                .description("Redis round trips needed to make an authorization decision, 0 when served from cache")
+                .register(meterRegistry);
+        groupsStage = stage(meterRegistry, "groups");
+        bindingsStage = stage(meterRegistry, "bindings");
+        rolesStage = stage(meterRegistry, "roles");
+        loadStage = stage(meterRegistry, "load");
+        matchStage = stage(meterRegistry, "match");
+        allowedDecisions = counter(meterRegistry, "iam.authorize.decisions", "Authorization decisions", "outcome", "allowed");
+        deniedDecisions = counter(meterRegistry, "iam.authorize.decisions", "Authorization decisions", "outcome", "denied");
+        rootDecisions = counter(meterRegistry, "iam.authorize.decisions", "Authorization decisions", "outcome", "root");
+        cacheHits = counter(meterRegistry, "iam.authz.cache", "Lookups of effective permissions by subject", "result", "hit");
+        cacheMisses = counter(meterRegistry, "iam.authz.cache", "Lookups of effective permissions by subject", "result", "miss");
+        groupClosureCacheHits = counter(meterRegistry, "iam.group.closure.cache", "Lookups of the groups of a subject", "result", "hit");
+        groupClosureCacheMisses = counter(meterRegistry, "iam.group.closure.cache", "Lookups of the groups of a subject", "result", "miss");
+        Gauge.builder("iam.authz.cache.size", cache, EffectivePermissionsCache::size)
+                .description("Subjects in the effective permissions cache")
+                .register(meterRegistry);
+        Gauge.builder("iam.group.closure.cache.size", groupClosureCache, GroupClosureCache::size)
+                .description("Subjects in the group closure cache")
+                .register(meterRegistry);
+        setEvaluationMode(EvaluationMode.fromEnv());
+        logger.info(
+                "{} has started with root users={} evaluationMode={} decisionThreads={}",
+                AuthorizeService.class.getSimpleName(),
+                this.rootUsers,
+                evaluationMode,
+                decisionThreads
+        );
     }
 
-    private static String toRegex(String input) {
-        return Stream
-                .of(input.split("/"))
-                .map(token -> {
-                    if (token.equals("*")) {
-                        return ".*";
-                    } else {
-                        return token;
-                    }
-                })
-                .collect(joining("\\/"));
+    private static int intFromEnv(String name, int defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static Timer stage(MeterRegistry meterRegistry, String stage) {
+        return Timer
+                .builder("iam.authorize.stage")
+                .description("Time spent in each stage of an authorization decision")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String name, String description, String tag, String value) {
+        return Counter.builder(name).description(description).tag(tag, value).register(meterRegistry);
+    }
+
+    private static long record(Timer timer, long start) {
+        final long now = System.nanoTime();
+        timer.record(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode;
+    }
+
+    public AuthorizeService setEvaluationMode(EvaluationMode evaluationMode) {
+        if (evaluationMode == EvaluationMode.LUA && effectiveRolesScript == null) {
+            effectiveRolesScript = new EffectiveRolesScript();
+        }
+        if (evaluationMode == EvaluationMode.SNAPSHOT && policySnapshotStore == null) {
+            policySnapshotStore = new PolicySnapshotStore(redisClient, compiledRoles);
+        }
+        this.evaluationMode = evaluationMode;
+        return this;
+    }
+
+    /**
+     * @return the snapshot decisions are currently made against, null unless the evaluation mode is {@link EvaluationMode#SNAPSHOT}
+     */
+    public PolicySnapshot getPolicySnapshot() {
+        return evaluationMode == EvaluationMode.SNAPSHOT ? policySnapshotStore.getSnapshot() : null;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (policySnapshotStore != null) {
+            policySnapshotStore.close();
+        }
+        if (decisionExecutor != null) {
+            decisionExecutor.shutdown();
+        }
     }
 
     public AuthorizeResponse authorizeRequest(AccessRequest accessRequest) {
+        return join(authorizeRequestAsync(accessRequest));
+    }
+
+    /**
+     * Non-blocking version of {@link #authorizeRequest(AccessRequest)}, on a cache miss the returned stage is completed once Redis has
+     * replied, by a decision thread or otherwise by the Lettuce I/O thread, so the calling thread is never parked waiting for Redis.
+     * Each decision is recorded as a {@link FlightEvent#authorization()}
+     */
+    public CompletionStage<AuthorizeResponse> authorizeRequestAsync(AccessRequest accessRequest) {
+        final FlightEvent event = FlightEvent.authorization();
+        final String sub = accessRequest.getSub();
+        //
+        // short circuit everything if a root user login. This is necessary to bootstrap the RBAC system
+        //
+        if (rootUsers.contains(sub)) {
+            recordRootDecision(accessRequest);
+            event.commit(sub, accessRequest.getResource(), accessRequest.getAction(), null, "root", 0);
+            return completedFuture(allowed());
+        }
+        return effectivePermissions(sub)
+                .thenApply(effectivePermissions -> {
+                    final AuthorizeResponse response = measuredDecide(effectivePermissions, accessRequest);
+                    event.commit(
+                            sub,
+                            accessRequest.getResource(),
+                            accessRequest.getAction(),
+                            null,
+                            response.getAllowed() ? "allowed" : "denied",
+                            response.getRolesEvaluated()
+                    );
+                    return response;
+                })
+                .whenComplete((response, e) -> {
+                    if (e != null) {
+                        event.commit(sub, accessRequest.getResource(), accessRequest.getAction(), null, "failed", 0);
+                    }
+                });
+    }
+
+    /**
+     * Authorizes many (resource, action) pairs for one subject, loading the subject's roles only once. The sub of each
+     * {@link AccessRequest} is overwritten by the given sub, responses are returned in request order
+     */
+    public List<AuthorizeResponse> authorizeRequests(String sub, List<AccessRequest> accessRequests) {
+        return join(authorizeRequestsAsync(sub, accessRequests));
+    }
+
+    public CompletionStage<List<AuthorizeResponse>> authorizeRequestsAsync(String sub, List<AccessRequest> accessRequests) {
+        if (accessRequests == null || accessRequests.isEmpty()) {
+            throw new ApiException().setHttpStatus(HttpStatus.BAD_REQUEST).setMessage("accessRequests is required");
+        }
+        if (accessRequests.size() > MAX_BATCH_SIZE) {
+            throw new ApiException()
+                    .setHttpStatus(HttpStatus.BAD_REQUEST)
+                    .setMessage("at most " + MAX_BATCH_SIZE + " accessRequests can be authorized at once");
+        }
+        if (accessRequests.contains(null)) {
+            throw new ApiException().setHttpStatus(HttpStatus.BAD_REQUEST).setMessage("accessRequests cannot contain null");
+        }
+        if (rootUsers.contains(sub)) {
+            final List<AuthorizeResponse> responses = new ArrayList<>(accessRequests.size());
+            for (AccessRequest accessRequest : accessRequests) {
+                recordRootDecision(accessRequest.setSub(sub));
+                responses.add(allowed());
+            }
+            return completedFuture(responses);
+        }
+        return effectivePermissions(sub).thenApply(effectivePermissions -> {
+            final List<AuthorizeResponse> responses = new ArrayList<>(accessRequests.size());
+            for (AccessRequest accessRequest : accessRequests) {
+                responses.add(measuredDecide(effectivePermissions, accessRequest.setSub(sub)));
+            }
+            return responses;
+        });
+    }
+
+    private void recordRootDecision(AccessRequest accessRequest) {
+        rootDecisions.increment();
+        if (heavyHitters != null) {
+            heavyHitters.record(accessRequest.getSub(), accessRequest.getResource(), true);
+        }
+        if (auditLog != null) {
+            auditLog.allowed(accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction(), "root");
+        }
+    }
+
+    private AuthorizeResponse measuredDecide(EffectivePermissions effectivePermissions, AccessRequest accessRequest) {
+        final long start = System.nanoTime();
+        final AuthorizeResponse response = decide(effectivePermissions, accessRequest, auditLog);
+        record(matchStage, start);
+        (response.getAllowed() ? allowedDecisions : deniedDecisions).increment();
+        if (heavyHitters != null) {
+            heavyHitters.record(accessRequest.getSub(), accessRequest.getResource(), response.getAllowed());
+        }
+        return response;
+    }
+
+    static AuthorizeResponse decide(EffectivePermissions effectivePermissions, AccessRequest accessRequest) {
+        return decide(effectivePermissions, accessRequest, null);
+    }
+
+    /**
+     * Roles, and the policies of each role, are tried in their {@link AdaptiveOrder} and the first match allows the request, the role
+     * recorded as granting access is therefore the first to match in that order, and the number of roles tried is returned as
+     * {@link AuthorizeResponse#getRolesEvaluated()}
+     *
+     * @param auditLog records the decision, may be null
+     */
+    static AuthorizeResponse decide(EffectivePermissions effectivePermissions, AccessRequest accessRequest, DecisionAuditLog auditLog) {
+        final long actionBit = ActionRegistry.bitOf(accessRequest.getAction());
+        final List<CompiledRole> roles = effectivePermissions.getRoles();
+        final AdaptiveOrder roleOrder = effectivePermissions.getRoleOrder();
+        final int[] order = roleOrder.get();
+        for (int position = 0; position < order.length; position++) {
+            final CompiledRole role = roles.get(order[position]);
+            if (makeAccessDecision(role, accessRequest, actionBit)) {
+                roleOrder.matched(order, position);
+                if (auditLog != null) {
+                    auditLog.allowed(accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction(), role.getId());
+                }
+                return allowed().setRoles(effectivePermissions.getGrantedRoleIds()).setRolesEvaluated(position + 1);
+            }
+        }
+        if (auditLog != null) {
+            auditLog.denied(accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction());
+        }
+        return denied().setRolesEvaluated(order.length);
+    }
+
+    private static <T> T join(CompletionStage<T> stage) {
         try {
-            //
-            // short circuit everything if a root user login. This is necessary to bootstrap the RBAC system
-            //
-            if (rootUsers.contains(accessRequest.getSub())) {
-                logger.info("Authorized root user access to sub={} resource={} action={}", accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction());
-                return allowed();
+            return stage.toCompletableFuture().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
             }
-            final String sub = accessRequest.getSub();
-            final RedisCommands<String, String> sync = conn.sync();
-            //
-            // users only for now, but add support for groups in the future
-            //
-            String subRoleMappingNS = "iam:role-bindings:subs:";
-            final Set<String> bindingIds = sync.smembers(subRoleMappingNS + "user:" + sub);
-            if (bindingIds.isEmpty()) {
-                logger.info("Access is denied to sub={} resource={} action={}", accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction());
-                return denied();
-            } else {
-                for (String bindingId : bindingIds) {
+            throw new ApiException(e.getCause()).setHttpStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Serves {@link EffectivePermissions} from the {@link PolicySnapshot} in snapshot mode, otherwise from {@link EffectivePermissionsCache} if possible, otherwise loads them from Redis and
+     * populates the cache
+     * <p>
+     * Either way the subject is first resolved to the groups it belongs to, which only costs a round trip on a {@link GroupClosureCache} miss
+     */
+    private CompletionStage<EffectivePermissions> effectivePermissions(String sub) {
+        if (evaluationMode == EvaluationMode.SNAPSHOT) {
+            final long generation = cache.generation();
+            final Set<String> groupIds = cachedGroupIds(sub);
+            if (groupIds != null) {
+                redisRoundTrips.record(0);
+                return completedFuture(snapshotEffectivePermissions(sub, groupIds, generation));
+            }
+            final AtomicInteger roundTrips = new AtomicInteger();
+            return loadGroupIds(sub, roundTrips).thenApply(loaded -> {
+                redisRoundTrips.record(roundTrips.get());
+                return snapshotEffectivePermissions(sub, loaded, generation);
+            });
+        }
+        final EffectivePermissions cached = cache.get(sub);
+        if (cached != null) {
+            cacheHits.increment();
+            redisRoundTrips.record(0);
+            return completedFuture(cached);
+        }
+        cacheMisses.increment();
+        final long generation = cache.generation();
+        final AtomicInteger roundTrips = new AtomicInteger();
+        return groupIds(sub, roundTrips)
+                .thenCompose(groupIds -> loadEffectivePermissions(sub, principals(sub, groupIds), roundTrips))
+                .whenComplete((loaded, e) -> {
+                    redisRoundTrips.record(roundTrips.get());
+                    if (loaded != null) {
+                        cache.put(sub, loaded, generation);
+                    }
+                });
+    }
+
+    /**
+     * Resolves the subject to every group it belongs to, from {@link GroupClosureCache} if possible
+     */
+    private CompletionStage<Set<String>> groupIds(String sub, AtomicInteger roundTrips) {
+        final Set<String> cached = cachedGroupIds(sub);
+        return cached != null ? completedFuture(cached) : loadGroupIds(sub, roundTrips);
+    }
+
+    /**
+     * Resolves the subject to every group it belongs to from Redis, for callers that have already missed {@link GroupClosureCache}
+     */
+    private CompletionStage<Set<String>> loadGroupIds(String sub, AtomicInteger roundTrips) {
+        final long generation = groupClosureCache.generation();
+        roundTrips.incrementAndGet();
+        final long start = System.nanoTime();
+        return offEventLoop(groupClosureScript.execute(conn.async(), sub)).thenApply(reply -> {
+            record(groupsStage, start);
+            final Set<String> groupIds = Collections.unmodifiableSet(new LinkedHashSet<>(reply));
+            groupClosureCache.put(sub, groupIds, generation);
+            return groupIds;
+        });
+    }
+
+    private Set<String> cachedGroupIds(String sub) {
+        final Set<String> cached = groupClosureCache.get(sub);
+        (cached != null ? groupClosureCacheHits : groupClosureCacheMisses).increment();
+        return cached;
+    }
+
+    /**
+     * @return the subject followed by the groups it belongs to, as type:id
+     */
+    private static Set<String> principals(String sub, Set<String> groupIds) {
+        final Set<String> principals = new LinkedHashSet<>();
+        principals.add("user:" + sub);
+        for (String groupId : groupIds) {
+            principals.add("group:" + groupId);
+        }
+        return principals;
+    }
+
+    /**
+     * A subject without groups is served the snapshot's own entry. The union for a subject with groups is kept in
+     * {@link EffectivePermissionsCache}, so the order its roles are tried in keeps adapting, for as long as the snapshot and the
+     * subject's groups stay the same
+     */
+    private EffectivePermissions snapshotEffectivePermissions(String sub, Set<String> groupIds, long generation) {
+        final PolicySnapshot snapshot = policySnapshotStore.getSnapshot();
+        if (groupIds.isEmpty()) {
+            return snapshot.effectivePermissions("user", sub);
+        }
+        final Set<String> principals = principals(sub, groupIds);
+        final EffectivePermissions cached = cache.get(sub);
+        if (cached != null && cached.getPolicyVersion() == snapshot.getVersion() && cached.getPrincipals().equals(principals)) {
+            return cached;
+        }
+        final List<EffectivePermissions> effectivePermissions = new ArrayList<>(groupIds.size() + 1);
+        effectivePermissions.add(snapshot.effectivePermissions("user", sub));
+        for (String groupId : groupIds) {
+            effectivePermissions.add(snapshot.effectivePermissions("group", groupId));
+        }
+        final EffectivePermissions union = EffectivePermissions.union(effectivePermissions, principals, snapshot.getVersion());
+        cache.put(sub, union, generation);
+        return union;
+    }
+
+    private CompletionStage<EffectivePermissions> loadEffectivePermissions(String sub, Set<String> principals, AtomicInteger roundTrips) {
+        if (evaluationMode == EvaluationMode.LUA) {
+            return loadEffectivePermissionsWithScript(sub, principals, roundTrips);
+        }
+        if (evaluationMode == EvaluationMode.MATERIALIZED) {
+            return loadMaterializedEffectivePermissions(sub, principals, roundTrips);
+        }
+        return loadEffectivePermissionsWithCommands(sub, principals, roundTrips);
+    }
+
+    /**
+     * Loads the views maintained by {@link EffectivePolicyMaterializer} for the subject and its groups with a single MGET, pipelined
+     * with the roles whose views are still being rebuilt. Principals without a view have no bindings, or were bound before
+     * materialization was enabled, and views that refer to a role still being rebuilt may be behind it, so the bindings of those
+     * principals are read with the command based path and combined with the views of the others
+     */
+    private CompletionStage<EffectivePermissions> loadMaterializedEffectivePermissions(String sub, Set<String> principals, AtomicInteger roundTrips) {
+        roundTrips.incrementAndGet();
+        final long start = System.nanoTime();
+        final RedisAsyncCommands<String, String> async = conn.async();
+        final CompletionStage<List<String>> staleRoleIds = async.hkeys(EFFECTIVE_STALE_KEY);
+        final CompletionStage<List<KeyValue<String, String>>> views = async.mget(principals.stream().map(Namespaces::principalEffectiveKey).toArray(String[]::new));
+        return offEventLoop(views).thenCombine(offEventLoop(staleRoleIds), (loadedViews, stale) -> {
+            final List<CompiledRole> roles = new ArrayList<>();
+            final Set<String> roleIds = new LinkedHashSet<>();
+            final Set<String> unmaterialized = new LinkedHashSet<>();
+            final Iterator<String> principal = principals.iterator();
+            for (KeyValue<String, String> view : loadedViews) {
+                final String next = principal.next();
+                final List<Map<String, String>> entries = view.hasValue() ? readValue(view.getValue(), MATERIALIZED_VIEW) : null;
+                if (entries == null || entries.stream().anyMatch(entry -> stale.contains(entry.get("roleId")))) {
+                    unmaterialized.add(next);
+                    continue;
+                }
+                for (Map<String, String> entry : entries) {
+                    final String roleId = entry.get("roleId");
+                    final String roleJson = entry.get("role");
+                    if (!roleIds.add(roleId)) {
+                        continue;
+                    }
+                    if (roleJson != null) {
+                        roles.add(compiledRoles.get(roleId, roleJson));
+                    } else {
+                        logger.warn("Role cannot be found sub={} roleId={}", sub, roleId);
+                    }
+                }
+            }
+            record(loadStage, start);
+            if (unmaterialized.isEmpty()) {
+                return completedFuture(new EffectivePermissions(roles, roleIds, principals));
+            }
+            if (unmaterialized.size() == principals.size()) {
+                return loadEffectivePermissionsWithCommands(sub, principals, roundTrips);
+            }
+            final EffectivePermissions materialized = new EffectivePermissions(roles, roleIds, principals);
+            return loadEffectivePermissionsWithCommands(sub, unmaterialized, roundTrips)
+                    .thenApply(loaded -> EffectivePermissions.union(asList(materialized, loaded)));
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Loads everything in at most three pipelined round trips no matter how many bindings or roles the subject has: SUNION
+     * for the bindings of the subject and its groups, MGET for the bindings and MGET for the distinct roles they refer to
+     */
+    private CompletionStage<EffectivePermissions> loadEffectivePermissionsWithCommands(String sub, Set<String> principals, AtomicInteger roundTrips) {
+        final RedisAsyncCommands<String, String> async = conn.async();
+        roundTrips.incrementAndGet();
+        final long start = System.nanoTime();
+        return offEventLoop(async.sunion(principals.stream().map(Namespaces::principalBindingsKey).toArray(String[]::new)))
+                .thenCompose(bindingIds -> {
+                    if (bindingIds.isEmpty()) {
+                        return completedFuture(Collections.<KeyValue<String, String>>emptyList());
+                    }
+                    roundTrips.incrementAndGet();
+                    return offEventLoop(async.mget(bindingIds.stream().map(Namespaces::roleBindingKey).toArray(String[]::new)));
+                })
+                .thenCompose(bindings -> {
+                    final long bindingsLoaded = record(bindingsStage, start);
                     //
-                    // find the role the roleBinding refers to (this potentially can speed up)
+                    // the roleId is recorded even if the role does not exist yet, so that creating it later evicts the cached entry
                     //
-                    RoleBinding roleBinding = objectMapper.readValue(sync.get(roleBindingKey(bindingId)), RoleBinding.class);
-                    final String roleId = roleBinding.getRoleId();
-                    final String roleKey = roleKey(roleId);
-                    if (sync.exists(roleKey) == 1) {
-                        Role role = objectMapper.readValue(sync.get(roleKey), Role.class);
-                        if (makeAccessDecision(role, accessRequest)) {
-                            return allowed();
+                    final Set<String> roleIds = new LinkedHashSet<>();
+                    for (KeyValue<String, String> binding : bindings) {
+                        if (binding.hasValue()) {
+                            roleIds.add(readValue(binding.getValue(), RoleBinding.class).getRoleId());
+                        } else {
+                            logger.warn("RoleBinding cannot be found sub={} key={}", sub, binding.getKey());
                         }
-                    } else {
-                        logger.warn("Role cannot be found bindingId={} roleId={}", bindingId, roleId);
                     }
+                    if (roleIds.isEmpty()) {
+                        return completedFuture(new EffectivePermissions(emptyList(), roleIds, principals));
+                    }
+                    roundTrips.incrementAndGet();
+                    return offEventLoop(async.mget(roleIds.stream().map(Namespaces::flatRoleKey).toArray(String[]::new)))
+                            .thenApply(roleJsons -> {
+                                final List<CompiledRole> roles = new ArrayList<>();
+                                final Iterator<String> roleId = roleIds.iterator();
+                                for (KeyValue<String, String> roleJson : roleJsons) {
+                                    final String next = roleId.next();
+                                    if (roleJson.hasValue()) {
+                                        roles.add(compiledRoles.get(next, roleJson.getValue()));
+                                    } else {
+                                        logger.warn("Role cannot be found sub={} key={}", sub, roleJson.getKey());
+                                    }
+                                }
+                                record(rolesStage, bindingsLoaded);
+                                return new EffectivePermissions(roles, roleIds, principals);
+                            });
+                });
+    }
+
+    /**
+     * Same as the command based path, but bindings and roles are resolved inside Redis by {@link EffectiveRolesScript}
+     */
+    private CompletionStage<EffectivePermissions> loadEffectivePermissionsWithScript(String sub, Set<String> principals, AtomicInteger roundTrips) {
+        roundTrips.incrementAndGet();
+        final String[] principalBindingsKeys = principals.stream().map(Namespaces::principalBindingsKey).toArray(String[]::new);
+        final long start = System.nanoTime();
+        return offEventLoop(effectiveRolesScript.execute(conn.async(), principalBindingsKeys)).thenApply(reply -> {
+            final List<CompiledRole> roles = new ArrayList<>();
+            final Set<String> roleIds = new LinkedHashSet<>();
+            for (int i = 0; i + 1 < reply.size(); i += 2) {
+                final String roleId = reply.get(i);
+                final String roleJson = reply.get(i + 1);
+                roleIds.add(roleId);
+                if (roleJson != null) {
+                    roles.add(compiledRoles.get(roleId, roleJson));
+                } else {
+                    logger.warn("Role cannot be found sub={} roleId={}", sub, roleId);
                 }
-                logger.info("Access is denied to sub={} resource={} action={}", accessRequest.getSub(), accessRequest.getResource(), accessRequest.getAction());
-                return denied();
             }
-        } catch (IOException e) {
-            throw new ApiException(e).setHttpStatus(HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+            record(loadStage, start);
+            return new EffectivePermissions(roles, roleIds, principals);
+        });
     }
 
-    private boolean makeAccessDecision(Role role, AccessRequest accessRequest) {
-        final List<Policy> policies = role.getPolicies();
-        final String action = accessRequest.getAction();
-        final String resource = accessRequest.getResource();
-        final String sub = accessRequest.getSub();
-        for (Policy policy : policies) {
-            boolean resourceMatch = resourceMatch(policy.getResource(), resource);
-            boolean actionMatch = actionMatch(policy.getActions(), action);
-            if (resourceMatch && actionMatch) {
-                logger.info(
-                        "Authorized access to sub={} resource={} action={} effectiveRoleId={} policyResource={} policyActions={}",
-                        sub,
-                        resource,
-                        action,
-                        role.getId(),
-                        policy.getResource(),
-                        policy.getActions()
-                );
-                return true;
-            }
+    /**
+     * Continues with a Redis reply on {@link #decisionExecutor}, so that parsing what Redis replied, matching and populating the
+     * caches never hold up the Lettuce I/O thread that completed it
+     */
+    private <T> CompletionStage<T> offEventLoop(CompletionStage<T> reply) {
+        return decisionExecutor == null ? reply : reply.thenApplyAsync(Function.identity(), decisionExecutor);
+    }
+
+    private static <T> T readValue(String json, Class<T> valueType) {
+        try {
+            return objectMapper.readValue(json, valueType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return false;
     }
 
-    private boolean actionMatch(List<String> actions, String action) {
-        return actions.contains("*") || actions.contains(action);
+    private static <T> T readValue(String json, TypeReference<T> valueType) {
+        try {
+            return objectMapper.readValue(json, valueType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private boolean resourceMatch(String resourceExpr, String resource) {
-        final String regex = toRegex(resourceExpr);
-        return resource.matches(regex);
+    /**
+     * Recorded as a {@link FlightEvent#accessDecision()}
+     */
+    private static boolean makeAccessDecision(CompiledRole role, AccessRequest accessRequest, long actionBit) {
+        final FlightEvent event = FlightEvent.accessDecision();
+        final String action = accessRequest.getAction();
+        final String resource = accessRequest.getResource();
+        final int evaluated = role.match(resource, action, actionBit);
+        final boolean allowed = evaluated > 0;
+        event.commit(accessRequest.getSub(), resource, action, role.getId(), allowed ? "allowed" : "denied", Math.abs(evaluated));
+        return allowed;
     }
 
-    private AuthorizeResponse allowed() {
+    private static AuthorizeResponse allowed() {
         return new AuthorizeResponse()
                 .setAllowed(true)
                 .setMessage("Access granted")
                 .setTimestamp(Instant.now().toString());
     }
 
-    private AuthorizeResponse denied() {
+    private static AuthorizeResponse denied() {
         return new AuthorizeResponse()
                 .setAllowed(false)
                 .setMessage("Access denied")
@@ -0,0 +1,48 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Policy;
+
+import java.util.List;
+
+/**
+ * A {@link Policy} whose resource expression has been compiled into a {@link ResourcePattern} and whose actions have been
+ * interned into a mask by {@link ActionRegistry}
+ */
+public class CompiledPolicy {
+
+    private final Policy policy;
+    private final ResourcePattern resourcePattern;
+    private final long actionMask;
+
+    public CompiledPolicy(Policy policy) {
+        this.policy = policy;
+        this.resourcePattern = ResourcePattern.compile(policy.getResource());
+        final List<String> actions = policy.getActions();
+        this.actionMask = actions == null ? 0 : ActionRegistry.maskOf(actions);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public boolean matches(String resource, String action) {
+        return matches(resource, action, ActionRegistry.bitOf(action));
+    }
+
+    /**
+     * @param actionBit the bit of action as returned by {@link ActionRegistry#bitOf(String)}, resolved once per request
+     */
+    public boolean matches(String resource, String action, long actionBit) {
+        return matchesAction(action, actionBit) && resourcePattern.matches(resource);
+    }
+
+    private boolean matchesAction(String action, long actionBit) {
+        if ((actionMask & actionBit) == 0) {
+            return false;
+        }
+        //
+        // actions without a bit of their own all share one, only their names can tell them apart
+        //
+        return actionBit != ActionRegistry.OTHER || actionMask == ActionRegistry.ALL || policy.getActions().contains(action);
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CompiledRole} is the form of a {@link Role} that {@link AuthorizeService} evaluates requests against. Roles are compiled
+ * once per definition and shared by every subject bound to them, see {@link CompiledRoles}
+ * <p>
+ * Policies are tried in an {@link AdaptiveOrder}, so the policies of a compiled role that allow requests most often are tried first
+ */
+public class CompiledRole {
+
+    private final String id;
+    private final List<CompiledPolicy> policies;
+    private final AdaptiveOrder order;
+    private final RoleStatistics.Counters statistics;
+
+    private CompiledRole(String id, List<CompiledPolicy> policies, RoleStatistics.Counters statistics) {
+        this.id = id;
+        this.policies = policies;
+        this.order = new AdaptiveOrder(policies.size());
+        this.statistics = statistics;
+    }
+
+    /**
+     * Compiles a role whose evaluations are not reported by {@link RoleStatistics}
+     */
+    public static CompiledRole compile(Role role) {
+        return compile(role, new RoleStatistics.Counters());
+    }
+
+    static CompiledRole compile(Role role, RoleStatistics.Counters statistics) {
+        final List<CompiledPolicy> policies = new ArrayList<>();
+        if (role.getPolicies() != null) {
+            for (Policy policy : role.getPolicies()) {
+                policies.add(new CompiledPolicy(policy));
+            }
+        }
+        return new CompiledRole(role.getId(), policies, statistics);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the policies in the order they were authored
+     */
+    public List<CompiledPolicy> getPolicies() {
+        return policies;
+    }
+
+    /**
+     * @return the number of policies tried up to and including the first that matches, or minus the number of policies tried if
+     * none does
+     */
+    public int match(String resource, String action, long actionBit) {
+        final int[] order = this.order.get();
+        for (int position = 0; position < order.length; position++) {
+            if (policies.get(order[position]).matches(resource, action, actionBit)) {
+                this.order.matched(order, position);
+                statistics.allowed(position + 1);
+                return position + 1;
+            }
+        }
+        statistics.missed();
+        return -order.length;
+    }
+}
@@ -0,0 +1,86 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Role;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+
+/**
+ * {@link CompiledRoles} keeps a single {@link CompiledRole} per role id, shared by every {@link EffectivePermissions} that refers to the
+ * role, so a role is parsed and compiled once per definition rather than once per subject loaded
+ * <p>
+ * Each compiled role is keyed by the JSON it was compiled from: a definition read from Redis that differs from the one compiled is
+ * compiled again and replaces it, so a stale compiled role is never handed out however the change is heard about. Roles are also dropped
+ * by {@link PolicyChangeSubscriber} whenever they change, so deleted roles do not linger
+ */
+@Component
+public class CompiledRoles {
+
+    private final Map<String, Compiled> roles = new ConcurrentHashMap<>();
+    private final RoleStatistics statistics;
+
+    public CompiledRoles() {
+        this(new RoleStatistics());
+    }
+
+    @Autowired
+    public CompiledRoles(RoleStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param roleJson the definition of the role as read from Redis, in its flattened form
+     */
+    public CompiledRole get(String roleId, String roleJson) {
+        final Compiled compiled = roles.get(roleId);
+        if (compiled != null && compiled.json.equals(roleJson)) {
+            return compiled.role;
+        }
+        final CompiledRole role = CompiledRole.compile(readRole(roleJson), statistics.forRole(roleId));
+        roles.put(roleId, new Compiled(roleJson, role));
+        return role;
+    }
+
+    /**
+     * Compiles a role without keeping it, for callers that share compiled roles themselves such as {@link PolicySnapshot}
+     */
+    public CompiledRole compile(Role role) {
+        return CompiledRole.compile(role, statistics.forRole(role.getId()));
+    }
+
+    public void invalidate(String roleId) {
+        roles.remove(roleId);
+    }
+
+    public void invalidateAll() {
+        roles.clear();
+    }
+
+    public int size() {
+        return roles.size();
+    }
+
+    private static Role readRole(String roleJson) {
+        try {
+            return objectMapper.readValue(roleJson, Role.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Compiled {
+        private final String json;
+        private final CompiledRole role;
+
+        private Compiled(String json, CompiledRole role) {
+            this.json = json;
+            this.role = role;
+        }
+    }
+}
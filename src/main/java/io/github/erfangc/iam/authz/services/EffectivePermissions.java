@@ -0,0 +1,111 @@
+package io.github.erfangc.iam.authz.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link EffectivePermissions} is everything {@link AuthorizeService} needs to make a decision for a single subject: the
+ * {@link CompiledRole}(s) the subject, or any group it belongs to, is bound to
+ * <p>
+ * It also records what the entry was derived from (the roleIds referenced by the subject's bindings, whether or not the role
+ * exists, and the principals whose bindings were read) so {@link EffectivePermissionsCache} can evict it precisely when any of those change
+ * <p>
+ * Roles are tried in an {@link AdaptiveOrder}, so for as long as the entry is cached the roles that allow the subject's requests
+ * most often are tried first, which is why the union of a subject's and its groups' permissions is cached rather than rebuilt
+ * for every request
+ */
+public class EffectivePermissions {
+
+    private final List<CompiledRole> roles;
+    private final Set<String> roleIds;
+    private final Set<String> principals;
+    private final List<String> grantedRoleIds;
+    private final AdaptiveOrder roleOrder;
+    private final long policyVersion;
+
+    public EffectivePermissions(List<CompiledRole> roles, Set<String> roleIds, Set<String> principals) {
+        this(roles, roleIds, principals, -1);
+    }
+
+    /**
+     * @param policyVersion the version of the {@link PolicySnapshot} these permissions were taken from, -1 if they were loaded from Redis
+     */
+    public EffectivePermissions(List<CompiledRole> roles, Set<String> roleIds, Set<String> principals, long policyVersion) {
+        this.roles = roles;
+        this.roleIds = roleIds;
+        this.principals = principals;
+        final List<String> grantedRoleIds = new ArrayList<>(roles.size());
+        for (CompiledRole role : roles) {
+            grantedRoleIds.add(role.getId());
+        }
+        this.grantedRoleIds = Collections.unmodifiableList(grantedRoleIds);
+        this.roleOrder = new AdaptiveOrder(roles.size());
+        this.policyVersion = policyVersion;
+    }
+
+    /**
+     * Combines the permissions of several principals, i.e. a user's and those of the groups it belongs to, each role appearing once
+     */
+    public static EffectivePermissions union(List<EffectivePermissions> effectivePermissions) {
+        final Set<String> principals = new LinkedHashSet<>();
+        for (EffectivePermissions permissions : effectivePermissions) {
+            principals.addAll(permissions.getPrincipals());
+        }
+        return union(effectivePermissions, principals, -1);
+    }
+
+    /**
+     * @param principals every principal the union was derived from, including those without any permissions
+     */
+    public static EffectivePermissions union(List<EffectivePermissions> effectivePermissions, Set<String> principals, long policyVersion) {
+        final List<CompiledRole> roles = new ArrayList<>();
+        final Set<String> roleIds = new LinkedHashSet<>();
+        final Set<String> seen = new HashSet<>();
+        for (EffectivePermissions permissions : effectivePermissions) {
+            roleIds.addAll(permissions.getRoleIds());
+            for (CompiledRole role : permissions.getRoles()) {
+                if (seen.add(role.getId())) {
+                    roles.add(role);
+                }
+            }
+        }
+        return new EffectivePermissions(roles, roleIds, principals, policyVersion);
+    }
+
+    /**
+     * @return the roles in binding order
+     */
+    public List<CompiledRole> getRoles() {
+        return roles;
+    }
+
+    /**
+     * The order roles are evaluated in, indices into {@link #getRoles()}
+     */
+    AdaptiveOrder getRoleOrder() {
+        return roleOrder;
+    }
+
+    public Set<String> getRoleIds() {
+        return roleIds;
+    }
+
+    public Set<String> getPrincipals() {
+        return principals;
+    }
+
+    /**
+     * The ids of the roles that exist and are bound to the subject, in binding order
+     */
+    public List<String> getGrantedRoleIds() {
+        return grantedRoleIds;
+    }
+
+    public long getPolicyVersion() {
+        return policyVersion;
+    }
+}
@@ -0,0 +1,151 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link EffectivePermissionsCache} is a bounded, in-process LRU cache of {@link EffectivePermissions} keyed by subject. A warm
+ * authorization decision is served entirely from here without touching Redis
+ * <p>
+ * Entries are evicted precisely: after every write to a role or role-binding, on this instance through {@link PolicyChangePublisher}
+ * and on every other instance through {@link PolicyChangeSubscriber}, only the subjects that depended on what changed are dropped
+ * <p>
+ * To avoid caching a value that was read from Redis before a concurrent write landed, callers must obtain {@link #generation()}
+ * before loading and hand it back to {@link #put(String, EffectivePermissions, long)}. Any invalidation in between bumps the generation
+ * and the stale value is discarded
+ */
+@Component
+public class EffectivePermissionsCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(EffectivePermissionsCache.class);
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+    private final LinkedHashMap<String, EffectivePermissions> entries;
+    private final Map<String, Set<String>> subsByRoleId = new HashMap<>();
+    private final Map<String, Set<String>> subsByPrincipal = new HashMap<>();
+    private long generation;
+    private boolean enabled = true;
+
+    public EffectivePermissionsCache() {
+        this(maxSizeFromEnv());
+    }
+
+    public EffectivePermissionsCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        logger.info("{} has started with maxSize={}", EffectivePermissionsCache.class.getSimpleName(), maxSize);
+    }
+
+    private static int maxSizeFromEnv() {
+        final String maxSize = System.getenv("AUTHZ_CACHE_SIZE");
+        return maxSize == null || maxSize.isEmpty() ? DEFAULT_MAX_SIZE : Integer.parseInt(maxSize);
+    }
+
+    public synchronized EffectivePermissions get(String sub) {
+        return enabled ? entries.get(sub) : null;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches the given {@link EffectivePermissions} unless an invalidation happened since the caller observed generation
+     */
+    public synchronized void put(String sub, EffectivePermissions effectivePermissions, long generation) {
+        if (!enabled || maxSize <= 0 || generation != this.generation) {
+            return;
+        }
+        remove(sub);
+        entries.put(sub, effectivePermissions);
+        for (String roleId : effectivePermissions.getRoleIds()) {
+            subsByRoleId.computeIfAbsent(roleId, k -> new HashSet<>()).add(sub);
+        }
+        for (String principal : effectivePermissions.getPrincipals()) {
+            subsByPrincipal.computeIfAbsent(principal, k -> new HashSet<>()).add(sub);
+        }
+        if (entries.size() > maxSize) {
+            final Iterator<String> eldest = entries.keySet().iterator();
+            remove(eldest.next());
+        }
+    }
+
+    /**
+     * Evicts every subject that is bound to the given role
+     */
+    public synchronized void invalidateRole(String roleId) {
+        generation++;
+        final Set<String> subs = subsByRoleId.get(roleId);
+        if (subs != null) {
+            for (String sub : new HashSet<>(subs)) {
+                remove(sub);
+            }
+        }
+    }
+
+    /**
+     * Evicts every subject whose permissions were derived from the role-bindings of the given principal
+     */
+    public synchronized void invalidatePrincipal(String principalType, String principalId) {
+        generation++;
+        final Set<String> subs = subsByPrincipal.get(principalType + ":" + principalId);
+        if (subs != null) {
+            for (String sub : new HashSet<>(subs)) {
+                remove(sub);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        subsByRoleId.clear();
+        subsByPrincipal.clear();
+    }
+
+    /**
+     * A disabled cache is empty and ignores puts, used while we cannot guarantee to hear about changes made elsewhere
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (!enabled) {
+            invalidateAll();
+        }
+        this.enabled = enabled;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String sub) {
+        final EffectivePermissions removed = entries.remove(sub);
+        if (removed == null) {
+            return;
+        }
+        for (String roleId : removed.getRoleIds()) {
+            removeFromIndex(subsByRoleId, roleId, sub);
+        }
+        for (String principal : removed.getPrincipals()) {
+            removeFromIndex(subsByPrincipal, principal, sub);
+        }
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String sub) {
+        final Set<String> subs = index.get(key);
+        if (subs != null) {
+            subs.remove(sub);
+            if (subs.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.ValueScanCursor;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.EFFECTIVE_STALE_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.effectiveKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingsKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.subBindingsKey;
+
+/**
+ * {@link EffectivePolicyMaterializer} maintains, for every principal with role-bindings, a denormalized copy of the roles it is bound
+ * to under {@link Namespaces#effectiveKey(String, String)}, so that {@link EvaluationMode#MATERIALIZED} can load a subject with a single GET
+ * <p>
+ * {@link PolicyChangePublisher} calls into it on every write, before announcing the change:
+ * <ul>
+ *     <li>a role-binding change rebuilds the principal's view right away</li>
+ *     <li>a role change rebuilds the view of every principal bound to the role. Roles with up to <code>MATERIALIZE_INLINE_LIMIT</code>
+ *     (1000 by default) bindings are handled right away, larger ones are walked incrementally with SSCAN on a background worker
+ *     so the admin API is not blocked. Such a role is marked in {@link Namespaces#EFFECTIVE_STALE_KEY} until every view has been rebuilt,
+ *     and {@link EvaluationMode#MATERIALIZED} reads principals bound to a marked role with commands instead, so the change can be
+ *     announced right away. Any instance that starts finishes rebuilding the roles left marked by one that stopped</li>
+ * </ul>
+ * Views are rebuilt by <code>lua/materialize-effective-policy.lua</code> from the current bindings and roles, so rebuilds are idempotent
+ * and may be retried or coalesced freely. Enabled with <code>MATERIALIZE_EFFECTIVE_POLICIES=true</code> or <code>AUTHORIZE_MODE=materialized</code>,
+ * every instance that writes must have it enabled before any instance reads in {@link EvaluationMode#MATERIALIZED}
+ */
+@Component
+public class EffectivePolicyMaterializer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EffectivePolicyMaterializer.class);
+    private static final int DEFAULT_INLINE_LIMIT = 1000;
+    private static final int SCAN_BATCH_SIZE = 500;
+    private static final long RETRY_DELAY_SECONDS = 5;
+
+    private final StatefulRedisConnection<String, String> conn;
+    private final LuaScript materializeScript = new LuaScript("lua/materialize-effective-policy.lua");
+    private final LuaScript clearStaleScript = new LuaScript("lua/clear-stale-role.lua");
+    private final boolean enabled;
+    private final int inlineLimit;
+    private final ScheduledExecutorService worker;
+    /**
+     * Roles waiting for a background fan-out, a role changed again while waiting is fanned out once
+     */
+    private final Set<String> pendingRoles = new LinkedHashSet<>();
+    private int running;
+
+    @Autowired
+    public EffectivePolicyMaterializer(RedisClient redisClient) {
+        this(
+                redisClient,
+                Boolean.parseBoolean(System.getenv("MATERIALIZE_EFFECTIVE_POLICIES")) || EvaluationMode.fromEnv() == EvaluationMode.MATERIALIZED,
+                inlineLimitFromEnv()
+        );
+    }
+
+    public EffectivePolicyMaterializer(RedisClient redisClient, boolean enabled, int inlineLimit) {
+        this.enabled = enabled;
+        this.inlineLimit = inlineLimit;
+        this.conn = enabled ? redisClient.connect() : null;
+        this.worker = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "effective-policy-materializer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        logger.info("{} has started with enabled={} inlineLimit={}", EffectivePolicyMaterializer.class.getSimpleName(), enabled, inlineLimit);
+        if (enabled) {
+            for (String roleId : conn.sync().hkeys(EFFECTIVE_STALE_KEY)) {
+                logger.info("Resuming materialization of roleId={}", roleId);
+                enqueue(roleId, 0);
+            }
+        }
+    }
+
+    private static int inlineLimitFromEnv() {
+        final String inlineLimit = System.getenv("MATERIALIZE_INLINE_LIMIT");
+        return inlineLimit == null || inlineLimit.isEmpty() ? DEFAULT_INLINE_LIMIT : Integer.parseInt(inlineLimit);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Rebuilds the view of a single principal
+     */
+    public void principalChanged(String principalType, String principalId) {
+        materialize(conn.sync(), principalType, principalId);
+    }
+
+    /**
+     * Rebuilds the views of every principal bound to the role. Small roles are handled on the calling thread, large ones are marked
+     * stale and handed to the background worker, in which case this returns right away
+     */
+    public void roleChanged(String roleId) {
+        final RedisCommands<String, String> sync = conn.sync();
+        if (sync.scard(roleBindingsKey(roleId)) <= inlineLimit) {
+            fanOut(roleId);
+            return;
+        }
+        logger.info("Materializing roleId={} in the background", roleId);
+        sync.hset(EFFECTIVE_STALE_KEY, roleId, UUID.randomUUID().toString());
+        enqueue(roleId, 0);
+    }
+
+    private void enqueue(String roleId, long delaySeconds) {
+        synchronized (pendingRoles) {
+            if (!pendingRoles.add(roleId)) {
+                return;
+            }
+        }
+        worker.schedule(() -> process(roleId), delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void process(String roleId) {
+        synchronized (pendingRoles) {
+            if (!pendingRoles.remove(roleId)) {
+                return;
+            }
+            running++;
+        }
+        try {
+            //
+            // changes made after the token is read mark the role again and leave it marked after this rebuild
+            //
+            final RedisCommands<String, String> sync = conn.sync();
+            final String token = sync.hget(EFFECTIVE_STALE_KEY, roleId);
+            fanOut(roleId);
+            if (token != null) {
+                clearStaleScript.<Long>execute(sync, ScriptOutputType.INTEGER, new String[]{EFFECTIVE_STALE_KEY}, roleId, token);
+            }
+        } catch (Exception e) {
+            logger.error("Cannot materialize roleId={}, retrying in {}s error={}", roleId, RETRY_DELAY_SECONDS, e.getMessage());
+            enqueue(roleId, RETRY_DELAY_SECONDS);
+        } finally {
+            synchronized (pendingRoles) {
+                running--;
+            }
+        }
+    }
+
+    /**
+     * @return true when no background fan-out is queued or running
+     */
+    boolean isIdle() {
+        synchronized (pendingRoles) {
+            return pendingRoles.isEmpty() && running == 0;
+        }
+    }
+
+    private void fanOut(String roleId) {
+        final RedisCommands<String, String> sync = conn.sync();
+        final ScanArgs scanArgs = ScanArgs.Builder.limit(SCAN_BATCH_SIZE);
+        ScanCursor cursor = ScanCursor.INITIAL;
+        int principals = 0;
+        do {
+            final ValueScanCursor<String> page = sync.sscan(roleBindingsKey(roleId), cursor, scanArgs);
+            principals += materializeBindings(sync, page.getValues());
+            cursor = page;
+        } while (!cursor.isFinished());
+        logger.debug("Materialized roleId={} principals={}", roleId, principals);
+    }
+
+    private int materializeBindings(RedisCommands<String, String> sync, List<String> bindingIds) {
+        if (bindingIds.isEmpty()) {
+            return 0;
+        }
+        //
+        // a principal bound to the role more than once only needs one rebuild
+        //
+        final Map<String, RoleBinding> principals = new LinkedHashMap<>();
+        for (KeyValue<String, String> binding : sync.mget(bindingIds.stream().map(Namespaces::roleBindingKey).toArray(String[]::new))) {
+            if (!binding.hasValue()) {
+                continue;
+            }
+            try {
+                final RoleBinding roleBinding = objectMapper.readValue(binding.getValue(), RoleBinding.class);
+                principals.putIfAbsent(roleBinding.getPrincipalType() + ":" + roleBinding.getPrincipalId(), roleBinding);
+            } catch (IOException e) {
+                logger.error("Cannot deserialize binding key={} error={}", binding.getKey(), e.getMessage());
+            }
+        }
+        for (RoleBinding principal : principals.values()) {
+            materialize(sync, principal.getPrincipalType(), principal.getPrincipalId());
+        }
+        return principals.size();
+    }
+
+    private void materialize(RedisCommands<String, String> sync, String principalType, String principalId) {
+        materializeScript.<Long>execute(
+                sync,
+                ScriptOutputType.INTEGER,
+                new String[]{subBindingsKey(principalType, principalId), effectiveKey(principalType, principalId)},
+                roleBindingKey(""),
+                flatRoleKey("")
+        );
+    }
+
+    @PreDestroy
+    public void close() {
+        if (enabled) {
+            worker.shutdownNow();
+            conn.close();
+        }
+    }
+}
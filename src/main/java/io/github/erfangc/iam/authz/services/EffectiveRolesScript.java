@@ -0,0 +1,33 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingKey;
+
+/**
+ * {@link EffectiveRolesScript} wraps <code>lua/effective-roles.lua</code>, which walks principals → role-bindings → roles inside Redis
+ * so {@link AuthorizeService} can load everything it needs for a decision in one round trip regardless of how many bindings a
+ * subject, and the groups it belongs to, have
+ */
+public class EffectiveRolesScript {
+
+    private final LuaScript script = new LuaScript("lua/effective-roles.lua");
+
+    /**
+     * @return a flat list of roleId, roleJson pairs, roleJson is null if the role does not exist
+     */
+    public CompletionStage<List<String>> execute(RedisAsyncCommands<String, String> async, String... principalBindingsKeys) {
+        return script.executeAsync(
+                async,
+                ScriptOutputType.MULTI,
+                principalBindingsKeys,
+                roleBindingKey(""),
+                flatRoleKey("")
+        );
+    }
+}
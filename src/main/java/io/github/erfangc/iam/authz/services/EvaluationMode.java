@@ -0,0 +1,32 @@
+package io.github.erfangc.iam.authz.services;
+
+/**
+ * How {@link AuthorizeService} loads a subject's roles, configured through the
+ * <code>AUTHORIZE_MODE</code> environment variable
+ */
+public enum EvaluationMode {
+    /**
+     * Issue regular Redis commands from the service (the default)
+     */
+    COMMANDS,
+    /**
+     * Resolve bindings and roles server-side with {@link EffectiveRolesScript} in a single round trip
+     */
+    LUA,
+    /**
+     * Never read Redis on the request path, decide against the in-memory {@link PolicySnapshot} kept up to date by
+     * {@link PolicySnapshotStore} (requires Redis 5 or later). Resolving a subject to its groups is the exception, it is read
+     * from Redis on a {@link GroupClosureCache} miss
+     */
+    SNAPSHOT,
+    /**
+     * Read the subject's effective policy, kept up to date on every write by {@link EffectivePolicyMaterializer}, with a single
+     * GET and fall back to {@link #COMMANDS} for the subject or groups that have not been materialized, or whose views are being rebuilt
+     */
+    MATERIALIZED;
+
+    public static EvaluationMode fromEnv() {
+        final String mode = System.getenv("AUTHORIZE_MODE");
+        return mode == null || mode.isEmpty() ? COMMANDS : valueOf(mode.toUpperCase());
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link GroupClosureCache} is a bounded, in-process LRU cache of the ids of every group a subject belongs to, directly or through
+ * nested groups, so a decision never has to resolve a subject's groups from Redis once they are known
+ * <p>
+ * It is kept separately from {@link EffectivePermissionsCache} since group memberships change far less often than roles and
+ * role-bindings: a subject evicted there because one of its roles changed is reloaded without resolving its groups again
+ * <p>
+ * Entries are evicted, through {@link PolicyChangePublisher} and {@link PolicyChangeSubscriber}, when a membership change could
+ * alter them: the subject itself was added to or removed from a group, or a group it belongs to was. The same generation protocol
+ * as {@link EffectivePermissionsCache} applies
+ */
+@Component
+public class GroupClosureCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GroupClosureCache.class);
+    private static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Set<String>> entries;
+    private final Map<String, Set<String>> subsByGroupId = new HashMap<>();
+    private long generation;
+    private boolean enabled = true;
+
+    public GroupClosureCache() {
+        this(maxSizeFromEnv());
+    }
+
+    /**
+     * @param maxSize a maxSize of 0 disables the cache
+     */
+    public GroupClosureCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        logger.info("{} has started with maxSize={}", GroupClosureCache.class.getSimpleName(), maxSize);
+    }
+
+    private static int maxSizeFromEnv() {
+        final String maxSize = System.getenv("GROUP_CACHE_SIZE");
+        return maxSize == null || maxSize.isEmpty() ? DEFAULT_MAX_SIZE : Integer.parseInt(maxSize);
+    }
+
+    /**
+     * @return the ids of the groups the subject belongs to, or null if not cached
+     */
+    public synchronized Set<String> get(String sub) {
+        return enabled ? entries.get(sub) : null;
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Caches the given group ids unless an invalidation happened since the caller observed generation
+     */
+    public synchronized void put(String sub, Set<String> groupIds, long generation) {
+        if (!enabled || maxSize <= 0 || generation != this.generation) {
+            return;
+        }
+        remove(sub);
+        entries.put(sub, groupIds);
+        for (String groupId : groupIds) {
+            subsByGroupId.computeIfAbsent(groupId, k -> new HashSet<>()).add(sub);
+        }
+        if (entries.size() > maxSize) {
+            final Iterator<String> eldest = entries.keySet().iterator();
+            remove(eldest.next());
+        }
+    }
+
+    /**
+     * Evicts every subject whose groups may change because the given user or group joined or left a group
+     */
+    public synchronized void invalidateMember(String memberType, String memberId) {
+        generation++;
+        if ("user".equals(memberType)) {
+            remove(memberId);
+            return;
+        }
+        final Set<String> subs = subsByGroupId.get(memberId);
+        if (subs != null) {
+            for (String sub : new HashSet<>(subs)) {
+                remove(sub);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        subsByGroupId.clear();
+    }
+
+    /**
+     * A disabled cache is empty and ignores puts, used while we cannot guarantee to hear about changes made elsewhere
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        if (!enabled) {
+            invalidateAll();
+        }
+        this.enabled = enabled;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(String sub) {
+        final Set<String> removed = entries.remove(sub);
+        if (removed == null) {
+            return;
+        }
+        for (String groupId : removed) {
+            final Set<String> subs = subsByGroupId.get(groupId);
+            if (subs != null) {
+                subs.remove(sub);
+                if (subs.isEmpty()) {
+                    subsByGroupId.remove(groupId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static io.github.erfangc.iam.authz.services.Namespaces.groupMembershipsKey;
+
+/**
+ * {@link GroupClosureScript} wraps <code>lua/group-closure.lua</code>, which walks a user's group memberships up through nested
+ * groups inside Redis so resolving a user to all of its groups takes one round trip regardless of how deeply groups are nested
+ */
+public class GroupClosureScript {
+
+    private final LuaScript script = new LuaScript("lua/group-closure.lua");
+
+    /**
+     * @return the ids of every group the user belongs to, directly or not
+     */
+    public CompletionStage<List<String>> execute(RedisAsyncCommands<String, String> async, String sub) {
+        return script.executeAsync(
+                async,
+                ScriptOutputType.MULTI,
+                new String[]{groupMembershipsKey("user", sub)},
+                groupMembershipsKey("group", "")
+        );
+    }
+}
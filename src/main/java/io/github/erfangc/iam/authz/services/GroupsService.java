@@ -0,0 +1,163 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.ApiException;
+import io.github.erfangc.iam.authz.models.*;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.erfangc.iam.authz.services.Namespaces.GROUP_NS;
+import static io.github.erfangc.iam.authz.services.Namespaces.groupMembersKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.groupMembershipsKey;
+
+/**
+ * {@link GroupsService} manages groups of users, so a role can be granted to many users with a single {@link RoleBinding} whose
+ * principalType is <code>group</code>. A group's members are users or other groups, members of a nested group belong to every
+ * group that contains it
+ * <p>
+ * Memberships are kept in Redis in both directions: the members of a group, as type:id, under {@link Namespaces#groupMembersKey(String)}
+ * and the groups a user or group directly belongs to under {@link Namespaces#groupMembershipsKey(String, String)}, which is what
+ * {@link GroupClosureScript} walks at decision time. A group exists for as long as it has members
+ */
+@Service
+public class GroupsService {
+
+    private StatefulRedisConnection<String, String> conn;
+    private PolicyChangePublisher policyChangePublisher;
+
+    public GroupsService(RedisClient redisClient, PolicyChangePublisher policyChangePublisher) {
+        conn = redisClient.connect();
+        this.policyChangePublisher = policyChangePublisher;
+    }
+
+    public GetGroupResponse getGroup(String id) {
+        final RedisCommands<String, String> sync = conn.sync();
+        if (!sync.sismember(GROUP_NS, id)) {
+            throw groupNotFound(id);
+        }
+        final List<GroupMember> members = new ArrayList<>();
+        for (String member : sync.smembers(groupMembersKey(id))) {
+            members.add(member(member));
+        }
+        return new GetGroupResponse().setGroup(new Group().setId(id).setMembers(members));
+    }
+
+    public AddGroupMemberResponse addGroupMember(String id, AddGroupMemberRequest body) {
+        final RedisCommands<String, String> sync = conn.sync();
+        final GroupMember member = body.getMember();
+        validate(id, member);
+        final String memberType = member.getMemberType();
+        final String memberId = member.getMemberId();
+        if ("group".equals(memberType) && (memberId.equals(id) || ancestors(sync, id).contains(memberId))) {
+            throw new ApiException()
+                    .setHttpStatus(HttpStatus.BAD_REQUEST)
+                    .setMessage("Group " + memberId + " cannot be a member of " + id + ", " + id + " is already a member of it");
+        }
+        sync.multi();
+        sync.sadd(groupMembersKey(id), memberType + ":" + memberId);
+        sync.sadd(groupMembershipsKey(memberType, memberId), id);
+        sync.sadd(GROUP_NS, id);
+        sync.exec();
+        policyChangePublisher.groupMembershipChanged(id, memberType, memberId);
+        return new AddGroupMemberResponse().setMessage("Added").setTimestamp(Instant.now().toString());
+    }
+
+    public RemoveGroupMemberResponse removeGroupMember(String id, String memberType, String memberId) {
+        final RedisCommands<String, String> sync = conn.sync();
+        validate(id, new GroupMember().setMemberType(memberType).setMemberId(memberId));
+        if (!sync.sismember(groupMembersKey(id), memberType + ":" + memberId)) {
+            throw new ApiException()
+                    .setHttpStatus(HttpStatus.NOT_FOUND)
+                    .setMessage(memberType + " " + memberId + " is not a member of group " + id);
+        }
+        sync.multi();
+        sync.srem(groupMembersKey(id), memberType + ":" + memberId);
+        sync.srem(groupMembershipsKey(memberType, memberId), id);
+        sync.exec();
+        if (sync.exists(groupMembersKey(id)) == 0) {
+            sync.srem(GROUP_NS, id);
+        }
+        policyChangePublisher.groupMembershipChanged(id, memberType, memberId);
+        return new RemoveGroupMemberResponse().setMessage("Removed").setTimestamp(Instant.now().toString());
+    }
+
+    /**
+     * Removes every member from the group and the group from every group it belongs to. Role-bindings to the group are kept and
+     * apply again should it be re-created
+     */
+    public DeleteGroupResponse deleteGroup(String id) {
+        final RedisCommands<String, String> sync = conn.sync();
+        if (!sync.sismember(GROUP_NS, id)) {
+            throw groupNotFound(id);
+        }
+        final Set<String> members = sync.smembers(groupMembersKey(id));
+        final Set<String> parentIds = sync.smembers(groupMembershipsKey("group", id));
+        sync.multi();
+        for (String member : members) {
+            final GroupMember groupMember = member(member);
+            sync.srem(groupMembershipsKey(groupMember.getMemberType(), groupMember.getMemberId()), id);
+        }
+        for (String parentId : parentIds) {
+            sync.srem(groupMembersKey(parentId), "group:" + id);
+        }
+        sync.del(groupMembersKey(id), groupMembershipsKey("group", id));
+        sync.srem(GROUP_NS, id);
+        sync.exec();
+        //
+        // every subject that belonged to the group, directly or not, has it in its groups, that one event covers them all
+        //
+        policyChangePublisher.groupMembershipChanged(id, "group", id);
+        return new DeleteGroupResponse().setMessage("Deleted").setTimestamp(Instant.now().toString());
+    }
+
+    /**
+     * @param member as stored in the members of a group, i.e. user:joe
+     */
+    private static GroupMember member(String member) {
+        final int separator = member.indexOf(':');
+        return new GroupMember().setMemberType(member.substring(0, separator)).setMemberId(member.substring(separator + 1));
+    }
+
+    /**
+     * @return every group the given group belongs to, directly or not
+     */
+    private static Set<String> ancestors(RedisCommands<String, String> sync, String id) {
+        final Set<String> ancestors = new HashSet<>();
+        final Deque<String> queue = new ArrayDeque<>(sync.smembers(groupMembershipsKey("group", id)));
+        while (!queue.isEmpty()) {
+            final String next = queue.poll();
+            if (ancestors.add(next)) {
+                queue.addAll(sync.smembers(groupMembershipsKey("group", next)));
+            }
+        }
+        return ancestors;
+    }
+
+    private static void validate(String id, GroupMember member) {
+        if (id == null || id.isEmpty()) {
+            throw new ApiException().setHttpStatus(HttpStatus.BAD_REQUEST).setMessage("id is required");
+        }
+        if (member == null || !("user".equals(member.getMemberType()) || "group".equals(member.getMemberType()))) {
+            throw new ApiException().setHttpStatus(HttpStatus.BAD_REQUEST).setMessage("memberType must be one of user, group");
+        }
+        if (member.getMemberId() == null || member.getMemberId().isEmpty()) {
+            throw new ApiException().setHttpStatus(HttpStatus.BAD_REQUEST).setMessage("memberId is required");
+        }
+    }
+
+    private ApiException groupNotFound(String id) {
+        return new ApiException()
+                .setHttpStatus(HttpStatus.NOT_FOUND)
+                .setMessage("Group " + id + " not found");
+    }
+}
@@ -0,0 +1,29 @@
+package io.github.erfangc.iam.authz.services;
+
+/**
+ * A key reported by {@link SpaceSaving}, its true count lies between count - error and count
+ */
+public class HeavyHitter {
+
+    private final String key;
+    private final long count;
+    private final long error;
+
+    HeavyHitter(String key, long count, long error) {
+        this.key = key;
+        this.count = count;
+        this.error = error;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getError() {
+        return error;
+    }
+}
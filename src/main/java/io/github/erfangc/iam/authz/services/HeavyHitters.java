@@ -0,0 +1,198 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link HeavyHitters} tracks which subjects, resource prefixes and denials dominate authorization traffic, in fixed memory, so caches
+ * can be sized and abusive clients spotted without logging every decision
+ * <p>
+ * Every decision made by {@link AuthorizeService} is offered to three {@link SpaceSaving} sketches of <code>HEAVY_HITTERS_CAPACITY</code>
+ * counters each (200 by default, 0 disables tracking): subjects, resources cut to their first <code>HEAVY_HITTERS_PATH_SEGMENTS</code>
+ * path segments (2 by default) and, for denied requests only, subject and resource prefix. Counts are kept per window of
+ * <code>HEAVY_HITTERS_WINDOW_SECONDS</code> (300 by default): the window in progress and the last complete one are reported on
+ * <code>/actuator/heavyhitters</code>, older ones are discarded
+ * <p>
+ * So that request threads do not contend on one lock, each window is split into stripes of sketches, one per available processor
+ * rounded up to a power of two. A thread only ever records into the stripe its id selects, and the stripes are merged when a window
+ * is reported
+ */
+@Component
+public class HeavyHitters {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeavyHitters.class);
+    private static final int DEFAULT_CAPACITY = 200;
+    private static final int DEFAULT_PATH_SEGMENTS = 2;
+    private static final Duration DEFAULT_WINDOW = Duration.ofMinutes(5);
+    private static final int REPORTED = 20;
+
+    private final int capacity;
+    private final int pathSegments;
+    private final long windowMillis;
+    private final int stripes;
+    private final Clock clock;
+    private volatile Window current;
+    private volatile Window previous;
+
+    public HeavyHitters() {
+        this(
+                intFromEnv("HEAVY_HITTERS_CAPACITY", DEFAULT_CAPACITY),
+                intFromEnv("HEAVY_HITTERS_PATH_SEGMENTS", DEFAULT_PATH_SEGMENTS),
+                windowFromEnv(),
+                Clock.systemUTC()
+        );
+    }
+
+    public HeavyHitters(int capacity, int pathSegments, Duration window, Clock clock) {
+        this(capacity, pathSegments, window, Runtime.getRuntime().availableProcessors(), clock);
+    }
+
+    /**
+     * @param stripes rounded up to a power of two
+     */
+    public HeavyHitters(int capacity, int pathSegments, Duration window, int stripes, Clock clock) {
+        this.capacity = capacity;
+        this.pathSegments = pathSegments;
+        this.windowMillis = window.toMillis();
+        this.stripes = Integer.highestOneBit(Math.max(stripes, 1) * 2 - 1);
+        this.clock = clock;
+        this.current = new Window(clock.millis());
+        logger.info(
+                "{} has started with capacity={} pathSegments={} window={} stripes={}",
+                HeavyHitters.class.getSimpleName(),
+                capacity,
+                pathSegments,
+                window,
+                this.stripes
+        );
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static Duration windowFromEnv() {
+        final String seconds = System.getenv("HEAVY_HITTERS_WINDOW_SECONDS");
+        return seconds == null || seconds.isEmpty() ? DEFAULT_WINDOW : Duration.ofSeconds(Long.parseLong(seconds));
+    }
+
+    public void record(String sub, String resource, boolean allowed) {
+        if (capacity <= 0) {
+            return;
+        }
+        final String prefix = prefix(resource, pathSegments);
+        final Stripe stripe = window().stripes[(int) Thread.currentThread().getId() & (stripes - 1)];
+        synchronized (stripe) {
+            stripe.subjects.offer(sub);
+            stripe.resources.offer(prefix);
+            if (!allowed) {
+                stripe.denials.offer(sub + " " + prefix);
+            }
+        }
+    }
+
+    /**
+     * @return the window in progress, starting a new one once it has ended
+     */
+    private Window window() {
+        final long now = clock.millis();
+        Window window = current;
+        if (now < window.start + windowMillis) {
+            return window;
+        }
+        synchronized (this) {
+            window = current;
+            if (now >= window.start + windowMillis) {
+                //
+                // the last window only counts as the previous one if nothing was skipped in between
+                //
+                previous = now < window.start + 2 * windowMillis ? window : null;
+                window = new Window(now - (now - window.start) % windowMillis);
+                current = window;
+            }
+            return window;
+        }
+    }
+
+    /**
+     * @return the resource up to the end of its first segments path segments, without any query string
+     */
+    static String prefix(String resource, int segments) {
+        if (resource == null) {
+            return "";
+        }
+        int end = resource.indexOf('?');
+        end = end < 0 ? resource.length() : end;
+        int seen = 0;
+        for (int i = 1; i < end; i++) {
+            if (resource.charAt(i) == '/' && ++seen == segments) {
+                return resource.substring(0, i);
+            }
+        }
+        return resource.substring(0, end);
+    }
+
+    public Map<String, Object> report() {
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("enabled", capacity > 0);
+        report.put("windowSeconds", windowMillis / 1000);
+        report.put("current", window().report(windowMillis));
+        final Window previous = this.previous;
+        report.put("previous", previous == null ? null : previous.report(windowMillis));
+        return report;
+    }
+
+    private class Window {
+        private final long start;
+        private final Stripe[] stripes = new Stripe[HeavyHitters.this.stripes];
+
+        private Window(long start) {
+            this.start = start;
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        private Map<String, Object> report(long windowMillis) {
+            //
+            // copy each stripe under its lock and merge the copies without holding any
+            //
+            final List<SpaceSaving> subjects = new ArrayList<>(stripes.length);
+            final List<SpaceSaving> resources = new ArrayList<>(stripes.length);
+            final List<SpaceSaving> denials = new ArrayList<>(stripes.length);
+            long decisions = 0;
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    subjects.add(stripe.subjects.copy());
+                    resources.add(stripe.resources.copy());
+                    denials.add(stripe.denials.copy());
+                    decisions += stripe.subjects.total();
+                }
+            }
+            final Map<String, Object> report = new LinkedHashMap<>();
+            report.put("from", Instant.ofEpochMilli(start).toString());
+            report.put("to", Instant.ofEpochMilli(start + windowMillis).toString());
+            report.put("decisions", decisions);
+            report.put("subjects", SpaceSaving.top(subjects, REPORTED));
+            report.put("resources", SpaceSaving.top(resources, REPORTED));
+            report.put("denials", SpaceSaving.top(denials, REPORTED));
+            return report;
+        }
+    }
+
+    private class Stripe {
+        private final SpaceSaving subjects = new SpaceSaving(capacity);
+        private final SpaceSaving resources = new SpaceSaving(capacity);
+        private final SpaceSaving denials = new SpaceSaving(capacity);
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+/**
+ * {@link LuaScript} is a Lua script bundled on the classpath that is invoked via EVALSHA and transparently re-loaded if Redis no
+ * longer has it (i.e. after a restart or SCRIPT FLUSH)
+ */
+public class LuaScript {
+
+    private final String resource;
+    private final String script;
+    private volatile String sha;
+
+    public LuaScript(String resource) {
+        this.resource = resource;
+        try (InputStream inputStream = LuaScript.class.getClassLoader().getResourceAsStream(resource)) {
+            if (inputStream == null) {
+                throw new IllegalStateException("Cannot find " + resource + " on the classpath");
+            }
+            script = StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public <T> T execute(RedisCommands<String, String> sync, ScriptOutputType outputType, String[] keys, String... args) {
+        if (sha == null) {
+            sha = sync.scriptLoad(script);
+        }
+        try {
+            return sync.evalsha(sha, outputType, keys, args);
+        } catch (RedisNoScriptException e) {
+            sha = sync.scriptLoad(script);
+            return sync.evalsha(sha, outputType, keys, args);
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #execute(RedisCommands, ScriptOutputType, String[], String...)}
+     */
+    public <T> CompletionStage<T> executeAsync(RedisAsyncCommands<String, String> async, ScriptOutputType outputType, String[] keys, String... args) {
+        final String currentSha = sha;
+        final CompletionStage<String> loaded = currentSha != null ? completedFuture(currentSha) : loadAsync(async);
+        return loaded
+                .thenCompose(loadedSha -> async.<T>evalsha(loadedSha, outputType, keys, args))
+                .handle((result, e) -> {
+                    if (e == null) {
+                        return completedFuture(result);
+                    }
+                    final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof RedisNoScriptException) {
+                        return loadAsync(async).thenCompose(loadedSha -> async.<T>evalsha(loadedSha, outputType, keys, args));
+                    }
+                    final CompletableFuture<T> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(cause);
+                    return failed;
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletionStage<String> loadAsync(RedisAsyncCommands<String, String> async) {
+        return async.scriptLoad(script).thenApply(loadedSha -> sha = loadedSha);
+    }
+
+    @Override
+    public String toString() {
+        return resource;
+    }
+}
@@ -6,6 +6,19 @@ public class Namespaces {
     public static String BINDING_NS = "iam:role-bindings:";
     public static String SUB_ROLE_MAPPING_NS = "iam:role-bindings:subs:";
     public static String ROLE_BINDINGS_NS = "iam:role-bindings:roles:";
+    public static String POLICY_VERSION_KEY = "iam:policy-version";
+    public static String POLICY_CHANGES_CHANNEL = "iam:policy-changes";
+    public static String POLICY_LOG_KEY = "iam:policy-log";
+    public static String EFFECTIVE_NS = "iam:effective:";
+    /**
+     * A hash of the roles whose materialized views are still being rebuilt in the background, see {@link EffectivePolicyMaterializer}
+     */
+    public static String EFFECTIVE_STALE_KEY = "iam:effective-stale";
+    public static String FLAT_ROLE_NS = "iam:role-flat:";
+    public static String ROLE_INHERITORS_NS = "iam:role-inheritors:";
+    public static String GROUP_NS = "iam:group";
+    public static String GROUP_MEMBERS_NS = "iam:group-members:";
+    public static String GROUP_MEMBERSHIPS_NS = "iam:group-memberships:";
 
     public static String roleKey(String roleId) {
         return ROLE_NS + ":" + roleId;
@@ -19,7 +32,44 @@ public class Namespaces {
         return SUB_ROLE_MAPPING_NS + type + ":" + sub;
     }
 
+    /**
+     * @param principal the principal as type:id, i.e. group:engineering
+     */
+    public static String principalBindingsKey(String principal) {
+        return SUB_ROLE_MAPPING_NS + principal;
+    }
+
     public static String roleBindingsKey(String roleId) {
         return ROLE_BINDINGS_NS + roleId;
     }
+
+    public static String flatRoleKey(String roleId) {
+        return FLAT_ROLE_NS + roleId;
+    }
+
+    public static String roleInheritorsKey(String roleId) {
+        return ROLE_INHERITORS_NS + roleId;
+    }
+
+    public static String groupMembersKey(String groupId) {
+        return GROUP_MEMBERS_NS + groupId;
+    }
+
+    /**
+     * The ids of the groups the given user or group is a direct member of
+     */
+    public static String groupMembershipsKey(String memberType, String memberId) {
+        return GROUP_MEMBERSHIPS_NS + memberType + ":" + memberId;
+    }
+
+    public static String effectiveKey(String type, String id) {
+        return EFFECTIVE_NS + type + ":" + id;
+    }
+
+    /**
+     * @param principal the principal as type:id, i.e. group:engineering
+     */
+    public static String principalEffectiveKey(String principal) {
+        return EFFECTIVE_NS + principal;
+    }
 }
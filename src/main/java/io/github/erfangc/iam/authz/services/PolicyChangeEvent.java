@@ -0,0 +1,90 @@
+package io.github.erfangc.iam.authz.services;
+
+/**
+ * {@link PolicyChangeEvent} is published on {@link Namespaces#POLICY_CHANGES_CHANNEL} every time a role, a role-binding or a group
+ * membership is written so every IAM instance can evict exactly the cached entries that depend on it
+ * <p>
+ * For a group membership, principalType and principalId identify the user or group whose groups changed: the member that joined or
+ * left groupId, or the group itself when it was deleted
+ * <p>
+ * version is the value of {@link Namespaces#POLICY_VERSION_KEY} after the change, which increases by one with every event
+ */
+public class PolicyChangeEvent {
+
+    public enum Type {
+        ROLE,
+        ROLE_BINDING,
+        GROUP_MEMBERSHIP
+    }
+
+    private long version;
+    private Type type;
+    private String roleId;
+    private String bindingId;
+    private String principalType;
+    private String principalId;
+    private String groupId;
+
+    public long getVersion() {
+        return version;
+    }
+
+    public PolicyChangeEvent setVersion(long version) {
+        this.version = version;
+        return this;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public PolicyChangeEvent setType(Type type) {
+        this.type = type;
+        return this;
+    }
+
+    public String getRoleId() {
+        return roleId;
+    }
+
+    public PolicyChangeEvent setRoleId(String roleId) {
+        this.roleId = roleId;
+        return this;
+    }
+
+    public String getBindingId() {
+        return bindingId;
+    }
+
+    public PolicyChangeEvent setBindingId(String bindingId) {
+        this.bindingId = bindingId;
+        return this;
+    }
+
+    public String getPrincipalType() {
+        return principalType;
+    }
+
+    public PolicyChangeEvent setPrincipalType(String principalType) {
+        this.principalType = principalType;
+        return this;
+    }
+
+    public String getPrincipalId() {
+        return principalId;
+    }
+
+    public PolicyChangeEvent setPrincipalId(String principalId) {
+        this.principalId = principalId;
+        return this;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public PolicyChangeEvent setGroupId(String groupId) {
+        this.groupId = groupId;
+        return this;
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.erfangc.iam.authz.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_CHANGES_CHANNEL;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_LOG_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_VERSION_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.groupMembersKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingKey;
+
+/**
+ * {@link PolicyChangePublisher} is called by {@link RolesService}, {@link RoleBindingsService} and {@link GroupsService} after every
+ * write. It evicts the affected entries from this instance's {@link EffectivePermissionsCache} and {@link GroupClosureCache} right
+ * away and publishes a {@link PolicyChangeEvent} so {@link PolicyChangeSubscriber} on every other instance does the same
+ * <p>
+ * The same script appends the change, with the value of the role (in its flattened form) or role-binding as of the change, to the
+ * policy log stream replayed by {@link PolicySnapshotStore}
+ * <p>
+ * When {@link EffectivePolicyMaterializer} is enabled the materialized views are rebuilt, or for large roles marked stale, first,
+ * so no instance reloads a subject from a view that predates the change it was told about
+ */
+@Component
+public class PolicyChangePublisher {
+
+    private final StatefulRedisConnection<String, String> conn;
+    private final EffectivePermissionsCache cache;
+    private final GroupClosureCache groupClosureCache;
+    private final EffectivePolicyMaterializer materializer;
+    private static final int POLICY_LOG_MAX_LENGTH = 10000;
+    private final LuaScript publishScript = new LuaScript("lua/publish-policy-change.lua");
+
+    public PolicyChangePublisher(RedisClient redisClient, EffectivePermissionsCache cache) {
+        this(redisClient, cache, null);
+    }
+
+    public PolicyChangePublisher(RedisClient redisClient, EffectivePermissionsCache cache, EffectivePolicyMaterializer materializer) {
+        this(redisClient, cache, new GroupClosureCache(0), materializer);
+    }
+
+    @Autowired
+    public PolicyChangePublisher(RedisClient redisClient,
+                                 EffectivePermissionsCache cache,
+                                 GroupClosureCache groupClosureCache,
+                                 EffectivePolicyMaterializer materializer) {
+        this.conn = redisClient.connect();
+        this.cache = cache;
+        this.groupClosureCache = groupClosureCache;
+        this.materializer = materializer != null && materializer.isEnabled() ? materializer : null;
+    }
+
+    public void roleChanged(String roleId) {
+        if (materializer != null) {
+            materializer.roleChanged(roleId);
+        }
+        cache.invalidateRole(roleId);
+        publish(new PolicyChangeEvent().setType(PolicyChangeEvent.Type.ROLE).setRoleId(roleId), flatRoleKey(roleId), roleId);
+    }
+
+    public void roleBindingChanged(RoleBinding roleBinding) {
+        if (materializer != null) {
+            materializer.principalChanged(roleBinding.getPrincipalType(), roleBinding.getPrincipalId());
+        }
+        cache.invalidatePrincipal(roleBinding.getPrincipalType(), roleBinding.getPrincipalId());
+        publish(
+                new PolicyChangeEvent()
+                        .setType(PolicyChangeEvent.Type.ROLE_BINDING)
+                        .setBindingId(roleBinding.getId())
+                        .setRoleId(roleBinding.getRoleId())
+                        .setPrincipalType(roleBinding.getPrincipalType())
+                        .setPrincipalId(roleBinding.getPrincipalId()),
+                roleBindingKey(roleBinding.getId()),
+                roleBinding.getId()
+        );
+    }
+
+    /**
+     * @param memberType the type of the user or group whose groups changed
+     * @param memberId   the member that joined or left groupId, or groupId itself when the group was deleted
+     */
+    public void groupMembershipChanged(String groupId, String memberType, String memberId) {
+        groupClosureCache.invalidateMember(memberType, memberId);
+        cache.invalidatePrincipal(memberType, memberId);
+        publish(
+                new PolicyChangeEvent()
+                        .setType(PolicyChangeEvent.Type.GROUP_MEMBERSHIP)
+                        .setGroupId(groupId)
+                        .setPrincipalType(memberType)
+                        .setPrincipalId(memberId),
+                groupMembersKey(groupId),
+                groupId
+        );
+    }
+
+    private void publish(PolicyChangeEvent event, String key, String id) {
+        try {
+            publishScript.<Long>execute(
+                    conn.sync(),
+                    ScriptOutputType.INTEGER,
+                    new String[]{POLICY_VERSION_KEY, key, POLICY_LOG_KEY},
+                    POLICY_CHANGES_CHANNEL,
+                    objectMapper.writeValueAsString(event),
+                    id,
+                    String.valueOf(POLICY_LOG_MAX_LENGTH)
+            );
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_CHANGES_CHANNEL;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_VERSION_KEY;
+
+/**
+ * {@link PolicyChangeSubscriber} keeps this instance's {@link EffectivePermissionsCache}, {@link GroupClosureCache} and {@link CompiledRoles}
+ * coherent with writes made through any other IAM instance by listening to the {@link PolicyChangeEvent}(s) published by {@link PolicyChangePublisher}
+ * <p>
+ * Pub/sub is fire and forget, events published while we are not subscribed are lost. So whenever there might have been a gap
+ * we fall back to flushing everything:
+ * <ul>
+ *     <li>when the pub/sub connection drops the cache is disabled (and emptied) until Lettuce has reconnected and the subscription is confirmed again</li>
+ *     <li>when an event's version is not the one right after the last one we have seen</li>
+ * </ul>
+ * It also tracks the policy version the cache is known to reflect, seeded from {@link Namespaces#POLICY_VERSION_KEY} every time
+ * the subscription is (re-)established, see {@link #getPolicyVersion()}
+ */
+@Component
+public class PolicyChangeSubscriber {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicyChangeSubscriber.class);
+    private final RedisClient redisClient;
+    private final StatefulRedisPubSubConnection<String, String> conn;
+    private final StatefulRedisConnection<String, String> versionConn;
+    private final EffectivePermissionsCache cache;
+    private final GroupClosureCache groupClosureCache;
+    private final CompiledRoles compiledRoles;
+    private final RedisConnectionStateListener connectionStateListener;
+    private long lastVersion = -1;
+    private long policyVersion = -1;
+    private long subscriptions;
+
+    public PolicyChangeSubscriber(RedisClient redisClient, EffectivePermissionsCache cache) {
+        this(redisClient, cache, new GroupClosureCache(0));
+    }
+
+    public PolicyChangeSubscriber(RedisClient redisClient, EffectivePermissionsCache cache, GroupClosureCache groupClosureCache) {
+        this(redisClient, cache, groupClosureCache, new CompiledRoles());
+    }
+
+    @Autowired
+    public PolicyChangeSubscriber(RedisClient redisClient,
+                                  EffectivePermissionsCache cache,
+                                  GroupClosureCache groupClosureCache,
+                                  CompiledRoles compiledRoles) {
+        this.redisClient = redisClient;
+        this.cache = cache;
+        this.groupClosureCache = groupClosureCache;
+        this.compiledRoles = compiledRoles;
+        this.conn = redisClient.connectPubSub();
+        this.versionConn = redisClient.connect();
+        this.connectionStateListener = new RedisConnectionStateListener() {
+            @Override
+            public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+                if (connection == conn) {
+                    onDisconnected();
+                }
+            }
+
+            @Override
+            public void onRedisExceptionCaught(RedisChannelHandler<?, ?> connection, Throwable cause) {
+            }
+        };
+        redisClient.addListener(connectionStateListener);
+        conn.addListener(new RedisPubSubAdapter<String, String>() {
+            @Override
+            public void message(String channel, String message) {
+                onMessage(message);
+            }
+
+            @Override
+            public void subscribed(String channel, long count) {
+                onSubscribed();
+            }
+        });
+        conn.sync().subscribe(POLICY_CHANGES_CHANNEL);
+        logger.info("{} has subscribed to channel={}", PolicyChangeSubscriber.class.getSimpleName(), POLICY_CHANGES_CHANNEL);
+    }
+
+    synchronized void onMessage(String message) {
+        final PolicyChangeEvent event;
+        try {
+            event = objectMapper.readValue(message, PolicyChangeEvent.class);
+        } catch (IOException e) {
+            logger.error("Cannot deserialize policy change, flushing cache error={}", e.getMessage());
+            invalidateAll();
+            return;
+        }
+        final long version = event.getVersion();
+        if (lastVersion >= 0 && version > lastVersion + 1) {
+            logger.warn("Missed policy changes between version={} and version={}, flushing cache", lastVersion, version);
+            invalidateAll();
+        }
+        lastVersion = Math.max(lastVersion, version);
+        if (event.getType() == PolicyChangeEvent.Type.ROLE) {
+            compiledRoles.invalidate(event.getRoleId());
+            cache.invalidateRole(event.getRoleId());
+        } else if (event.getType() == PolicyChangeEvent.Type.ROLE_BINDING) {
+            cache.invalidatePrincipal(event.getPrincipalType(), event.getPrincipalId());
+        } else if (event.getType() == PolicyChangeEvent.Type.GROUP_MEMBERSHIP) {
+            groupClosureCache.invalidateMember(event.getPrincipalType(), event.getPrincipalId());
+            cache.invalidatePrincipal(event.getPrincipalType(), event.getPrincipalId());
+        } else {
+            invalidateAll();
+        }
+        //
+        // only advertise the version once what it replaced is out of the cache
+        //
+        if (policyVersion >= 0) {
+            policyVersion = Math.max(policyVersion, version);
+        }
+    }
+
+    synchronized long lastVersion() {
+        return lastVersion;
+    }
+
+    /**
+     * @return a policy version such that every decision made from now on reflects at least that version, or -1 while it is
+     * not known (i.e. until the subscription has been confirmed and the current version read)
+     */
+    public synchronized long getPolicyVersion() {
+        return policyVersion;
+    }
+
+    synchronized void onDisconnected() {
+        logger.warn("Lost subscription to channel={}, disabling cache until re-subscribed", POLICY_CHANGES_CHANNEL);
+        policyVersion = -1;
+        cache.setEnabled(false);
+        groupClosureCache.setEnabled(false);
+    }
+
+    synchronized void onSubscribed() {
+        //
+        // anything cached before this point may have missed events, anything after will see them
+        //
+        lastVersion = -1;
+        policyVersion = -1;
+        invalidateAll();
+        cache.setEnabled(true);
+        groupClosureCache.setEnabled(true);
+        final long subscription = ++subscriptions;
+        versionConn.async().get(POLICY_VERSION_KEY).whenComplete((version, e) -> {
+            if (e != null) {
+                logger.error("Cannot read policy version, it stays unknown until the next policy change error={}", e.getMessage());
+            } else {
+                onPolicyVersion(subscription, version == null ? 0 : Long.parseLong(version));
+            }
+        });
+    }
+
+    synchronized void onPolicyVersion(long subscription, long version) {
+        if (subscription != subscriptions) {
+            return;
+        }
+        //
+        // entries cached between subscribing and reading the version may predate it, whereas anything loaded from here on cannot
+        //
+        invalidateAll();
+        policyVersion = Math.max(version, lastVersion);
+    }
+
+    private void invalidateAll() {
+        compiledRoles.invalidateAll();
+        cache.invalidateAll();
+        groupClosureCache.invalidateAll();
+    }
+
+    @PreDestroy
+    public void close() {
+        redisClient.removeListener(connectionStateListener);
+        conn.close();
+        versionConn.close();
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+
+/**
+ * {@link PolicyDelta} is one entry of the policy log ({@link Namespaces#POLICY_LOG_KEY}): the new value of a single role or
+ * role-binding, or null if it was deleted, stamped with the policy version the write produced
+ * <p>
+ * Group membership changes are logged too so versions stay contiguous, but carry nothing the snapshot needs: subjects are
+ * resolved to their groups through {@link GroupClosureCache}
+ */
+public class PolicyDelta {
+
+    private final long version;
+    private final PolicyChangeEvent.Type type;
+    private final String id;
+    private final Role role;
+    private final RoleBinding roleBinding;
+
+    private PolicyDelta(long version, PolicyChangeEvent.Type type, String id, Role role, RoleBinding roleBinding) {
+        this.version = version;
+        this.type = type;
+        this.id = id;
+        this.role = role;
+        this.roleBinding = roleBinding;
+    }
+
+    /**
+     * @param role the role as of this version, null if it has been deleted
+     */
+    public static PolicyDelta role(long version, String roleId, Role role) {
+        return new PolicyDelta(version, PolicyChangeEvent.Type.ROLE, roleId, role, null);
+    }
+
+    /**
+     * @param roleBinding the role-binding as of this version, null if it has been deleted
+     */
+    public static PolicyDelta roleBinding(long version, String bindingId, RoleBinding roleBinding) {
+        return new PolicyDelta(version, PolicyChangeEvent.Type.ROLE_BINDING, bindingId, null, roleBinding);
+    }
+
+    public static PolicyDelta groupMembership(long version, String groupId) {
+        return new PolicyDelta(version, PolicyChangeEvent.Type.GROUP_MEMBERSHIP, groupId, null, null);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public PolicyChangeEvent.Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public RoleBinding getRoleBinding() {
+        return roleBinding;
+    }
+}
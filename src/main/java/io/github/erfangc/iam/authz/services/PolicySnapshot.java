@@ -0,0 +1,235 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+
+/**
+ * {@link PolicySnapshot} is an immutable copy of the entire RBAC state at a given policy version: every role (compiled), every
+ * role-binding and, for every principal, the {@link EffectivePermissions} derived from them. Making a decision against a snapshot
+ * is a single map lookup
+ * <p>
+ * Snapshots are never mutated, {@link #apply(List)} returns a new snapshot that shares nothing mutable with this one, so readers
+ * can hold on to a snapshot without any locking while a newer one is being built
+ */
+public class PolicySnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicySnapshot.class);
+    private static final EffectivePermissions NO_PERMISSIONS = new EffectivePermissions(emptyList(), emptySet(), emptySet());
+
+    private final long version;
+    private final CompiledRoles compiledRoles;
+    private final Map<String, CompiledRole> roles;
+    private final Map<String, RoleBinding> roleBindings;
+    private final Map<String, Set<String>> bindingIdsByPrincipal;
+    private final Map<String, Set<String>> bindingIdsByRole;
+    private final Map<String, EffectivePermissions> effectivePermissions;
+
+    private PolicySnapshot(long version,
+                           CompiledRoles compiledRoles,
+                           Map<String, CompiledRole> roles,
+                           Map<String, RoleBinding> roleBindings,
+                           Map<String, Set<String>> bindingIdsByPrincipal,
+                           Map<String, Set<String>> bindingIdsByRole,
+                           Map<String, EffectivePermissions> effectivePermissions) {
+        this.version = version;
+        this.compiledRoles = compiledRoles;
+        this.roles = roles;
+        this.roleBindings = roleBindings;
+        this.bindingIdsByPrincipal = bindingIdsByPrincipal;
+        this.bindingIdsByRole = bindingIdsByRole;
+        this.effectivePermissions = effectivePermissions;
+    }
+
+    public static PolicySnapshot empty() {
+        return of(0, emptyList(), emptyList());
+    }
+
+    public static PolicySnapshot of(long version, Collection<Role> roles, Collection<RoleBinding> roleBindings) {
+        return of(version, roles, roleBindings, new CompiledRoles());
+    }
+
+    /**
+     * @param compiledRoles compiles the roles of this snapshot and of those derived from it
+     */
+    public static PolicySnapshot of(long version, Collection<Role> roles, Collection<RoleBinding> roleBindings, CompiledRoles compiledRoles) {
+        final List<PolicyDelta> deltas = new ArrayList<>();
+        for (Role role : roles) {
+            deltas.add(PolicyDelta.role(version, role.getId(), role));
+        }
+        for (RoleBinding roleBinding : roleBindings) {
+            deltas.add(PolicyDelta.roleBinding(version, roleBinding.getId(), roleBinding));
+        }
+        return new PolicySnapshot(0, compiledRoles, emptyMap(), emptyMap(), emptyMap(), emptyMap(), emptyMap()).apply(deltas, version);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int roleCount() {
+        return roles.size();
+    }
+
+    public int roleBindingCount() {
+        return roleBindings.size();
+    }
+
+    /**
+     * @return the permissions of the given principal, never null
+     */
+    public EffectivePermissions effectivePermissions(String principalType, String principalId) {
+        final EffectivePermissions ret = effectivePermissions.get(principalType + ":" + principalId);
+        return ret == null ? NO_PERMISSIONS : ret;
+    }
+
+    /**
+     * Applies the given deltas, in order, on top of a copy of this snapshot. Deltas must be contiguous and start right after
+     * {@link #getVersion()}, deltas at or below it are ignored
+     *
+     * @throws IllegalStateException if a version is missing, in which case the snapshot has to be reloaded from scratch
+     */
+    public PolicySnapshot apply(List<PolicyDelta> deltas) {
+        long expected = version + 1;
+        final List<PolicyDelta> pending = new ArrayList<>(deltas.size());
+        for (PolicyDelta delta : deltas) {
+            if (delta.getVersion() < expected) {
+                continue;
+            }
+            if (delta.getVersion() > expected) {
+                throw new IllegalStateException("policy log is missing version " + expected + " next available version is " + delta.getVersion());
+            }
+            pending.add(delta);
+            expected++;
+        }
+        return pending.isEmpty() ? this : apply(pending, expected - 1);
+    }
+
+    private PolicySnapshot apply(List<PolicyDelta> deltas, long newVersion) {
+        final Map<String, CompiledRole> roles = new HashMap<>(this.roles);
+        final Map<String, RoleBinding> roleBindings = new HashMap<>(this.roleBindings);
+        final Map<String, Set<String>> bindingIdsByPrincipal = new HashMap<>(this.bindingIdsByPrincipal);
+        final Map<String, Set<String>> bindingIdsByRole = new HashMap<>(this.bindingIdsByRole);
+        //
+        // inner sets are shared with this snapshot until they are first modified, copied ones are remembered here
+        //
+        final Set<Set<String>> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<String> dirtyPrincipals = new HashSet<>();
+        final Set<String> dirtyRoles = new HashSet<>();
+        for (PolicyDelta delta : deltas) {
+            if (delta.getType() == PolicyChangeEvent.Type.GROUP_MEMBERSHIP) {
+                continue;
+            }
+            if (delta.getType() == PolicyChangeEvent.Type.ROLE) {
+                final Role role = delta.getRole();
+                if (role == null) {
+                    roles.remove(delta.getId());
+                } else {
+                    try {
+                        roles.put(delta.getId(), compiledRoles.compile(role));
+                    } catch (IllegalArgumentException e) {
+                        logger.error("Role cannot be compiled, treating it as missing roleId={} error={}", delta.getId(), e.getMessage());
+                        roles.remove(delta.getId());
+                    }
+                }
+                dirtyRoles.add(delta.getId());
+            } else {
+                final RoleBinding previous = delta.getRoleBinding() == null
+                        ? roleBindings.remove(delta.getId())
+                        : roleBindings.put(delta.getId(), delta.getRoleBinding());
+                if (previous != null) {
+                    final String principal = principal(previous);
+                    removeFromIndex(bindingIdsByPrincipal, principal, delta.getId(), copied);
+                    removeFromIndex(bindingIdsByRole, previous.getRoleId(), delta.getId(), copied);
+                    dirtyPrincipals.add(principal);
+                }
+                final RoleBinding current = delta.getRoleBinding();
+                if (current != null) {
+                    final String principal = principal(current);
+                    addToIndex(bindingIdsByPrincipal, principal, delta.getId(), copied);
+                    addToIndex(bindingIdsByRole, current.getRoleId(), delta.getId(), copied);
+                    dirtyPrincipals.add(principal);
+                }
+            }
+        }
+        for (String roleId : dirtyRoles) {
+            for (String bindingId : bindingIdsByRole.getOrDefault(roleId, emptySet())) {
+                dirtyPrincipals.add(principal(roleBindings.get(bindingId)));
+            }
+        }
+        final Map<String, EffectivePermissions> effectivePermissions = new HashMap<>(this.effectivePermissions);
+        for (String principal : dirtyPrincipals) {
+            final Set<String> bindingIds = bindingIdsByPrincipal.get(principal);
+            if (bindingIds == null) {
+                effectivePermissions.remove(principal);
+                continue;
+            }
+            final Set<String> roleIds = new LinkedHashSet<>();
+            final List<CompiledRole> compiledRoles = new ArrayList<>();
+            for (String bindingId : bindingIds) {
+                final String roleId = roleBindings.get(bindingId).getRoleId();
+                final CompiledRole role = roles.get(roleId);
+                if (roleIds.add(roleId) && role != null) {
+                    compiledRoles.add(role);
+                }
+            }
+            effectivePermissions.put(principal, new EffectivePermissions(compiledRoles, roleIds, singleton(principal)));
+        }
+        return new PolicySnapshot(newVersion, compiledRoles, roles, roleBindings, bindingIdsByPrincipal, bindingIdsByRole, effectivePermissions);
+    }
+
+    private static String principal(RoleBinding roleBinding) {
+        return roleBinding.getPrincipalType() + ":" + roleBinding.getPrincipalId();
+    }
+
+    private static void addToIndex(Map<String, Set<String>> index, String key, String bindingId, Set<Set<String>> copied) {
+        Set<String> bindingIds = index.get(key);
+        if (bindingIds == null) {
+            bindingIds = new LinkedHashSet<>();
+            copied.add(bindingIds);
+            index.put(key, bindingIds);
+        } else if (!copied.contains(bindingIds)) {
+            bindingIds = new LinkedHashSet<>(bindingIds);
+            copied.add(bindingIds);
+            index.put(key, bindingIds);
+        }
+        bindingIds.add(bindingId);
+    }
+
+    private static void removeFromIndex(Map<String, Set<String>> index, String key, String bindingId, Set<Set<String>> copied) {
+        Set<String> bindingIds = index.get(key);
+        if (bindingIds == null || !bindingIds.contains(bindingId)) {
+            return;
+        }
+        if (bindingIds.size() == 1) {
+            index.remove(key);
+            return;
+        }
+        if (!copied.contains(bindingIds)) {
+            bindingIds = new LinkedHashSet<>(bindingIds);
+            copied.add(bindingIds);
+            index.put(key, bindingIds);
+        }
+        bindingIds.remove(bindingId);
+    }
+
+    private static <K, V> Map<K, V> emptyMap() {
+        return new HashMap<>();
+    }
+}
@@ -0,0 +1,192 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import io.lettuce.core.KeyValue;
+import io.lettuce.core.Limit;
+import io.lettuce.core.Range;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisException;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanIterator;
+import io.lettuce.core.StreamMessage;
+import io.lettuce.core.XReadArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_LOG_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_VERSION_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.ROLE_NS;
+import static io.github.erfangc.iam.authz.services.Namespaces.SUB_ROLE_MAPPING_NS;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleBindingKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleKey;
+
+/**
+ * {@link PolicySnapshotStore} holds the current {@link PolicySnapshot} behind a single volatile reference, readers never lock
+ * <p>
+ * On start the entire RBAC state is loaded from Redis, after that a background thread tails the policy log stream written by
+ * {@link PolicyChangePublisher} and swaps in a new snapshot for every batch of {@link PolicyDelta}(s). If the log has been trimmed
+ * past our position (a version is missing) the snapshot is reloaded from scratch
+ * <p>
+ * Decisions made against the snapshot lag behind writes by however long it takes the log to be read, usually a few milliseconds.
+ * Redis Streams, and therefore Redis 5 or later, is required
+ */
+public class PolicySnapshotStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicySnapshotStore.class);
+    private static final long BLOCK_MILLIS = 1000;
+    private static final long READ_COUNT = 1000;
+    private static final long RETRY_MILLIS = 1000;
+
+    private final StatefulRedisConnection<String, String> conn;
+    private final CompiledRoles compiledRoles;
+    private final Thread reader;
+    private volatile PolicySnapshot snapshot;
+    private volatile boolean running = true;
+    private String lastId;
+
+    public PolicySnapshotStore(RedisClient redisClient) {
+        this(redisClient, new CompiledRoles());
+    }
+
+    public PolicySnapshotStore(RedisClient redisClient, CompiledRoles compiledRoles) {
+        this.compiledRoles = compiledRoles;
+        //
+        // a dedicated connection, XREAD BLOCK would otherwise hold up every other command
+        //
+        conn = redisClient.connect();
+        reload();
+        reader = new Thread(this::tail, "policy-snapshot-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public PolicySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private void reload() {
+        final RedisCommands<String, String> sync = conn.sync();
+        //
+        // position ourselves in the log before reading the state, any delta written in between is replayed on top of the
+        // loaded state which is harmless since every delta carries the full value of what changed
+        //
+        final List<StreamMessage<String, String>> last = sync.xrevrange(POLICY_LOG_KEY, Range.create("-", "+"), Limit.create(0, 1));
+        final long version;
+        if (last.isEmpty()) {
+            final String currentVersion = sync.get(POLICY_VERSION_KEY);
+            version = currentVersion == null ? 0 : Long.parseLong(currentVersion);
+            lastId = "0-0";
+        } else {
+            version = Long.parseLong(last.get(0).getBody().get("version"));
+            lastId = last.get(0).getId();
+        }
+        final List<Role> roles = new ArrayList<>();
+        final Set<String> roleKeys = sync.smembers(ROLE_NS);
+        if (!roleKeys.isEmpty()) {
+            //
+            // decisions are made against the flattened form of each role
+            //
+            final String[] flatRoleKeys = roleKeys.stream().map(pk -> flatRoleKey(pk.substring(roleKey("").length()))).toArray(String[]::new);
+            for (KeyValue<String, String> role : sync.mget(flatRoleKeys)) {
+                if (role.hasValue()) {
+                    roles.add(readValue(role.getValue(), Role.class));
+                }
+            }
+        }
+        final Set<String> bindingKeys = new HashSet<>();
+        final ScanIterator<String> principals = ScanIterator.scan(sync, ScanArgs.Builder.matches(SUB_ROLE_MAPPING_NS + "*").limit(READ_COUNT));
+        while (principals.hasNext()) {
+            for (String bindingId : sync.smembers(principals.next())) {
+                bindingKeys.add(roleBindingKey(bindingId));
+            }
+        }
+        final List<RoleBinding> roleBindings = new ArrayList<>();
+        if (!bindingKeys.isEmpty()) {
+            for (KeyValue<String, String> roleBinding : sync.mget(bindingKeys.toArray(new String[0]))) {
+                if (roleBinding.hasValue()) {
+                    roleBindings.add(readValue(roleBinding.getValue(), RoleBinding.class));
+                }
+            }
+        }
+        snapshot = PolicySnapshot.of(version, roles, roleBindings, compiledRoles);
+        logger.info("Loaded policy snapshot version={} roles={} roleBindings={}", version, snapshot.roleCount(), snapshot.roleBindingCount());
+    }
+
+    private void tail() {
+        final RedisCommands<String, String> sync = conn.sync();
+        while (running) {
+            try {
+                final List<StreamMessage<String, String>> messages = sync.xread(
+                        XReadArgs.Builder.block(BLOCK_MILLIS).count(READ_COUNT),
+                        XReadArgs.StreamOffset.from(POLICY_LOG_KEY, lastId)
+                );
+                if (messages.isEmpty()) {
+                    continue;
+                }
+                final List<PolicyDelta> deltas = new ArrayList<>(messages.size());
+                for (StreamMessage<String, String> message : messages) {
+                    deltas.add(toDelta(message.getBody()));
+                }
+                try {
+                    snapshot = snapshot.apply(deltas);
+                    lastId = messages.get(messages.size() - 1).getId();
+                } catch (IllegalStateException e) {
+                    logger.warn("Reloading policy snapshot error={}", e.getMessage());
+                    reload();
+                }
+            } catch (RedisException | UncheckedIOException e) {
+                if (!running) {
+                    return;
+                }
+                logger.error("Cannot read policy log, retrying in {}ms error={}", RETRY_MILLIS, e.getMessage());
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    static PolicyDelta toDelta(Map<String, String> body) {
+        final long version = Long.parseLong(body.get("version"));
+        final String id = body.get("id");
+        final String value = body.get("value");
+        final PolicyChangeEvent.Type type = PolicyChangeEvent.Type.valueOf(body.get("type"));
+        if (type == PolicyChangeEvent.Type.ROLE) {
+            return PolicyDelta.role(version, id, value == null ? null : readValue(value, Role.class));
+        }
+        if (type == PolicyChangeEvent.Type.GROUP_MEMBERSHIP) {
+            return PolicyDelta.groupMembership(version, id);
+        }
+        return PolicyDelta.roleBinding(version, id, value == null ? null : readValue(value, RoleBinding.class));
+    }
+
+    private static <T> T readValue(String json, Class<T> valueType) {
+        try {
+            return objectMapper.readValue(json, valueType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        reader.interrupt();
+        conn.close();
+    }
+}
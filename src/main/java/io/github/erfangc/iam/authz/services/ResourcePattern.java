@@ -0,0 +1,131 @@
+package io.github.erfangc.iam.authz.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link ResourcePattern} is the compiled form of a {@link io.github.erfangc.iam.authz.models.Policy} resource expression. Expressions
+ * are split on <code>/</code> into segments, each segment is one of:
+ * <ul>
+ *     <li><code>*</code> matches one or more path segments (which may be empty), i.e. <code>/inventories/*</code> matches
+ *     <code>/inventories/</code>, <code>/inventories/a</code> and <code>/inventories/a/b</code> but not <code>/inventories</code></li>
+ *     <li><code>**</code> matches zero or more path segments, i.e. <code>/inventories/**</code> also matches <code>/inventories</code></li>
+ *     <li>anything else must equal the path segment exactly</li>
+ * </ul>
+ * The <code>*</code> semantics are the ones of the regular expression this class replaces (<code>*</code> became <code>.*</code>)
+ * <p>
+ * Compilation happens once per policy, {@link #matches(String)} walks the path segments in place and does not allocate
+ */
+public class ResourcePattern {
+
+    private static final int LITERAL = 0;
+    private static final int ANY_SEGMENT = 1;
+    private static final int ANY_SEGMENTS = 2;
+
+    private final String expression;
+    private final int[] kinds;
+    private final String[] literals;
+
+    private ResourcePattern(String expression, int[] kinds, String[] literals) {
+        this.expression = expression;
+        this.kinds = kinds;
+        this.literals = literals;
+    }
+
+    public static ResourcePattern compile(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("resource expression cannot be null");
+        }
+        //
+        // trailing empty segments are dropped, so /inventories/ behaves like /inventories (as String.split did before)
+        //
+        String[] segments = expression.split("/");
+        if (segments.length == 0) {
+            segments = new String[]{""};
+        }
+        final List<Integer> kinds = new ArrayList<>();
+        final List<String> literals = new ArrayList<>();
+        for (String segment : segments) {
+            if (segment.equals("*")) {
+                //
+                // one arbitrary segment followed by any number of segments
+                //
+                kinds.add(ANY_SEGMENT);
+                literals.add(null);
+                kinds.add(ANY_SEGMENTS);
+                literals.add(null);
+            } else if (segment.equals("**")) {
+                kinds.add(ANY_SEGMENTS);
+                literals.add(null);
+            } else {
+                kinds.add(LITERAL);
+                literals.add(segment);
+            }
+        }
+        final int[] kindArray = new int[kinds.size()];
+        for (int i = 0; i < kindArray.length; i++) {
+            kindArray[i] = kinds.get(i);
+        }
+        return new ResourcePattern(expression, kindArray, literals.toArray(new String[0]));
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Glob matching over path segments. When a token does not match we backtrack to the most recent multi-segment wildcard and
+     * let it swallow one more segment, which is sufficient since any later wildcard can absorb whatever an earlier one could
+     */
+    public boolean matches(String resource) {
+        if (resource == null) {
+            return false;
+        }
+        final int length = resource.length();
+        int token = 0;
+        int position = 0;
+        int wildcardToken = -1;
+        int wildcardPosition = -1;
+        //
+        // position is the start of the current path segment, length + 1 signals that every segment has been consumed
+        //
+        while (position <= length) {
+            if (token < kinds.length && kinds[token] == ANY_SEGMENTS) {
+                wildcardToken = token++;
+                wildcardPosition = position;
+            } else if (token < kinds.length && (kinds[token] == ANY_SEGMENT || segmentEquals(resource, position, literals[token]))) {
+                token++;
+                position = nextSegment(resource, position);
+            } else if (wildcardToken >= 0) {
+                token = wildcardToken + 1;
+                wildcardPosition = nextSegment(resource, wildcardPosition);
+                position = wildcardPosition;
+            } else {
+                return false;
+            }
+        }
+        while (token < kinds.length && kinds[token] == ANY_SEGMENTS) {
+            token++;
+        }
+        return token == kinds.length;
+    }
+
+    private static int segmentEnd(String resource, int position) {
+        final int end = resource.indexOf('/', position);
+        return end < 0 ? resource.length() : end;
+    }
+
+    private static int nextSegment(String resource, int position) {
+        return segmentEnd(resource, position) + 1;
+    }
+
+    private static boolean segmentEquals(String resource, int position, String literal) {
+        final int end = segmentEnd(resource, position);
+        return end - position == literal.length() && resource.regionMatches(position, literal, 0, literal.length());
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -23,9 +23,11 @@ import static io.github.erfangc.iam.authz.services.Namespaces.*;
 public class RoleBindingsService {
     private static final Logger logger = LoggerFactory.getLogger(RoleBindingsService.class);
     private StatefulRedisConnection<String, String> conn;
+    private PolicyChangePublisher policyChangePublisher;
 
-    public RoleBindingsService(RedisClient redisClient) {
+    public RoleBindingsService(RedisClient redisClient, PolicyChangePublisher policyChangePublisher) {
         conn = redisClient.connect();
+        this.policyChangePublisher = policyChangePublisher;
     }
 
     public GetRoleBindingsResponse getRoleBindings(String roleId) {
@@ -83,7 +85,13 @@ public class RoleBindingsService {
                 sync.set(pk, objectMapper.writeValueAsString(roleBinding));
                 sync.srem(subBindingsKey(existing.getPrincipalType(), existing.getPrincipalId()), existing.getId());
                 sync.sadd(subBindingsKey(roleBinding.getPrincipalType(), roleBinding.getPrincipalId()), roleBinding.getId());
+                //
+                // keep the role's set of bindings current too, role changes are fanned out to the principals found through it
+                //
+                sync.srem(roleBindingsKey(existing.getRoleId()), id);
+                sync.sadd(roleBindingsKey(roleId), id);
                 sync.exec();
+                policyChangePublisher.roleBindingChanged(existing);
             } catch (Exception e) {
                 throw new ApiException(e)
                         .setHttpStatus(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -105,6 +113,7 @@ public class RoleBindingsService {
             }
             ret.setMessage("Created");
         }
+        policyChangePublisher.roleBindingChanged(roleBinding);
         return ret;
     }
 
@@ -138,6 +147,7 @@ public class RoleBindingsService {
             sync.srem(roleBindingsKey(roleId), id);
             sync.del(pk);
             sync.exec();
+            policyChangePublisher.roleBindingChanged(roleBinding);
             return new DeleteRoleBindingResponse()
                     .setTimestamp(Instant.now().toString())
                     .setMessage("Deleted");
@@ -0,0 +1,95 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * {@link RoleHierarchy} resolves the <code>inherits</code> of a {@link Role} against the definitions of other roles
+ * <p>
+ * A role's flattened form carries its own policies followed by those of every role it inherits from, directly or transitively,
+ * depth first in declaration order with duplicates removed. {@link RolesService} stores it under {@link Namespaces#flatRoleKey(String)}
+ * whenever any role in the chain changes, which is the only form of a role decisions are made against
+ */
+public class RoleHierarchy {
+
+    private RoleHierarchy() {
+    }
+
+    /**
+     * @param definitions looks up the role as defined by its author, returns null if it does not exist
+     * @return the inheritance path from the given role back to itself, i.e. [a, b, a], or null if inheriting from its parents
+     * does not create a cycle
+     */
+    public static List<String> findCycle(Role role, Function<String, Role> definitions) {
+        final List<String> path = new ArrayList<>();
+        path.add(role.getId());
+        return findCycle(role.getId(), role.getInherits(), definitions, path, new HashSet<>());
+    }
+
+    private static List<String> findCycle(String target,
+                                          List<String> parents,
+                                          Function<String, Role> definitions,
+                                          List<String> path,
+                                          Set<String> visited) {
+        if (parents == null) {
+            return null;
+        }
+        for (String parent : parents) {
+            path.add(parent);
+            if (parent.equals(target)) {
+                return path;
+            }
+            if (visited.add(parent)) {
+                final Role definition = definitions.apply(parent);
+                final List<String> cycle = definition == null ? null : findCycle(target, definition.getInherits(), definitions, path, visited);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+            path.remove(path.size() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param definitions looks up the role as defined by its author, returns null if it does not exist
+     * @return the flattened role, without inherits, or null if the role itself does not exist. Roles that are inherited from
+     * but do not exist contribute nothing, a cycle that made it into Redis regardless is cut where it closes
+     */
+    public static Role flatten(String roleId, Function<String, Role> definitions) {
+        final Role role = definitions.apply(roleId);
+        if (role == null) {
+            return null;
+        }
+        final Map<String, Policy> policies = new LinkedHashMap<>();
+        collect(role, definitions, policies, new HashSet<>());
+        return new Role().setId(roleId).setPolicies(new ArrayList<>(policies.values()));
+    }
+
+    private static void collect(Role role, Function<String, Role> definitions, Map<String, Policy> policies, Set<String> visited) {
+        if (!visited.add(role.getId())) {
+            return;
+        }
+        if (role.getPolicies() != null) {
+            for (Policy policy : role.getPolicies()) {
+                policies.putIfAbsent(policy.getResource() + " " + policy.getActions(), policy);
+            }
+        }
+        if (role.getInherits() != null) {
+            for (String parentId : role.getInherits()) {
+                final Role parent = definitions.apply(parentId);
+                if (parent != null) {
+                    collect(parent, definitions, policies, visited);
+                }
+            }
+        }
+    }
+}
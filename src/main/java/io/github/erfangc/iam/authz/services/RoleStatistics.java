@@ -0,0 +1,67 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link RoleStatistics} counts, per role id, how often a role's policies were evaluated against a request and how many of them were
+ * tried before one allowed it, which shows how well {@link AdaptiveOrder} has sorted the role's policies. Shared by every
+ * {@link CompiledRole} compiled from the same role through {@link CompiledRoles}, reported on <code>/actuator/policyorder</code>
+ * <p>
+ * A role's counters are dropped by {@link RolesService} when the role is deleted
+ */
+@Component
+public class RoleStatistics {
+
+    private final Map<String, Counters> statistics = new ConcurrentHashMap<>();
+
+    Counters forRole(String roleId) {
+        return statistics.computeIfAbsent(roleId == null ? "" : roleId, k -> new Counters());
+    }
+
+    public void remove(String roleId) {
+        statistics.remove(roleId);
+    }
+
+    /**
+     * @return for every role evaluated since startup, by role id: allows, misses and policiesEvaluatedPerAllow
+     */
+    public Map<String, Map<String, Object>> report() {
+        final Map<String, Map<String, Object>> report = new TreeMap<>();
+        statistics.forEach((roleId, counters) -> {
+            final long allows = counters.allows.sum();
+            final Map<String, Object> entry = new TreeMap<>();
+            entry.put("allows", allows);
+            entry.put("misses", counters.misses.sum());
+            entry.put("policiesEvaluatedPerAllow", allows == 0 ? 0.0 : (double) counters.policiesEvaluatedOnAllow.sum() / allows);
+            report.put(roleId, entry);
+        });
+        return report;
+    }
+
+    /**
+     * The counters of a single role, those of a role compiled outside of {@link CompiledRoles} are not reported
+     */
+    static final class Counters {
+
+        private final LongAdder allows = new LongAdder();
+        private final LongAdder policiesEvaluatedOnAllow = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * @param evaluated the policies tried up to and including the one that allowed the request
+         */
+        void allowed(int evaluated) {
+            allows.increment();
+            policiesEvaluatedOnAllow.add(evaluated);
+        }
+
+        void missed() {
+            misses.increment();
+        }
+    }
+}
@@ -3,31 +3,85 @@ package io.github.erfangc.iam.authz.services;
 import io.github.erfangc.iam.ApiException;
 import io.github.erfangc.iam.authz.models.*;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.sync.RedisCommands;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static io.github.erfangc.iam.Utilities.objectMapper;
 import static io.github.erfangc.iam.authz.services.Namespaces.ROLE_NS;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleInheritorsKey;
 import static io.github.erfangc.iam.authz.services.Namespaces.roleKey;
 
+/**
+ * {@link RolesService} stores roles as defined by their authors under {@link Namespaces#roleKey(String)}, along with their
+ * flattened form (see {@link RoleHierarchy}) under {@link Namespaces#flatRoleKey(String)}. For every role, the ids of the roles
+ * that inherit from it directly are kept under {@link Namespaces#roleInheritorsKey(String)}, so a change can be propagated to
+ * the flattened form of every role below it before it is announced
+ * <p>
+ * A flattened role is only written if none of the definitions it was flattened from changed since they were read, and is
+ * flattened again otherwise, so concurrent edits of a role and of the roles it inherits from never leave a stale flattened role
+ */
 @Service
 public class RolesService {
 
     private static final Logger logger = LoggerFactory.getLogger(RolesService.class);
+    private final LuaScript writeFlattenedScript = new LuaScript("lua/write-flattened-role.lua");
     private StatefulRedisConnection<String, String> conn;
+    private PolicyChangePublisher policyChangePublisher;
+    /**
+     * Forgets the evaluations of deleted roles, null when they are not tracked
+     */
+    private RoleStatistics roleStatistics;
 
-    public RolesService(RedisClient redisClient) {
+    public RolesService(RedisClient redisClient, PolicyChangePublisher policyChangePublisher) {
+        this(redisClient, policyChangePublisher, null);
+    }
+
+    @Autowired
+    public RolesService(RedisClient redisClient, PolicyChangePublisher policyChangePublisher, RoleStatistics roleStatistics) {
         conn = redisClient.connect();
+        this.policyChangePublisher = policyChangePublisher;
+        this.roleStatistics = roleStatistics;
+        flattenMissingRoles();
+    }
+
+    /**
+     * Roles created before inheritance was introduced have no flattened form, decisions would not see them otherwise. Each one
+     * flattened is announced as changed, so instances already serving decisions stop relying on it being absent
+     */
+    private void flattenMissingRoles() {
+        final RedisCommands<String, String> sync = conn.sync();
+        final Definitions definitions = new Definitions();
+        int flattened = 0;
+        for (String pk : sync.smembers(ROLE_NS)) {
+            final String roleId = pk.substring(roleKey("").length());
+            if (sync.exists(flatRoleKey(roleId)) == 0) {
+                writeFlattened(sync, roleId, definitions);
+                policyChangePublisher.roleChanged(roleId);
+                flattened++;
+            }
+        }
+        if (flattened > 0) {
+            logger.info("Flattened {} role(s) that had no flattened form", flattened);
+        }
     }
 
     public GetAllRolesResponse getRoles() {
@@ -56,25 +110,158 @@ public class RolesService {
                     .setHttpStatus(HttpStatus.BAD_REQUEST)
                     .setMessage("id is required");
         }
+        try {
+            CompiledRole.compile(role);
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(e)
+                    .setHttpStatus(HttpStatus.BAD_REQUEST)
+                    .setMessage("Role " + id + " has an invalid policy: " + e.getMessage());
+        }
+        if (role.getInherits() != null && role.getInherits().contains(null)) {
+            throw new ApiException()
+                    .setHttpStatus(HttpStatus.BAD_REQUEST)
+                    .setMessage("Role " + id + " cannot inherit from a null roleId");
+        }
+        final Definitions definitions = new Definitions();
+        final List<String> cycle = RoleHierarchy.findCycle(role, parentId -> definition(sync, parentId, definitions));
+        if (cycle != null) {
+            throw new ApiException()
+                    .setHttpStatus(HttpStatus.BAD_REQUEST)
+                    .setMessage("Role " + id + " cannot inherit from " + cycle.get(1) + ", it would create the cycle " + String.join(" -> ", cycle));
+        }
         final String pk = roleKey(id);
-        if (sync.exists(pk) == 0) {
+        final Role existing = definition(sync, id, definitions);
+        if (existing == null) {
             ret.setMessage("Created");
         } else {
             ret.setMessage("Updated");
         }
+        final Set<String> removedParents = new LinkedHashSet<>(parents(existing));
+        removedParents.removeAll(parents(role));
+        final String json;
         try {
-            final String json = objectMapper.writeValueAsString(role);
+            json = objectMapper.writeValueAsString(role);
             sync.multi();
             sync.set(pk, json);
             sync.sadd(ROLE_NS, pk);
+            for (String parentId : removedParents) {
+                sync.srem(roleInheritorsKey(parentId), id);
+            }
+            for (String parentId : parents(role)) {
+                sync.sadd(roleInheritorsKey(parentId), id);
+            }
             sync.exec();
         } catch (IOException e) {
             throw new ApiException(e).setHttpStatus(HttpStatus.INTERNAL_SERVER_ERROR);
         }
+        definitions.put(id, role, json);
+        propagate(sync, id, definitions);
         ret.setTimestamp(Instant.now().toString());
         return ret;
     }
 
+    private static List<String> parents(Role role) {
+        return role == null || role.getInherits() == null ? Collections.emptyList() : role.getInherits();
+    }
+
+    /**
+     * Rebuilds the flattened form of the given role and of every role that inherits from it, directly or not, then announces
+     * each of them as changed so subjects bound to any of them are re-evaluated
+     */
+    private void propagate(RedisCommands<String, String> sync, String roleId, Definitions definitions) {
+        final Set<String> affected = new LinkedHashSet<>();
+        final Deque<String> queue = new ArrayDeque<>();
+        queue.add(roleId);
+        while (!queue.isEmpty()) {
+            final String next = queue.poll();
+            if (affected.add(next)) {
+                queue.addAll(sync.smembers(roleInheritorsKey(next)));
+            }
+        }
+        for (String affectedRoleId : affected) {
+            writeFlattened(sync, affectedRoleId, definitions);
+        }
+        for (String affectedRoleId : affected) {
+            policyChangePublisher.roleChanged(affectedRoleId);
+        }
+    }
+
+    private void writeFlattened(RedisCommands<String, String> sync, String roleId, Definitions definitions) {
+        while (true) {
+            final Set<String> read = new LinkedHashSet<>();
+            final Role flattened = RoleHierarchy.flatten(roleId, parentId -> {
+                read.add(parentId);
+                return definition(sync, parentId, definitions);
+            });
+            final String[] keys = new String[read.size() + 1];
+            final String[] args = new String[read.size() + 1];
+            keys[0] = flatRoleKey(roleId);
+            try {
+                args[0] = flattened == null ? "" : objectMapper.writeValueAsString(flattened);
+            } catch (IOException e) {
+                throw new ApiException(e).setHttpStatus(HttpStatus.INTERNAL_SERVER_ERROR);
+            }
+            int i = 1;
+            for (String readRoleId : read) {
+                final String json = definitions.json.get(readRoleId);
+                keys[i] = roleKey(readRoleId);
+                args[i] = json == null ? "" : json;
+                i++;
+            }
+            final Long written = writeFlattenedScript.execute(sync, ScriptOutputType.INTEGER, keys, args);
+            if (written == 1) {
+                return;
+            }
+            //
+            // one of the definitions was changed by a concurrent write since it was read, read them again and retry
+            //
+            logger.info("Flattening roleId={} again, a role it inherits from changed concurrently", roleId);
+            for (String readRoleId : read) {
+                definitions.forget(readRoleId);
+            }
+        }
+    }
+
+    /**
+     * Reads a role as defined by its author, memoized in definitions for the duration of a single write
+     */
+    private Role definition(RedisCommands<String, String> sync, String roleId, Definitions definitions) {
+        if (definitions.roles.containsKey(roleId)) {
+            return definitions.roles.get(roleId);
+        }
+        final String json = sync.get(roleKey(roleId));
+        Role role = null;
+        if (json != null) {
+            try {
+                role = objectMapper.readValue(json, Role.class);
+            } catch (IOException e) {
+                logger.error("Cannot deserialize role id={}", roleId);
+            }
+        }
+        definitions.put(roleId, role, json);
+        return role;
+    }
+
+    /**
+     * The roles read during a single write, along with the JSON each was read from so the flattened roles written from them can be
+     * checked against what Redis holds at the time of writing
+     */
+    private static final class Definitions {
+
+        private final Map<String, Role> roles = new HashMap<>();
+        private final Map<String, String> json = new HashMap<>();
+
+        private void put(String roleId, Role role, String roleJson) {
+            roles.put(roleId, role);
+            json.put(roleId, roleJson);
+        }
+
+        private void forget(String roleId) {
+            roles.remove(roleId);
+            json.remove(roleId);
+        }
+    }
+
     public GetRoleResponse getRole(String id) {
         final RedisCommands<String, String> sync = conn.sync();
         final String pk = roleKey(id);
@@ -97,8 +284,23 @@ public class RolesService {
         if (sync.exists(pk) == 0) {
             throw roleNotFound(id);
         }
+        final Definitions definitions = new Definitions();
+        final Role existing = definition(sync, id, definitions);
+        sync.multi();
         sync.del(pk);
         sync.srem(ROLE_NS, pk);
+        for (String parentId : parents(existing)) {
+            sync.srem(roleInheritorsKey(parentId), id);
+        }
+        sync.exec();
+        //
+        // roles that inherit from this one keep doing so, and get its policies back should it be re-created
+        //
+        definitions.put(id, null, null);
+        propagate(sync, id, definitions);
+        if (roleStatistics != null) {
+            roleStatistics.remove(id);
+        }
         ret.setMessage("Deleted");
         return ret;
     }
@@ -0,0 +1,184 @@
+package io.github.erfangc.iam.authz.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link SpaceSaving} finds the most frequent keys of a stream in fixed memory, after Metwally et al.'s Space-Saving algorithm
+ * <p>
+ * At most capacity keys are counted. Once all counters are taken a new key replaces the least frequent one and inherits its
+ * count, which is remembered as the new key's error. Any key seen more than total / capacity times is guaranteed to be counted,
+ * and a key's true count lies between count - error and count. Counters are kept in a min-heap indexed by key, so each offer
+ * costs O(log capacity)
+ * <p>
+ * Instances are not thread safe. Sketches that each counted part of a stream, under their owner's lock, are combined with
+ * {@link #top(List, int)}
+ */
+public class SpaceSaving {
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final Counter[] heap;
+    private int size;
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        this.capacity = capacity;
+        this.heap = new Counter[capacity];
+    }
+
+    public void offer(String key) {
+        if (capacity <= 0) {
+            return;
+        }
+        total++;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count++;
+            siftDown(counter.index);
+            return;
+        }
+        if (size < capacity) {
+            counter = new Counter(key);
+            counter.index = size;
+            heap[size++] = counter;
+            counters.put(key, counter);
+            siftUp(counter.index);
+            return;
+        }
+        //
+        // take over the least frequent counter
+        //
+        counter = heap[0];
+        counters.remove(counter.key);
+        counter.key = key;
+        counter.error = counter.count;
+        counter.count++;
+        counters.put(key, counter);
+        siftDown(0);
+    }
+
+    /**
+     * @return up to limit keys, most frequent first
+     */
+    public List<HeavyHitter> top(int limit) {
+        final Counter[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+        final List<HeavyHitter> top = new ArrayList<>(Math.min(limit, size));
+        for (int i = 0; i < sorted.length && i < limit; i++) {
+            top.add(new HeavyHitter(sorted[i].key, sorted[i].count, sorted[i].error));
+        }
+        return top;
+    }
+
+    /**
+     * @return the number of keys offered, counted or not
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @return the highest count a key that is not counted can have, 0 until every counter has been taken
+     */
+    public long min() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    public SpaceSaving copy() {
+        final SpaceSaving copy = new SpaceSaving(capacity);
+        for (int i = 0; i < size; i++) {
+            final Counter counter = new Counter(heap[i].key);
+            counter.count = heap[i].count;
+            counter.error = heap[i].error;
+            counter.index = i;
+            copy.heap[i] = counter;
+            copy.counters.put(counter.key, counter);
+        }
+        copy.size = size;
+        copy.total = total;
+        return copy;
+    }
+
+    /**
+     * Combines sketches that each counted a disjoint part of one stream. A key missing from a sketch may still have been seen there up
+     * to {@link #min()} times, so that much is added to both its count and its error
+     *
+     * @return up to limit keys, most frequent first
+     */
+    public static List<HeavyHitter> top(List<SpaceSaving> sketches, int limit) {
+        final Map<String, long[]> merged = new LinkedHashMap<>();
+        for (SpaceSaving sketch : sketches) {
+            for (int i = 0; i < sketch.size; i++) {
+                merged.computeIfAbsent(sketch.heap[i].key, key -> new long[2]);
+            }
+        }
+        for (SpaceSaving sketch : sketches) {
+            final long min = sketch.min();
+            for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+                final Counter counter = sketch.counters.get(entry.getKey());
+                entry.getValue()[0] += counter == null ? min : counter.count;
+                entry.getValue()[1] += counter == null ? min : counter.error;
+            }
+        }
+        final List<HeavyHitter> top = new ArrayList<>(merged.size());
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            top.add(new HeavyHitter(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        top.sort(Comparator.comparingLong(HeavyHitter::getCount).reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    private void siftUp(int index) {
+        final Counter counter = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        final Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private static class Counter {
+        private String key;
+        private long count = 1;
+        private long error;
+        private int index;
+
+        private Counter(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.erfangc.iam.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Outcome is allowed or denied, evaluated counts the policies of the role that were tried
+ */
+@Name("io.github.erfangc.iam.AccessDecision")
+@Label("Access Decision")
+@Description("Matching a request against the policies of one role")
+class AccessDecisionEvent extends IamEvent {
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Action")
+    String action;
+
+    @Label("Role")
+    String roleId;
+
+    @Label("Policies Evaluated")
+    int evaluated;
+
+    @Override
+    void set(String sub, String resource, String action, String roleId, String outcome, int evaluated) {
+        super.set(sub, resource, action, roleId, outcome, evaluated);
+        this.resource = resource;
+        this.action = action;
+        this.roleId = roleId;
+        this.evaluated = evaluated;
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.erfangc.iam.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Outcome is allowed, denied, root or failed, evaluated counts the roles tried before the request was allowed or denied
+ */
+@Name("io.github.erfangc.iam.Authorization")
+@Label("Authorization")
+@Description("Loading a subject's roles and deciding a request against them")
+class AuthorizationEvent extends IamEvent {
+
+    @Label("Resource")
+    String resource;
+
+    @Label("Action")
+    String action;
+
+    @Label("Roles Evaluated")
+    int evaluated;
+
+    @Override
+    void set(String sub, String resource, String action, String roleId, String outcome, int evaluated) {
+        super.set(sub, resource, action, roleId, outcome, evaluated);
+        this.resource = resource;
+        this.action = action;
+        this.evaluated = evaluated;
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.erfangc.iam.jfr;
+
+/**
+ * {@link FlightEvent} is an IAM event in progress for Java Flight Recorder, so a recording shows which subject, resource and action
+ * a slow stretch of Lettuce or Jackson frames was spent on, next to GC and I/O
+ * <p>
+ * An event is begun by one of the factories and committed once the outcome is known. When the JVM has no flight recorder (JDK 8 before
+ * 8u262) or the event is not enabled in the running recording, the factories return a shared no-op and the event classes, which need
+ * <code>jdk.jfr</code>, are never loaded. The events are enabled by the default and profile settings of <code>-XX:StartFlightRecording</code>
+ */
+public abstract class FlightEvent {
+
+    private static final FlightEvent DISABLED = new FlightEvent() {
+        @Override
+        public void commit(String sub, String resource, String action, String roleId, String outcome, int evaluated) {
+        }
+    };
+    private static final boolean AVAILABLE = isAvailable();
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static FlightEvent orDisabled(FlightEvent event) {
+        return event == null ? DISABLED : event;
+    }
+
+    /**
+     * Spans {@link io.github.erfangc.iam.authn.JwtValidator#decodeAndVerify(String)}
+     */
+    public static FlightEvent jwtVerification() {
+        return AVAILABLE ? orDisabled(JfrFlightEvent.beginJwtVerification()) : DISABLED;
+    }
+
+    /**
+     * Spans an authorization decision from loading the subject's roles to matching them
+     */
+    public static FlightEvent authorization() {
+        return AVAILABLE ? orDisabled(JfrFlightEvent.beginAuthorization()) : DISABLED;
+    }
+
+    /**
+     * Spans matching the request against the policies of a single role
+     */
+    public static FlightEvent accessDecision() {
+        return AVAILABLE ? orDisabled(JfrFlightEvent.beginAccessDecision()) : DISABLED;
+    }
+
+    /**
+     * Ends the event and records it if it is long enough for the recording's threshold. Fields that do not apply to the event are ignored
+     *
+     * @param evaluated the bindings or policies that were evaluated
+     */
+    public abstract void commit(String sub, String resource, String action, String roleId, String outcome, int evaluated);
+}
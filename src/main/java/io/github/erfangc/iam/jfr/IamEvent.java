@@ -0,0 +1,25 @@
+package io.github.erfangc.iam.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The fields every IAM event carries
+ */
+@Category("IAM")
+@StackTrace(false)
+abstract class IamEvent extends Event {
+
+    @Label("Subject")
+    String sub;
+
+    @Label("Outcome")
+    String outcome;
+
+    void set(String sub, String resource, String action, String roleId, String outcome, int evaluated) {
+        this.sub = sub;
+        this.outcome = outcome;
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.erfangc.iam.jfr;
+
+/**
+ * The {@link FlightEvent} backed by a JFR event, only loaded once <code>jdk.jfr</code> is known to be available. The event classes are
+ * only referenced from here, so that {@link FlightEvent} itself loads without them
+ */
+class JfrFlightEvent extends FlightEvent {
+
+    private final IamEvent event;
+
+    private JfrFlightEvent(IamEvent event) {
+        this.event = event;
+    }
+
+    static FlightEvent beginJwtVerification() {
+        return begin(new JwtVerificationEvent());
+    }
+
+    static FlightEvent beginAuthorization() {
+        return begin(new AuthorizationEvent());
+    }
+
+    static FlightEvent beginAccessDecision() {
+        return begin(new AccessDecisionEvent());
+    }
+
+    /**
+     * @return null if the event is not enabled
+     */
+    private static FlightEvent begin(IamEvent event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return new JfrFlightEvent(event);
+    }
+
+    @Override
+    public void commit(String sub, String resource, String action, String roleId, String outcome, int evaluated) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(sub, resource, action, roleId, outcome, evaluated);
+            event.commit();
+        }
+    }
+}
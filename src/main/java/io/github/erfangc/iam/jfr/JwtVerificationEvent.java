@@ -0,0 +1,14 @@
+package io.github.erfangc.iam.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Outcome is cached, verified or rejected
+ */
+@Name("io.github.erfangc.iam.JwtVerification")
+@Label("JWT Verification")
+@Description("Decoding and verifying an access token")
+class JwtVerificationEvent extends IamEvent {
+}
@@ -0,0 +1,14 @@
+--
+-- Marks a role's materialized views as up to date again, unless the role changed after the rebuild that is done started and
+-- another rebuild is therefore still to come
+--
+-- KEYS[1] the hash of roles whose views are stale, i.e. iam:effective-stale
+-- ARGV[1] the roleId
+-- ARGV[2] the token the role was marked stale with when the rebuild started
+--
+-- Returns 1 if the role is no longer marked stale, 0 otherwise
+--
+if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+    return redis.call('HDEL', KEYS[1], ARGV[1])
+end
+return 0
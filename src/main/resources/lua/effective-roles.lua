@@ -0,0 +1,28 @@
+--
+-- Resolves one or more principals, i.e. a user and the groups it belongs to, to the role documents they are bound to in a single
+-- round trip
+--
+-- KEYS the principals' role-bindings sets, i.e. iam:role-bindings:subs:user:<sub> and iam:role-bindings:subs:group:<groupId>
+-- ARGV[1] the role-binding key prefix, i.e. iam:role-bindings:
+-- ARGV[2] the flattened role key prefix, i.e. iam:role-flat:
+--
+-- Returns a flat array of roleId, roleJson pairs in binding order with each role appearing once. roleJson is nil when the
+-- binding refers to a role that does not exist
+--
+-- Reads keys that are only known while the script runs, so it requires a single Redis node and not Redis Cluster, see README
+--
+local result = {}
+local seen = {}
+local bindingIds = redis.call('SUNION', unpack(KEYS))
+for _, bindingId in ipairs(bindingIds) do
+    local bindingJson = redis.call('GET', ARGV[1] .. bindingId)
+    if bindingJson then
+        local roleId = cjson.decode(bindingJson)['roleId']
+        if type(roleId) == 'string' and not seen[roleId] then
+            seen[roleId] = true
+            result[#result + 1] = roleId
+            result[#result + 1] = redis.call('GET', ARGV[2] .. roleId)
+        end
+    end
+end
+return result
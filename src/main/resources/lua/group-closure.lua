@@ -0,0 +1,26 @@
+--
+-- Resolves a user to every group it belongs to, directly or through nested groups, in a single round trip
+--
+-- KEYS[1] the user's group memberships set, i.e. iam:group-memberships:user:<sub>
+-- ARGV[1] the group memberships key prefix of groups, i.e. iam:group-memberships:group:
+--
+-- Returns the ids of the groups breadth first, each appearing once even if the memberships form a cycle
+--
+-- Reads keys that are only known while the script runs, so it requires a single Redis node and not Redis Cluster, see README
+--
+local result = {}
+local seen = {}
+local queue = redis.call('SMEMBERS', KEYS[1])
+local i = 1
+while i <= #queue do
+    local groupId = queue[i]
+    if not seen[groupId] then
+        seen[groupId] = true
+        result[#result + 1] = groupId
+        for _, parentId in ipairs(redis.call('SMEMBERS', ARGV[1] .. groupId)) do
+            queue[#queue + 1] = parentId
+        end
+    end
+    i = i + 1
+end
+return result
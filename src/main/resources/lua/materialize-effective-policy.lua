@@ -0,0 +1,40 @@
+--
+-- Rebuilds a principal's materialized effective policy from its role-bindings and the roles they refer to, atomically so that
+-- whichever rebuild runs last reflects the latest writes no matter how concurrent rebuilds interleave
+--
+-- KEYS[1] the principal's role-bindings set, i.e. iam:role-bindings:subs:user:<sub>
+-- KEYS[2] the principal's materialized view, i.e. iam:effective:user:<sub>
+-- ARGV[1] the role-binding key prefix, i.e. iam:role-bindings:
+-- ARGV[2] the flattened role key prefix, i.e. iam:role-flat:
+--
+-- The view is a JSON array of {roleId, role} objects in binding order with each role appearing once, role holds the role document
+-- as a string and is absent when the binding refers to a role that does not exist. A principal without bindings has no view
+--
+-- Returns the number of roles in the view
+--
+-- Reads keys that are only known while the script runs, so it requires a single Redis node and not Redis Cluster, see README
+--
+local entries = {}
+local seen = {}
+local bindingIds = redis.call('SMEMBERS', KEYS[1])
+for _, bindingId in ipairs(bindingIds) do
+    local bindingJson = redis.call('GET', ARGV[1] .. bindingId)
+    if bindingJson then
+        local roleId = cjson.decode(bindingJson)['roleId']
+        if type(roleId) == 'string' and not seen[roleId] then
+            seen[roleId] = true
+            local entry = { roleId = roleId }
+            local roleJson = redis.call('GET', ARGV[2] .. roleId)
+            if roleJson then
+                entry['role'] = roleJson
+            end
+            entries[#entries + 1] = entry
+        end
+    end
+end
+if #entries == 0 then
+    redis.call('DEL', KEYS[2])
+else
+    redis.call('SET', KEYS[2], cjson.encode(entries))
+end
+return #entries
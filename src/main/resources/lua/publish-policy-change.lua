@@ -0,0 +1,31 @@
+--
+-- Bumps the policy version and publishes a change event stamped with it, atomically so that the order in which subscribers
+-- receive events is the order of their versions
+--
+-- The change, together with the current value of the object that changed (none for group memberships), is also appended to the
+-- policy log stream consumed by PolicySnapshotStore. Streams require Redis 5, on older servers the XADD error is swallowed and only the event is published
+--
+-- KEYS[1] the policy version key, i.e. iam:policy-version
+-- KEYS[2] the key of the flattened role or of the role-binding that changed, or of the members of the group that changed
+-- KEYS[3] the policy log stream, i.e. iam:policy-log
+-- ARGV[1] the channel to publish on, i.e. iam:policy-changes
+-- ARGV[2] the change event as JSON
+-- ARGV[3] the id of the role, role-binding or group that changed
+-- ARGV[4] the approximate number of entries to retain in the policy log
+--
+-- Returns the new policy version
+--
+local version = redis.call('INCR', KEYS[1])
+local event = cjson.decode(ARGV[2])
+event['version'] = version
+redis.call('PUBLISH', ARGV[1], cjson.encode(event))
+local value = false
+if redis.call('TYPE', KEYS[2])['ok'] == 'string' then
+    value = redis.call('GET', KEYS[2])
+end
+if value then
+    redis.pcall('XADD', KEYS[3], 'MAXLEN', '~', ARGV[4], '*', 'version', version, 'type', event['type'], 'id', ARGV[3], 'value', value)
+else
+    redis.pcall('XADD', KEYS[3], 'MAXLEN', '~', ARGV[4], '*', 'version', version, 'type', event['type'], 'id', ARGV[3])
+end
+return version
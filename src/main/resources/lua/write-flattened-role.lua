@@ -0,0 +1,22 @@
+--
+-- Writes the flattened form of a role, provided none of the definitions it was flattened from changed in the meantime, so a
+-- flattening racing with a concurrent edit of the role or of one it inherits from never overwrites a more recent one
+--
+-- KEYS[1] the flattened role, i.e. iam:role-flat:<roleId>
+-- KEYS[2..n] the definitions the role was flattened from, i.e. iam:role:<roleId> and those of its ancestors
+-- ARGV[1] the flattened role as JSON, or an empty string if the role no longer exists and its flattened form is to be deleted
+-- ARGV[2..n] the definitions as they were read while flattening, in the order of KEYS[2..n], an empty string for one that did not exist
+--
+-- Returns 1 if the flattened role was written, 0 if a definition changed and the role must be flattened again
+--
+for i = 2, #KEYS do
+    if (redis.call('GET', KEYS[i]) or '') ~= ARGV[i] then
+        return 0
+    end
+end
+if ARGV[1] == '' then
+    redis.call('DEL', KEYS[1])
+else
+    redis.call('SET', KEYS[1], ARGV[1])
+end
+return 1
@@ -0,0 +1,119 @@
+package io.github.erfangc.iam.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionAuditLogTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private DecisionAuditLog auditLog;
+
+    /**
+     * Holds on to the first batch until released, so the buffer can be filled up behind it
+     */
+    private final AuditSink blockingSink = batch -> {
+        entered.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lines.addAll(batch);
+    };
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (auditLog != null) {
+            auditLog.close();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void recordsAreWrittenAsJsonOffTheCallingThread() throws InterruptedException {
+        auditLog = new DecisionAuditLog(lines::addAll, 16, DropPolicy.DROP_NEWEST, 4, new SimpleMeterRegistry());
+        auditLog.authenticated("API", "joe", "/inventories/product1", "GET");
+        auditLog.allowed("joe", "/inventories/product1", "GET", "users");
+        auditLog.denied("joe", "/inventories/product1", "DELETE");
+        auditLog.unauthenticated("Web", "/inventories/product1", "GET");
+        await(() -> auditLog.getWritten() == 4);
+        assertTrue(lines.get(0).contains("\"event\":\"AUTHENTICATED\"") && lines.get(0).contains("\"channel\":\"API\""));
+        assertTrue(lines.get(1).contains("\"event\":\"ALLOWED\"") && lines.get(1).contains("\"roleId\":\"users\""));
+        assertTrue(lines.get(2).contains("\"event\":\"DENIED\"") && lines.get(2).contains("\"action\":\"DELETE\""));
+        assertFalse(lines.get(3).contains("\"sub\""));
+        assertEquals(0, auditLog.getDropped());
+    }
+
+    @Test
+    public void dropNewestKeepsTheBufferedRecordsWhenFull() throws InterruptedException {
+        auditLog = new DecisionAuditLog(blockingSink, 4, DropPolicy.DROP_NEWEST, 1, new SimpleMeterRegistry());
+        auditLog.denied("first", "/", "GET");
+        entered.await();
+        for (int i = 0; i < 7; i++) {
+            auditLog.denied("sub" + i, "/", "GET");
+        }
+        assertEquals(3, auditLog.getDropped());
+        release.countDown();
+        await(() -> auditLog.getWritten() == 5);
+        assertTrue(lines.get(4).contains("\"sub\":\"sub3\""));
+    }
+
+    @Test
+    public void dropOldestMakesRoomForTheNewestRecords() throws InterruptedException {
+        auditLog = new DecisionAuditLog(blockingSink, 4, DropPolicy.DROP_OLDEST, 1, new SimpleMeterRegistry());
+        auditLog.denied("first", "/", "GET");
+        entered.await();
+        for (int i = 0; i < 7; i++) {
+            auditLog.denied("sub" + i, "/", "GET");
+        }
+        assertEquals(3, auditLog.getDropped());
+        release.countDown();
+        await(() -> auditLog.getWritten() == 5);
+        assertTrue(lines.get(1).contains("\"sub\":\"sub3\""));
+        assertTrue(lines.get(4).contains("\"sub\":\"sub6\""));
+    }
+
+    @Test
+    public void fileSinkRotatesOnceTheFileIsFull() throws Exception {
+        final Path path = temporaryFolder.getRoot().toPath().resolve("audit.ndjson");
+        try (FileAuditSink sink = new FileAuditSink(path, 8, 2)) {
+            sink.write(asList("{\"a\":1}", "{\"a\":2}"));
+            sink.write(Collections.singletonList("{\"a\":3}"));
+            sink.write(Collections.singletonList("{\"a\":4}"));
+            sink.write(Collections.singletonList("{\"a\":5}"));
+        }
+        assertEquals(Collections.singletonList("{\"a\":5}"), Files.readAllLines(path));
+        assertEquals(Collections.singletonList("{\"a\":4}"), Files.readAllLines(path.resolveSibling("audit.ndjson.1")));
+        assertEquals(Collections.singletonList("{\"a\":3}"), Files.readAllLines(path.resolveSibling("audit.ndjson.2")));
+        assertFalse(Files.exists(path.resolveSibling("audit.ndjson.3")));
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.erfangc.iam.authn;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EncryptedCookieCodecTest {
+
+    private static final String KEY1 = "k1:" + Base64.getEncoder().encodeToString(new byte[32]);
+    private static final String KEY2 = "k2:" + Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+
+    private MutableClock clock;
+    private EncryptedCookieCodec codec;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        codec = EncryptedCookieCodec.fromSpec(KEY1, clock);
+    }
+
+    @Test
+    public void roundTripsUntilExpiry() {
+        final String encoded = codec.encode("IAM_SESSION", "token1", clock.instant.plusSeconds(60));
+        assertTrue(encoded.startsWith("k1."));
+        assertFalse(encoded.contains("token1"));
+        final EncryptedCookieCodec.Decoded decoded = codec.decode("IAM_SESSION", encoded);
+        assertEquals("token1", decoded.getValue());
+        assertEquals(clock.instant.plusSeconds(60), decoded.getExpiresAt());
+        assertTrue(decoded.isCurrentKey());
+        clock.instant = clock.instant.plusSeconds(60);
+        assertNull(codec.decode("IAM_SESSION", encoded));
+    }
+
+    @Test
+    public void rejectsTamperedOrMisplacedValues() {
+        final String encoded = codec.encode("IAM_SESSION", "token1", clock.instant.plusSeconds(60));
+        final int position = encoded.length() - 10;
+        final String tampered = encoded.substring(0, position) + (encoded.charAt(position) == 'A' ? 'B' : 'A') + encoded.substring(position + 1);
+        assertNull(codec.decode("IAM_SESSION", tampered));
+        assertNull(codec.decode("IAM_LOGIN", encoded));
+        assertNull(codec.decode("IAM_SESSION", "k1.not-base64!"));
+        assertNull(codec.decode("IAM_SESSION", "k1.AAAA"));
+        assertNull(codec.decode("IAM_SESSION", "garbage"));
+        assertNull(codec.decode("IAM_SESSION", null));
+    }
+
+    @Test
+    public void rotatesKeys() {
+        final String encodedWithOldKey = codec.encode("IAM_SESSION", "token1", clock.instant.plusSeconds(60));
+        //
+        // the new key goes first, the retired one still decrypts
+        //
+        final EncryptedCookieCodec rotated = EncryptedCookieCodec.fromSpec(KEY2 + "," + KEY1, clock);
+        final EncryptedCookieCodec.Decoded decoded = rotated.decode("IAM_SESSION", encodedWithOldKey);
+        assertEquals("token1", decoded.getValue());
+        assertFalse(decoded.isCurrentKey());
+        final String reissued = rotated.encode("IAM_SESSION", decoded.getValue(), decoded.getExpiresAt());
+        assertTrue(reissued.startsWith("k2."));
+        assertTrue(rotated.decode("IAM_SESSION", reissued).isCurrentKey());
+        //
+        // once the retired key is dropped its cookies are no longer accepted
+        //
+        final EncryptedCookieCodec retired = EncryptedCookieCodec.fromSpec(KEY2, clock);
+        assertNull(retired.decode("IAM_SESSION", encodedWithOldKey));
+        assertEquals("token1", retired.decode("IAM_SESSION", reissued).getValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsKeysOfInvalidLength() {
+        EncryptedCookieCodec.fromSpec("k1:" + Base64.getEncoder().encodeToString(new byte[20]), clock);
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant = Instant.parse("2019-07-01T00:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
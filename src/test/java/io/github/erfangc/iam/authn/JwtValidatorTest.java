@@ -0,0 +1,175 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JwtValidatorTest {
+
+    private static final String ISSUER = "https://issuer.example.com/";
+    private static final String AUDIENCE = "https://iam.example.com";
+
+    private final List<Jwk> published = new CopyOnWriteArrayList<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile CountDownLatch fetchGate = new CountDownLatch(0);
+    private JwtValidator jwtValidator;
+
+    @After
+    public void tearDown() {
+        if (jwtValidator != null) {
+            jwtValidator.close();
+        }
+    }
+
+    private JwtValidator validator(Duration refreshInterval) {
+        return new JwtValidator(
+                () -> {
+                    fetches.incrementAndGet();
+                    try {
+                        fetchGate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new ArrayList<>(published);
+                },
+                ISSUER,
+                AUDIENCE,
+                refreshInterval,
+                Duration.ofMinutes(1),
+                new VerifiedTokenCache(0, new SimpleMeterRegistry())
+        );
+    }
+
+    private static KeyPair keyPair() throws Exception {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private static Jwk jwk(String kid, KeyPair keyPair) {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Map<String, Object> values = new HashMap<>();
+        values.put("kid", kid);
+        values.put("kty", "RSA");
+        values.put("alg", "RS256");
+        values.put("use", "sig");
+        values.put("n", base64Url(publicKey.getModulus()));
+        values.put("e", base64Url(publicKey.getPublicExponent()));
+        return Jwk.fromValues(values);
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static String token(String kid, KeyPair keyPair) {
+        return JWT.create()
+                .withKeyId(kid)
+                .withIssuer(ISSUER)
+                .withAudience(AUDIENCE)
+                .withSubject("joe")
+                .withExpiresAt(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    private void awaitFetches(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (fetches.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(fetches.get() >= count);
+    }
+
+    @Test
+    public void issuersWithoutASchemeAreServedOverHttps() {
+        assertEquals("https://tenant.auth0.com/.well-known/jwks.json", JwtValidator.jwksUrl("tenant.auth0.com").toString());
+        assertEquals("https://tenant.auth0.com/.well-known/jwks.json", JwtValidator.jwksUrl("https://tenant.auth0.com/").toString());
+        assertEquals("http://localhost:8080/.well-known/jwks.json", JwtValidator.jwksUrl("http://localhost:8080").toString());
+    }
+
+    @Test
+    public void requestsWaitOnASingleFetchThenUnknownKidsAreRateLimited() throws Exception {
+        final KeyPair keyPair = keyPair();
+        published.add(jwk("k1", keyPair));
+        //
+        // hold the initial fetch, every request arriving meanwhile must wait for it rather than start its own
+        //
+        fetchGate = new CountDownLatch(1);
+        jwtValidator = validator(Duration.ofHours(1));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<String>> subs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            subs.add(executor.submit(() -> jwtValidator.decodeAndVerify(token("k1", keyPair)).getSubject()));
+        }
+        awaitFetches(1);
+        Thread.sleep(100);
+        fetchGate.countDown();
+        for (Future<String> sub : subs) {
+            assertEquals("joe", sub.get());
+        }
+        executor.shutdown();
+        assertEquals(1, fetches.get());
+        //
+        // a made-up kid right after a fetch is rejected without calling the IdP
+        //
+        try {
+            jwtValidator.decodeAndVerify(token("forged", keyPair()));
+            fail();
+        } catch (UnauthenticatedException e) {
+            assertEquals(1, fetches.get());
+        }
+    }
+
+    @Test
+    public void backgroundRefreshPicksUpRotatedKeys() throws Exception {
+        jwtValidator = validator(Duration.ofMillis(50));
+        awaitFetches(1);
+        final KeyPair keyPair = keyPair();
+        published.add(jwk("k2", keyPair));
+        awaitFetches(fetches.get() + 2);
+        final int before = fetches.get();
+        assertEquals("joe", jwtValidator.decodeAndVerify(token("k2", keyPair)).getSubject());
+        assertTrue(fetches.get() - before <= 1);
+    }
+
+    @Test(expected = UnauthenticatedException.class)
+    public void wrongSignature() throws Exception {
+        published.add(jwk("k1", keyPair()));
+        jwtValidator = validator(Duration.ofHours(1));
+        awaitFetches(1);
+        jwtValidator.decodeAndVerify(token("k1", keyPair()));
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.erfangc.iam.authn;
+
+import io.github.erfangc.iam.authn.models.Operation;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PublicRoutesTest {
+
+    @Test
+    public void exactRoutesMatchVerbAndPath() {
+        final PublicRoutes routes = new PublicRoutes(PublicRoutes.parse("GET /;GET /iam/api/v1/login"));
+        assertTrue(routes.matches("GET", "/"));
+        assertTrue(routes.matches("GET", "/iam/api/v1/login"));
+        assertFalse(routes.matches("POST", "/iam/api/v1/login"));
+        assertFalse(routes.matches("GET", "/iam/api/v1/login/"));
+        assertFalse(routes.matches("GET", "/iam/api/v1"));
+        assertFalse(routes.matches("GET", "/iam/api/v1/login/x"));
+        assertFalse(routes.matches("GET", "/home"));
+        assertFalse(routes.matches("GET", ""));
+    }
+
+    @Test
+    public void wildcardsMatchSegments() {
+        final PublicRoutes routes = new PublicRoutes(PublicRoutes.parse("GET,HEAD /static/** ; * /users/*/avatar;/favicon.ico"));
+        assertTrue(routes.matches("GET", "/static"));
+        assertTrue(routes.matches("HEAD", "/static/app.js"));
+        assertTrue(routes.matches("GET", "/static/js/app.js"));
+        assertFalse(routes.matches("POST", "/static/app.js"));
+        assertFalse(routes.matches("GET", "/statics"));
+        assertTrue(routes.matches("DELETE", "/users/1/avatar"));
+        assertFalse(routes.matches("GET", "/users/1/2/avatar"));
+        assertFalse(routes.matches("GET", "/users/1"));
+        assertTrue(routes.matches("OPTIONS", "/favicon.ico"));
+    }
+
+    @Test
+    public void literalAndWildcardRoutesBacktrack() {
+        final PublicRoutes routes = new PublicRoutes(PublicRoutes.parse("GET /a/b/c;GET /a/*/d"));
+        assertTrue(routes.matches("GET", "/a/b/c"));
+        assertTrue(routes.matches("GET", "/a/b/d"));
+        assertFalse(routes.matches("GET", "/a/b/e"));
+    }
+
+    @Test
+    public void operationsAreValueObjects() {
+        final List<Operation> parsed = PublicRoutes.parse("GET /");
+        assertEquals(singletonList(new Operation().setResource("/").setVerbs(singleton("GET"))), parsed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDoubleWildcardBeforeTheEnd() {
+        new PublicRoutes(PublicRoutes.parse("GET /static/**/app.js"));
+    }
+}
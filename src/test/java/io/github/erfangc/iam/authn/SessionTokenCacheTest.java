@@ -0,0 +1,86 @@
+package io.github.erfangc.iam.authn;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.session.MapSession;
+import org.springframework.session.events.SessionDeletedEvent;
+import org.springframework.session.events.SessionExpiredEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SessionTokenCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+    private SessionTokenCache cache;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+        cache = new SessionTokenCache(2, Duration.ofSeconds(30), meterRegistry, clock);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("iam.session.cache").tag("result", result).counter().count();
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() {
+        cache.put("s1", "token1");
+        assertEquals("token1", cache.get("s1"));
+        clock.instant = clock.instant.plusSeconds(30);
+        assertNull(cache.get("s1"));
+        assertEquals(0, cache.size());
+        assertEquals(1, count("hit"), 0);
+        assertEquals(1, count("miss"), 0);
+    }
+
+    @Test
+    public void destroyedSessionsAreEvicted() {
+        cache.put("s1", "token1");
+        cache.put("s2", "token2");
+        cache.onSessionDestroyed(new SessionDeletedEvent(this, new MapSession("s1")));
+        cache.onSessionDestroyed(new SessionExpiredEvent(this, new MapSession("s2")));
+        assertNull(cache.get("s1"));
+        assertNull(cache.get("s2"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        cache.put("s1", "token1");
+        cache.put("s2", "token2");
+        cache.get("s1");
+        cache.put("s3", "token3");
+        assertEquals("token1", cache.get("s1"));
+        assertNull(cache.get("s2"));
+        assertEquals("token3", cache.get("s3"));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant = Instant.parse("2019-07-01T00:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.erfangc.iam.authn;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class VerifiedTokenCacheTest {
+
+    private static final Algorithm ALGORITHM = Algorithm.HMAC256("secret");
+    private static final Instant NOW = Instant.parse("2019-07-01T00:00:00Z");
+
+    private SimpleMeterRegistry meterRegistry;
+    private MutableClock clock;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        clock = new MutableClock();
+    }
+
+    private static String token(String sub, Instant expiresAt) {
+        return JWT.create().withSubject(sub).withExpiresAt(expiresAt == null ? null : Date.from(expiresAt)).sign(ALGORITHM);
+    }
+
+    private double count(String result) {
+        return meterRegistry.get("iam.jwt.verified.cache").tag("result", result).counter().count();
+    }
+
+    @Test
+    public void hitUntilExpiry() {
+        final VerifiedTokenCache cache = new VerifiedTokenCache(10, meterRegistry, clock);
+        final String token = token("joe", NOW.plusSeconds(60));
+        assertNull(cache.get(token));
+        cache.put(token, JWT.decode(token));
+        final DecodedJWT cached = cache.get(token);
+        assertNotNull(cached);
+        assertEquals("joe", cached.getSubject());
+        clock.instant = NOW.plusSeconds(60);
+        assertNull(cache.get(token));
+        assertEquals(0, cache.size());
+        assertEquals(1, count("hit"), 0);
+        assertEquals(2, count("miss"), 0);
+    }
+
+    @Test
+    public void tokensWithoutExpiryAreNotCached() {
+        final VerifiedTokenCache cache = new VerifiedTokenCache(10, meterRegistry, clock);
+        final String token = token("joe", null);
+        cache.put(token, JWT.decode(token));
+        assertNull(cache.get(token));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final VerifiedTokenCache cache = new VerifiedTokenCache(2, meterRegistry, clock);
+        final String joe = token("joe", NOW.plusSeconds(60));
+        final String john = token("john", NOW.plusSeconds(60));
+        final String jack = token("jack", NOW.plusSeconds(60));
+        cache.put(joe, JWT.decode(joe));
+        cache.put(john, JWT.decode(john));
+        cache.get(joe);
+        cache.put(jack, JWT.decode(jack));
+        assertNotNull(cache.get(joe));
+        assertNull(cache.get(john));
+        assertNotNull(cache.get(jack));
+    }
+
+    @Test
+    public void disabled() {
+        final VerifiedTokenCache cache = new VerifiedTokenCache(0, meterRegistry, clock);
+        final String token = token("joe", NOW.plusSeconds(60));
+        cache.put(token, JWT.decode(token));
+        assertNull(cache.get(token));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant = NOW;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
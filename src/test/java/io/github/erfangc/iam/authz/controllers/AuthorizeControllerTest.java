@@ -0,0 +1,154 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import io.github.erfangc.iam.authz.models.AuthorizeResponse;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
+import io.github.erfangc.iam.authz.services.AuthorizeService;
+import io.github.erfangc.iam.authz.services.EffectivePermissionsCache;
+import io.github.erfangc.iam.authz.services.PolicyChangePublisher;
+import io.github.erfangc.iam.authz.services.PolicyChangeSubscriber;
+import io.github.erfangc.iam.authz.services.RoleBindingsService;
+import io.github.erfangc.iam.authz.services.RolesService;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import redis.embedded.RedisServer;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static io.github.erfangc.iam.Utilities.SUB;
+import static io.github.erfangc.iam.authz.controllers.AuthorizeController.X_POLICY_VERSION;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AuthorizeControllerTest {
+
+    private RedisServer redisServer;
+    private RedisClient redisClient;
+    private RolesService rolesService;
+    private RoleBindingsService roleBindingsService;
+    private AuthorizeService authorizeService;
+    private PolicyChangeSubscriber subscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(6379);
+        redisServer.start();
+        redisClient = RedisClient.create("redis://localhost:6379");
+        final EffectivePermissionsCache cache = new EffectivePermissionsCache(1000);
+        final PolicyChangePublisher publisher = new PolicyChangePublisher(redisClient, cache);
+        rolesService = new RolesService(redisClient, publisher);
+        roleBindingsService = new RoleBindingsService(redisClient, publisher);
+        authorizeService = new AuthorizeService(redisClient, cache, new SimpleMeterRegistry());
+        subscriber = new PolicyChangeSubscriber(redisClient, cache);
+        await(() -> subscriber.getPolicyVersion() >= 0);
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user")));
+        await(() -> subscriber.getPolicyVersion() >= 2);
+    }
+
+    @After
+    public void tearDown() {
+        subscriber.close();
+        final RedisCommands<String, String> sync = redisClient.connect().sync();
+        for (String key : sync.keys("*")) {
+            sync.del(key);
+        }
+        redisServer.stop();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private AuthorizeController controller(Duration maxAge) {
+        return new AuthorizeController(
+                authorizeService,
+                subscriber,
+                false,
+                false,
+                new IdentityHeaders("", "", emptyMap()),
+                maxAge
+        );
+    }
+
+    private static MockHttpServletRequest request(String sub, String ifNoneMatch) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/iam/api/v1/_authorize");
+        request.setAttribute(SUB, sub);
+        request.addHeader("X-Auth-Request-Redirect", "/inventories/product1");
+        request.addHeader("X-Original-Method", "GET");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return request;
+    }
+
+    private static ResponseEntity<AuthorizeResponse> authorize(AuthorizeController controller, MockHttpServletRequest request) {
+        return controller.authorizeRequest(request).toCompletableFuture().join();
+    }
+
+    @Test
+    public void decisionsAreNotStoredWithoutMaxAge() {
+        final ResponseEntity<AuthorizeResponse> allowed = authorize(controller(null), request("joe", null));
+        assertEquals(HttpStatus.OK, allowed.getStatusCode());
+        assertEquals("no-store", allowed.getHeaders().getCacheControl());
+        assertNull(allowed.getHeaders().getETag());
+        assertEquals(String.valueOf(subscriber.getPolicyVersion()), allowed.getHeaders().getFirst(X_POLICY_VERSION));
+        final ResponseEntity<AuthorizeResponse> denied = authorize(controller(null), request("jack", null));
+        assertEquals(HttpStatus.FORBIDDEN, denied.getStatusCode());
+        assertEquals("no-store", denied.getHeaders().getCacheControl());
+    }
+
+    @Test
+    public void decisionsAreOnlyCacheableByTheirCaller() {
+        final String eTag = "\"" + subscriber.getPolicyVersion() + "\"";
+        for (String sub : asList("joe", "jack")) {
+            final HttpHeaders headers = authorize(controller(Duration.ofSeconds(30)), request(sub, null)).getHeaders();
+            assertEquals("max-age=30, private", headers.getCacheControl());
+            assertEquals(eTag, headers.getETag());
+            assertEquals(asList("Authorization", "Cookie", "X-Auth-Request-Redirect", "X-Original-Method"), headers.getVary());
+            assertEquals(String.valueOf(subscriber.getPolicyVersion()), headers.getFirst(X_POLICY_VERSION));
+        }
+    }
+
+    @Test
+    public void revalidationAtTheSameVersionIsNotModified() {
+        final AuthorizeController controller = controller(Duration.ofSeconds(30));
+        final String eTag = authorize(controller, request("joe", null)).getHeaders().getETag();
+        final ResponseEntity<AuthorizeResponse> notModified = authorize(controller, request("joe", "W/" + eTag));
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+        assertEquals(eTag, notModified.getHeaders().getETag());
+        assertEquals("max-age=30, private", notModified.getHeaders().getCacheControl());
+    }
+
+    @Test
+    public void revalidationAfterAPolicyChangeIsDecidedAgain() throws InterruptedException {
+        final AuthorizeController controller = controller(Duration.ofSeconds(30));
+        final String eTag = authorize(controller, request("joe", null)).getHeaders().getETag();
+        final long version = subscriber.getPolicyVersion();
+        roleBindingsService.deleteRoleBinding("joe-as-user");
+        await(() -> subscriber.getPolicyVersion() > version);
+        final ResponseEntity<AuthorizeResponse> denied = authorize(controller, request("joe", eTag));
+        assertEquals(HttpStatus.FORBIDDEN, denied.getStatusCode());
+        assertFalse(eTag.equals(denied.getHeaders().getETag()));
+    }
+}
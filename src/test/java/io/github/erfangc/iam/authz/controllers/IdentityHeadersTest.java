@@ -0,0 +1,57 @@
+package io.github.erfangc.iam.authz.controllers;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdentityHeadersTest {
+
+    private final DecodedJWT decodedJwt = JWT.decode(
+            JWT.create()
+                    .withSubject("joe")
+                    .withClaim("email", "joe@example.com")
+                    .withClaim("https://example.com/org", "acme\r\nX-Injected: true")
+                    .withClaim("level", 3)
+                    .withArrayClaim("groups", new String[]{"a", "b"})
+                    .sign(Algorithm.HMAC256("secret"))
+    );
+
+    @Test
+    public void forwardsSubjectRolesAndSelectedClaims() {
+        final IdentityHeaders identityHeaders = new IdentityHeaders(
+                "X-Auth-Subject",
+                "X-Auth-Roles",
+                IdentityHeaders.parseClaimHeaders("X-Auth-Email=email,X-Auth-Org=https://example.com/org,X-Auth-Level=level,X-Auth-Groups=groups,X-Auth-Missing=missing")
+        );
+        final HttpHeaders headers = identityHeaders.headers("joe", asList("users", "contractors"), decodedJwt);
+        assertEquals("joe", headers.getFirst("X-Auth-Subject"));
+        assertEquals("users,contractors", headers.getFirst("X-Auth-Roles"));
+        assertEquals("joe@example.com", headers.getFirst("X-Auth-Email"));
+        assertEquals("acmeX-Injected: true", headers.getFirst("X-Auth-Org"));
+        assertEquals("3", headers.getFirst("X-Auth-Level"));
+        assertEquals("a,b", headers.getFirst("X-Auth-Groups"));
+        assertFalse(headers.containsKey("X-Auth-Missing"));
+    }
+
+    @Test
+    public void emptyHeaderNamesDisableHeaders() {
+        final IdentityHeaders identityHeaders = new IdentityHeaders("", "", IdentityHeaders.parseClaimHeaders(null));
+        assertTrue(identityHeaders.headers("joe", asList("users"), decodedJwt).isEmpty());
+        assertNull(new IdentityHeaders("X-Auth-Subject", "X-Auth-Roles", IdentityHeaders.parseClaimHeaders(""))
+                .headers("root", null, null)
+                .getFirst("X-Auth-Roles"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedClaimHeaders() {
+        IdentityHeaders.parseClaimHeaders("X-Auth-Email");
+    }
+}
@@ -1,5 +1,9 @@
 package io.github.erfangc.iam.authz.services;
 
+import io.github.erfangc.iam.ApiException;
+import io.github.erfangc.iam.authz.models.AddGroupMemberRequest;
+import io.github.erfangc.iam.authz.models.AuthorizeResponse;
+import io.github.erfangc.iam.authz.models.GroupMember;
 import io.github.erfangc.iam.authz.models.RoleBinding;
 import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
 import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
@@ -7,30 +11,74 @@ import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
 import io.github.erfangc.iam.mocks.roles.RoleProvider;
 import io.lettuce.core.RedisClient;
 import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.springframework.http.HttpStatus;
 import redis.embedded.RedisServer;
 
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+@RunWith(Parameterized.class)
 public class AuthorizeServiceTest {
 
+    private final EvaluationMode evaluationMode;
+
     private RedisServer redisServer;
     private RolesService rolesService;
     private RoleBindingsService roleBindingsService;
     private RedisClient redisClient;
     private AuthorizeService authorizeService;
+    private EffectivePermissionsCache cache;
+    private GroupClosureCache groupClosureCache;
+    private CompiledRoles compiledRoles;
+    private GroupsService groupsService;
+    private SimpleMeterRegistry meterRegistry;
+    private EffectivePolicyMaterializer materializer;
+
+    public AuthorizeServiceTest(EvaluationMode evaluationMode) {
+        this.evaluationMode = evaluationMode;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] evaluationModes() {
+        //
+        // SNAPSHOT needs Redis Streams which embedded Redis does not have, see PolicySnapshotTest
+        //
+        return new Object[]{EvaluationMode.COMMANDS, EvaluationMode.LUA, EvaluationMode.MATERIALIZED};
+    }
 
     @Before
     public void setUp() throws Exception {
         redisServer = new RedisServer(6379);
         redisServer.start();
         redisClient = RedisClient.create("redis://localhost:6379");
-        rolesService = new RolesService(redisClient);
-        roleBindingsService = new RoleBindingsService(redisClient);
-        authorizeService = new AuthorizeService(redisClient);
+        cache = new EffectivePermissionsCache(1000);
+        groupClosureCache = new GroupClosureCache(1000);
+        compiledRoles = new CompiledRoles();
+        materializer = new EffectivePolicyMaterializer(redisClient, evaluationMode == EvaluationMode.MATERIALIZED, 1000);
+        final PolicyChangePublisher publisher = new PolicyChangePublisher(redisClient, cache, groupClosureCache, materializer);
+        rolesService = new RolesService(redisClient, publisher);
+        roleBindingsService = new RoleBindingsService(redisClient, publisher);
+        groupsService = new GroupsService(redisClient, publisher);
+        meterRegistry = new SimpleMeterRegistry();
+        authorizeService = new AuthorizeService(redisClient, cache, groupClosureCache, compiledRoles, meterRegistry, null, null)
+                .setEvaluationMode(evaluationMode);
         //
         // setup roles and role-bindings for tests
         //
@@ -53,10 +101,35 @@ public class AuthorizeServiceTest {
 
     @After
     public void tearDown() {
+        materializer.close();
         deleteAllKeys();
         redisServer.stop();
     }
 
+    private CompiledRole cachedRole(String sub, String roleId) {
+        return cache.get(sub).getRoles().stream().filter(role -> role.getId().equals(roleId)).findFirst().orElse(null);
+    }
+
+    @Test
+    public void rolesAreCompiledOncePerDefinitionAndSharedBySubjects() {
+        AccessRequest joe = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
+        AccessRequest john = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("john");
+        assertTrue(authorizeService.authorizeRequest(joe).getAllowed());
+        assertTrue(authorizeService.authorizeRequest(john).getAllowed());
+        final CompiledRole users = cachedRole("joe", "users");
+        assertSame(users, cachedRole("john", "users"));
+        //
+        // reloading a subject reuses the compiled role, changing the role compiles it again
+        //
+        cache.invalidateAll();
+        assertTrue(authorizeService.authorizeRequest(joe).getAllowed());
+        assertSame(users, cachedRole("joe", "users"));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        assertFalse(authorizeService.authorizeRequest(john).getAllowed());
+        assertNotSame(users, cachedRole("john", "users"));
+        assertTrue(cachedRole("john", "users").getPolicies().isEmpty());
+    }
+
     @Test
     public void test1() {
         AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
@@ -72,7 +145,9 @@ public class AuthorizeServiceTest {
     @Test
     public void test3() {
         AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("PUT").setSub("jack");
-        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        final AuthorizeResponse response = authorizeService.authorizeRequest(accessRequest);
+        assertTrue(response.getAllowed());
+        assertEquals(singletonList("admins"), response.getRoles());
     }
 
     @Test
@@ -156,4 +231,189 @@ public class AuthorizeServiceTest {
                 .setSub("joe");
         assertTrue(authorizeService.authorizeRequest(accessRequest2).getAllowed());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void warmDecisionIsServedFromCache() {
+        AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        //
+        // remove everything behind the services' back, a warm decision must not go back to Redis
+        //
+        deleteAllKeys();
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void roleUpdateEvictsBoundSubjectsOnly() {
+        AccessRequest joe = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
+        AccessRequest jack = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("jack");
+        assertTrue(authorizeService.authorizeRequest(joe).getAllowed());
+        assertTrue(authorizeService.authorizeRequest(jack).getAllowed());
+        assertEquals(2, cache.size());
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        assertEquals(1, cache.size());
+        assertFalse(authorizeService.authorizeRequest(joe).getAllowed());
+        assertTrue(authorizeService.authorizeRequest(jack).getAllowed());
+    }
+
+    @Test
+    public void creatingAMissingRoleEvictsSubjectsBoundToIt() {
+        final CreateOrUpdateRoleBindingRequest body = new CreateOrUpdateRoleBindingRequest()
+                .setRoleBinding(
+                        new RoleBinding()
+                                .setPrincipalType("user")
+                                .setId("jill-as-worker")
+                                .setRoleId("workers")
+                                .setPrincipalId("jill")
+                );
+        roleBindingsService.createOrUpdateRoleBinding(body);
+        AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("PUT").setSub("jill");
+        assertFalse(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("workers")));
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+    }
+
+    @Test
+    public void inheritedRolesAreReEvaluatedWhenTheirParentsChange() {
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(
+                RoleProvider.forId("workers").setPolicies(emptyList()).setInherits(singletonList("users"))
+        ));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(
+                new RoleBinding().setPrincipalType("user").setId("jill-as-worker").setRoleId("workers").setPrincipalId("jill")
+        ));
+        AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("jill");
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        assertFalse(authorizeService.authorizeRequest(accessRequest).getAllowed());
+    }
+
+    @Test
+    public void groupBindingsApplyToMembersOfNestedGroups() {
+        groupsService.addGroupMember("engineering", new AddGroupMemberRequest().setMember(new GroupMember().setMemberType("group").setMemberId("backend")));
+        groupsService.addGroupMember("backend", new AddGroupMemberRequest().setMember(new GroupMember().setMemberType("user").setMemberId("jill")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(
+                new RoleBinding().setPrincipalType("group").setId("engineering-as-contractor").setRoleId("contractors").setPrincipalId("engineering")
+        ));
+        AccessRequest accessRequest = new AccessRequest().setResource("/inventories/third-party-product1").setAction("PUT").setSub("jill");
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        assertEquals(1, groupClosureCache.size());
+        //
+        // a role change re-evaluates jill with the groups already resolved, a membership change evicts both
+        //
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("contractors")));
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        assertEquals(1, groupClosureCache.size());
+        groupsService.removeGroupMember("engineering", "group", "backend");
+        assertEquals(0, groupClosureCache.size());
+        assertFalse(authorizeService.authorizeRequest(accessRequest).getAllowed());
+    }
+
+    @Test
+    public void survivesScriptFlush() {
+        AccessRequest accessRequest = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        cache.invalidateAll();
+        redisClient.connect().sync().scriptFlush();
+        assertTrue(authorizeService.authorizeRequest(accessRequest).getAllowed());
+    }
+
+    @Test
+    public void coldDecisionRoundTripsDoNotGrowWithRoles() {
+        for (int i = 0; i < 20; i++) {
+            rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("contractors").setId("role-" + i)));
+            roleBindingsService.createOrUpdateRoleBinding(
+                    new CreateOrUpdateRoleBindingRequest().setRoleBinding(
+                            new RoleBinding().setPrincipalType("user").setId("jill-" + i).setRoleId("role-" + i).setPrincipalId("jill")
+                    )
+            );
+        }
+        AccessRequest accessRequest = new AccessRequest().setResource("/esoteric-resource/foobar").setAction("GET").setSub("jill");
+        assertFalse(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        assertFalse(authorizeService.authorizeRequest(accessRequest).getAllowed());
+        final DistributionSummary roundTrips = meterRegistry.get("iam.authorize.redis.round.trips").summary();
+        assertEquals(2, roundTrips.count());
+        //
+        // plus one to resolve jill's groups, which stay cached
+        //
+        final double expected = (evaluationMode == EvaluationMode.COMMANDS ? 3.0 : 1.0) + 1.0;
+        assertEquals(expected, roundTrips.max(), 0.0);
+        assertEquals(expected, roundTrips.totalAmount(), 0.0);
+    }
+
+    @Test
+    public void decisionsAndCacheLookupsAreMetered() {
+        AccessRequest get = new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe");
+        AccessRequest put = new AccessRequest().setResource("/inventories/product1").setAction("PUT").setSub("joe");
+        assertTrue(authorizeService.authorizeRequest(get).getAllowed());
+        assertTrue(authorizeService.authorizeRequest(get).getAllowed());
+        assertFalse(authorizeService.authorizeRequest(put).getAllowed());
+        assertEquals(2.0, meterRegistry.get("iam.authorize.decisions").tag("outcome", "allowed").counter().count(), 0.0);
+        assertEquals(1.0, meterRegistry.get("iam.authorize.decisions").tag("outcome", "denied").counter().count(), 0.0);
+        assertEquals(3, meterRegistry.get("iam.authorize.stage").tag("stage", "match").timer().count());
+        //
+        // snapshot decisions only ever look up groups, the others only do so when the subject is not cached
+        //
+        final String cacheName = evaluationMode == EvaluationMode.SNAPSHOT ? "iam.group.closure.cache" : "iam.authz.cache";
+        assertEquals(2.0, meterRegistry.get(cacheName).tag("result", "hit").counter().count(), 0.0);
+        assertEquals(1.0, meterRegistry.get(cacheName).tag("result", "miss").counter().count(), 0.0);
+    }
+
+    @Test
+    public void batchDecisionsAreReturnedInRequestOrder() {
+        final List<AuthorizeResponse> responses = authorizeService.authorizeRequests(
+                "joe",
+                asList(
+                        new AccessRequest().setResource("/inventories/product1").setAction("GET"),
+                        new AccessRequest().setResource("/inventories/product1").setAction("PUT"),
+                        new AccessRequest().setResource("/inventories/third-party-product1").setAction("PUT"),
+                        new AccessRequest().setResource("/esoteric-resource/foobar").setAction("GET").setSub("jack")
+                )
+        );
+        assertEquals(4, responses.size());
+        assertTrue(responses.get(0).getAllowed());
+        assertFalse(responses.get(1).getAllowed());
+        assertTrue(responses.get(2).getAllowed());
+        //
+        // the sub in the body is ignored, decisions are always made for the authenticated subject
+        //
+        assertFalse(responses.get(3).getAllowed());
+        assertEquals(1, meterRegistry.get("iam.authorize.redis.round.trips").summary().count());
+    }
+
+    @Test
+    public void batchesWithNullAccessRequestsAreBadRequests() {
+        try {
+            authorizeService.authorizeRequestsAsync(
+                    "joe",
+                    asList(new AccessRequest().setResource("/inventories/product1").setAction("GET"), null)
+            );
+            fail("a batch with a null access request must be rejected");
+        } catch (ApiException e) {
+            assertEquals(HttpStatus.BAD_REQUEST, e.getHttpStatus());
+        }
+    }
+
+    @Test
+    public void asyncDecisions() {
+        final CompletionStage<AuthorizeResponse> allowed = authorizeService.authorizeRequestAsync(
+                new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe")
+        );
+        final CompletionStage<AuthorizeResponse> denied = authorizeService.authorizeRequestAsync(
+                new AccessRequest().setResource("/inventories/product1").setAction("PUT").setSub("john")
+        );
+        assertTrue(allowed.toCompletableFuture().join().getAllowed());
+        assertFalse(denied.toCompletableFuture().join().getAllowed());
+    }
+
+    @Test
+    public void decisionsLoadedFromRedisAreNotMadeOnLettuceThreads() {
+        final String thread = authorizeService.authorizeRequestAsync(
+                new AccessRequest().setResource("/inventories/product1").setAction("GET").setSub("joe")
+        ).thenApply(response -> Thread.currentThread().getName()).toCompletableFuture().join();
+        //
+        // completed on a decision thread, or on this one should the decision be made before the callback is attached
+        //
+        assertFalse(thread, thread.startsWith("lettuce-"));
+    }
+}
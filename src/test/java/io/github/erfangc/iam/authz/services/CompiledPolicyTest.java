@@ -0,0 +1,49 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledPolicyTest {
+
+    private static CompiledPolicy policy(List<String> actions) {
+        return new CompiledPolicy(new Policy().setResource("/inventories/*").setActions(actions));
+    }
+
+    @Test
+    public void httpMethodsAreMatchedByBit() {
+        final CompiledPolicy policy = policy(asList("GET", "OPTIONS"));
+        assertTrue(policy.matches("/inventories/product1", "GET"));
+        assertTrue(policy.matches("/inventories/product1", "OPTIONS"));
+        assertFalse(policy.matches("/inventories/product1", "PUT"));
+        assertFalse(policy.matches("/inventories/product1", "get"));
+        assertFalse(policy.matches("/other/product1", "GET"));
+        assertNotEquals(ActionRegistry.OTHER, ActionRegistry.bitOf("DELETE"));
+    }
+
+    @Test
+    public void customActionsAreRegisteredByPoliciesOnly() {
+        assertTrue(ActionRegistry.bitOf("compiled-policy-test:never-in-a-policy") == ActionRegistry.OTHER);
+        final CompiledPolicy policy = policy(singletonList("compiled-policy-test:approve"));
+        assertNotEquals(ActionRegistry.OTHER, ActionRegistry.bitOf("compiled-policy-test:approve"));
+        assertTrue(policy.matches("/inventories/product1", "compiled-policy-test:approve"));
+        assertFalse(policy.matches("/inventories/product1", "compiled-policy-test:never-in-a-policy"));
+        assertFalse(policy.matches("/inventories/product1", "GET"));
+    }
+
+    @Test
+    public void wildcardMatchesEveryAction() {
+        final CompiledPolicy policy = policy(asList("GET", "*"));
+        assertTrue(policy.matches("/inventories/product1", "PATCH"));
+        assertTrue(policy.matches("/inventories/product1", "compiled-policy-test:never-in-a-policy"));
+        assertTrue(policy.matches("/inventories/product1", null));
+        assertFalse(policy(null).matches("/inventories/product1", "GET"));
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.AuthorizeResponse;
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledRoleTest {
+
+    private final RoleStatistics roleStatistics = new RoleStatistics();
+
+    private CompiledRole role(String id, String prefix, int policies) {
+        final List<Policy> list = new ArrayList<>();
+        for (int i = 0; i < policies; i++) {
+            list.add(new Policy().setResource("/" + prefix + i + "/*").setActions(singletonList("GET")));
+        }
+        return new CompiledRoles(roleStatistics).compile(new Role().setId(id).setPolicies(list));
+    }
+
+    @Test
+    public void frequentlyMatchedPoliciesMoveToTheFront() {
+        final CompiledRole role = role("compiled-role-test:front", "resource-", 20);
+        final long get = ActionRegistry.bitOf("GET");
+        assertEquals(20, role.match("/resource-19/x", "GET", get));
+        for (int i = 0; i < 100; i++) {
+            role.match("/resource-19/x", "GET", get);
+        }
+        assertEquals(1, role.match("/resource-19/x", "GET", get));
+        //
+        // every other policy still matches, and a request no policy allows is still denied after trying all of them
+        //
+        for (int i = 0; i < 19; i++) {
+            assertTrue(role.match("/resource-" + i + "/x", "GET", get) > 0);
+        }
+        assertEquals(-20, role.match("/resource-19/x", "PUT", ActionRegistry.bitOf("PUT")));
+        assertEquals(-20, role.match("/elsewhere", "GET", get));
+        final Map<String, Object> statistics = roleStatistics.report().get("compiled-role-test:front");
+        assertEquals(121L, statistics.get("allows"));
+        assertEquals(2L, statistics.get("misses"));
+        assertTrue((Double) statistics.get("policiesEvaluatedPerAllow") < 5.0);
+        roleStatistics.remove("compiled-role-test:front");
+        assertTrue(roleStatistics.report().isEmpty());
+    }
+
+    @Test
+    public void rolesCompiledForValidationAreNotReported() {
+        CompiledRole.compile(new Role().setId("compiled-role-test:validated").setPolicies(emptyList()))
+                .match("/x", "GET", ActionRegistry.bitOf("GET"));
+        assertTrue(roleStatistics.report().isEmpty());
+    }
+
+    @Test
+    public void frequentlyMatchedRolesMoveToTheFrontWithoutChangingDecisions() {
+        final List<CompiledRole> roles = asList(role("compiled-role-test:a", "a-", 3), role("compiled-role-test:b", "b-", 3));
+        final EffectivePermissions effectivePermissions = new EffectivePermissions(
+                roles,
+                new LinkedHashSet<>(asList("compiled-role-test:a", "compiled-role-test:b")),
+                Collections.singleton("user:joe")
+        );
+        final AccessRequest accessRequest = new AccessRequest().setSub("joe").setResource("/b-2/x").setAction("GET");
+        for (int i = 0; i < 3; i++) {
+            final AuthorizeResponse response = AuthorizeService.decide(effectivePermissions, accessRequest);
+            assertTrue(response.getAllowed());
+            assertEquals(asList("compiled-role-test:a", "compiled-role-test:b"), response.getRoles());
+        }
+        assertEquals(1, effectivePermissions.getRoleOrder().get()[0]);
+        //
+        // the role now tried last still allows what it did before
+        //
+        assertEquals(1, AuthorizeService.decide(effectivePermissions, accessRequest).getRolesEvaluated());
+        final AuthorizeResponse demoted = AuthorizeService.decide(effectivePermissions, accessRequest.setResource("/a-0/x"));
+        assertTrue(demoted.getAllowed());
+        assertEquals(2, demoted.getRolesEvaluated());
+        final AuthorizeResponse denied = AuthorizeService.decide(effectivePermissions, accessRequest.setAction("DELETE"));
+        assertFalse(denied.getAllowed());
+        assertEquals(2, denied.getRolesEvaluated());
+    }
+}
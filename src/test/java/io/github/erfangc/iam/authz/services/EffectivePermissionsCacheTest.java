@@ -0,0 +1,57 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EffectivePermissionsCacheTest {
+
+    private static EffectivePermissions permissions(String sub, String... roleIds) {
+        return new EffectivePermissions(emptyList(), new HashSet<>(asList(roleIds)), singleton("user:" + sub));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final EffectivePermissionsCache cache = new EffectivePermissionsCache(2);
+        cache.put("joe", permissions("joe", "users"), cache.generation());
+        cache.put("john", permissions("john", "users"), cache.generation());
+        cache.get("joe");
+        cache.put("jack", permissions("jack", "admins"), cache.generation());
+        assertNotNull(cache.get("joe"));
+        assertNull(cache.get("john"));
+        assertNotNull(cache.get("jack"));
+        //
+        // john was evicted, invalidating his role must not touch anyone else
+        //
+        cache.invalidateRole("users");
+        assertNull(cache.get("joe"));
+        assertNotNull(cache.get("jack"));
+    }
+
+    @Test
+    public void invalidatePrincipal() {
+        final EffectivePermissionsCache cache = new EffectivePermissionsCache(10);
+        cache.put("joe", permissions("joe", "users"), cache.generation());
+        cache.put("john", permissions("john", "users"), cache.generation());
+        cache.invalidatePrincipal("user", "joe");
+        assertNull(cache.get("joe"));
+        assertNotNull(cache.get("john"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void discardsValuesLoadedBeforeAnInvalidation() {
+        final EffectivePermissionsCache cache = new EffectivePermissionsCache(10);
+        final long generation = cache.generation();
+        cache.invalidateRole("users");
+        cache.put("joe", permissions("joe", "users"), generation);
+        assertNull(cache.get("joe"));
+    }
+}
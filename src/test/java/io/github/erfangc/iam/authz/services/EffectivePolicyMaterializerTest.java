@@ -0,0 +1,180 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.AddGroupMemberRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
+import io.github.erfangc.iam.authz.models.GroupMember;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.util.function.BooleanSupplier;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.EFFECTIVE_STALE_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.effectiveKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EffectivePolicyMaterializerTest {
+
+    private RedisServer redisServer;
+    private RedisClient redisClient;
+    private RedisCommands<String, String> sync;
+    private EffectivePermissionsCache cache;
+    private EffectivePolicyMaterializer materializer;
+    private PolicyChangePublisher publisher;
+    private RolesService rolesService;
+    private RoleBindingsService roleBindingsService;
+    private AuthorizeService authorizeService;
+
+    @Before
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(6379);
+        redisServer.start();
+        redisClient = RedisClient.create("redis://localhost:6379");
+        sync = redisClient.connect().sync();
+        cache = new EffectivePermissionsCache(1000);
+        //
+        // every role change goes through the background worker
+        //
+        materializer = new EffectivePolicyMaterializer(redisClient, true, 0);
+        publisher = new PolicyChangePublisher(redisClient, cache, materializer);
+        rolesService = new RolesService(redisClient, publisher);
+        roleBindingsService = new RoleBindingsService(redisClient, publisher);
+        authorizeService = new AuthorizeService(redisClient, cache, new SimpleMeterRegistry()).setEvaluationMode(EvaluationMode.MATERIALIZED);
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("admins")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("jack-as-admin")));
+        await(materializer::isIdle);
+    }
+
+    @After
+    public void tearDown() {
+        materializer.close();
+        for (String key : sync.keys("*")) {
+            sync.del(key);
+        }
+        redisServer.stop();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private boolean allowed(String sub) {
+        return authorizeService.authorizeRequest(new AccessRequest().setSub(sub).setResource("/inventories/product1").setAction("GET")).getAllowed();
+    }
+
+    @Test
+    public void bindingChangesRebuildThePrincipalsView() {
+        assertTrue(sync.get(effectiveKey("user", "joe")).contains("\"roleId\":\"users\""));
+        assertTrue(allowed("joe"));
+        roleBindingsService.deleteRoleBinding("joe-as-user");
+        assertNull(sync.get(effectiveKey("user", "joe")));
+        assertFalse(allowed("joe"));
+    }
+
+    @Test
+    public void roleChangesAreAnnouncedBeforeTheirViewsAreRebuiltInTheBackground() throws InterruptedException {
+        assertTrue(allowed("joe"));
+        assertTrue(allowed("jack"));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        //
+        // whether or not the views have been rebuilt yet, joe no longer sees the policies users had
+        //
+        assertNull(cache.get("joe"));
+        assertFalse(allowed("joe"));
+        assertTrue(allowed("jack"));
+        await(materializer::isIdle);
+        assertTrue(sync.hkeys(EFFECTIVE_STALE_KEY).isEmpty());
+        assertFalse(sync.get(effectiveKey("user", "joe")).contains("GET"));
+        assertFalse(allowed("joe"));
+    }
+
+    @Test
+    public void viewsOfRolesBeingRebuiltAreReadWithCommands() throws Exception {
+        assertTrue(allowed("joe"));
+        //
+        // a view that is behind its role, as it is until the background rebuild gets to it
+        //
+        sync.set(flatRoleKey("users"), objectMapper.writeValueAsString(RoleProvider.forId("users").setPolicies(emptyList())));
+        sync.hset(EFFECTIVE_STALE_KEY, "users", "rebuilding");
+        cache.invalidateAll();
+        assertFalse(allowed("joe"));
+        assertTrue(allowed("jack"));
+        sync.hdel(EFFECTIVE_STALE_KEY, "users");
+        cache.invalidateAll();
+        assertTrue(allowed("joe"));
+    }
+
+    @Test
+    public void rolesLeftStaleByAStoppedInstanceAreRebuiltOnStart() throws Exception {
+        sync.set(flatRoleKey("users"), objectMapper.writeValueAsString(RoleProvider.forId("users").setPolicies(emptyList())));
+        sync.hset(EFFECTIVE_STALE_KEY, "users", "rebuilding");
+        final EffectivePolicyMaterializer restarted = new EffectivePolicyMaterializer(redisClient, true, 0);
+        try {
+            await(restarted::isIdle);
+            assertTrue(sync.hkeys(EFFECTIVE_STALE_KEY).isEmpty());
+            assertFalse(sync.get(effectiveKey("user", "joe")).contains("GET"));
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test
+    public void bindingMovedToAnotherRoleFollowsThatRole() throws InterruptedException {
+        roleBindingsService.createOrUpdateRoleBinding(
+                new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user").setRoleId("admins"))
+        );
+        assertTrue(sync.get(effectiveKey("user", "joe")).contains("\"roleId\":\"admins\""));
+        rolesService.deleteRole("admins");
+        await(materializer::isIdle);
+        assertFalse(allowed("joe"));
+        assertFalse(allowed("jack"));
+        assertFalse(sync.get(effectiveKey("user", "joe")).contains("\"role\""));
+    }
+
+    @Test
+    public void principalsBoundBeforeMaterializationAreCombinedWithMaterializedGroups() throws InterruptedException {
+        //
+        // jill is bound while materialization is still disabled so she has no view of her own
+        //
+        new RoleBindingsService(redisClient, new PolicyChangePublisher(redisClient, cache)).createOrUpdateRoleBinding(
+                new CreateOrUpdateRoleBindingRequest().setRoleBinding(
+                        new RoleBinding().setPrincipalType("user").setId("jill-as-user").setRoleId("users").setPrincipalId("jill")
+                )
+        );
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("contractors")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(
+                new RoleBinding().setPrincipalType("group").setId("vendors-as-contractor").setRoleId("contractors").setPrincipalId("vendors")
+        ));
+        new GroupsService(redisClient, publisher).addGroupMember(
+                "vendors",
+                new AddGroupMemberRequest().setMember(new GroupMember().setMemberType("user").setMemberId("jill"))
+        );
+        await(materializer::isIdle);
+        assertNull(sync.get(effectiveKey("user", "jill")));
+        assertNotNull(sync.get(effectiveKey("group", "vendors")));
+        assertTrue(allowed("jill"));
+        assertTrue(authorizeService.authorizeRequest(
+                new AccessRequest().setSub("jill").setResource("/inventories/third-party-product1").setAction("PUT")
+        ).getAllowed());
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.ApiException;
+import io.github.erfangc.iam.authz.models.AddGroupMemberRequest;
+import io.github.erfangc.iam.authz.models.GroupMember;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.sync.RedisCommands;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import redis.embedded.RedisServer;
+
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GroupsServiceTest {
+
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+    private RedisServer redisServer;
+    private RedisClient redisClient;
+    private GroupClosureCache groupClosureCache;
+    private GroupsService groupsService;
+
+    @Before
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(6379);
+        redisServer.start();
+        redisClient = RedisClient.create("redis://localhost:6379");
+        groupClosureCache = new GroupClosureCache(1000);
+        final PolicyChangePublisher publisher = new PolicyChangePublisher(redisClient, new EffectivePermissionsCache(1000), groupClosureCache, null);
+        groupsService = new GroupsService(redisClient, publisher);
+        addMember("engineering", "group", "backend");
+        addMember("backend", "user", "joe");
+        addMember("engineering", "user", "jack");
+    }
+
+    @After
+    public void tearDown() {
+        final RedisCommands<String, String> sync = redisClient.connect().sync();
+        for (String key : sync.keys("*")) {
+            sync.del(key);
+        }
+        redisServer.stop();
+    }
+
+    private void addMember(String groupId, String memberType, String memberId) {
+        groupsService.addGroupMember(groupId, new AddGroupMemberRequest().setMember(new GroupMember().setMemberType(memberType).setMemberId(memberId)));
+    }
+
+    private HashSet<String> groupIds(String sub) {
+        return new HashSet<>(new GroupClosureScript().execute(redisClient.connect().async(), sub).toCompletableFuture().join());
+    }
+
+    @Test
+    public void usersBelongToEveryGroupContainingTheirGroups() {
+        assertEquals(new HashSet<>(asList("backend", "engineering")), groupIds("joe"));
+        assertEquals(new HashSet<>(asList("engineering")), groupIds("jack"));
+        assertEquals(2, groupsService.getGroup("engineering").getGroup().getMembers().size());
+    }
+
+    @Test
+    public void membershipChangesEvictCachedGroups() {
+        groupClosureCache.put("joe", groupIds("joe"), groupClosureCache.generation());
+        groupClosureCache.put("jack", groupIds("jack"), groupClosureCache.generation());
+        groupsService.removeGroupMember("engineering", "group", "backend");
+        assertNull(groupClosureCache.get("joe"));
+        assertEquals(new HashSet<>(asList("engineering")), groupClosureCache.get("jack"));
+        assertEquals(new HashSet<>(asList("backend")), groupIds("joe"));
+    }
+
+    @Test
+    public void deletingAGroupRemovesItFromItsMembersGroups() {
+        groupsService.deleteGroup("backend");
+        assertTrue(groupIds("joe").isEmpty());
+        assertEquals(1, groupsService.getGroup("engineering").getGroup().getMembers().size());
+        expectedException.expect(ApiException.class);
+        groupsService.getGroup("backend");
+    }
+
+    @Test
+    public void nestingCyclesAreRejected() {
+        expectedException.expect(ApiException.class);
+        expectedException.expectMessage("Group engineering cannot be a member of backend");
+        addMember("backend", "group", "engineering");
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest {
+
+    private MutableClock clock;
+    private HeavyHitters heavyHitters;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        heavyHitters = new HeavyHitters(10, 2, Duration.ofMinutes(5), clock);
+    }
+
+    @Test
+    public void frequentKeysSurviveASkewedStream() {
+        final SpaceSaving spaceSaving = new SpaceSaving(10);
+        for (int i = 0; i < 10000; i++) {
+            //
+            // one key in five is hot, the rest are all distinct
+            //
+            spaceSaving.offer(i % 5 == 0 ? "hot" : "cold-" + i);
+        }
+        final List<HeavyHitter> top = spaceSaving.top(3);
+        assertEquals("hot", top.get(0).getKey());
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 2000);
+        assertTrue(top.get(0).getCount() >= 2000);
+        assertEquals(10000, spaceSaving.total());
+    }
+
+    @Test
+    public void sketchesOfPartsOfAStreamAreMergedWithinTheirBounds() {
+        final SpaceSaving first = new SpaceSaving(2);
+        final SpaceSaving second = new SpaceSaving(2);
+        for (int i = 0; i < 10; i++) {
+            first.offer("hot");
+            second.offer("hot");
+        }
+        first.offer("a");
+        first.offer("b");
+        second.offer("c");
+        final List<HeavyHitter> top = SpaceSaving.top(asList(first, second), 3);
+        assertEquals("hot", top.get(0).getKey());
+        assertEquals(20, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        //
+        // b pushed a out of the first sketch and may have been seen in the second as often as c, and the other way around
+        //
+        final HeavyHitter b = top.stream().filter(hitter -> hitter.getKey().equals("b")).findFirst().get();
+        assertEquals(2 + 1, b.getCount());
+        assertEquals(1 + 1, b.getError());
+        final HeavyHitter c = top.stream().filter(hitter -> hitter.getKey().equals("c")).findFirst().get();
+        assertEquals(1 + 2, c.getCount());
+        assertEquals(2, c.getError());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void decisionsRecordedConcurrentlyAreMergedAcrossStripes() throws InterruptedException {
+        heavyHitters = new HeavyHitters(10, 2, Duration.ofMinutes(5), 4, clock);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final String sub = "user-" + t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    heavyHitters.record(i % 2 == 0 ? "joe" : sub, "/inventories/product1", i % 4 != 0);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final Map<String, Object> current = (Map<String, Object>) heavyHitters.report().get("current");
+        assertEquals(8000L, current.get("decisions"));
+        final HeavyHitter joe = ((List<HeavyHitter>) current.get("subjects")).get(0);
+        assertEquals("joe", joe.getKey());
+        assertEquals(4000, joe.getCount());
+        assertEquals(8000, ((List<HeavyHitter>) current.get("resources")).get(0).getCount());
+        assertEquals(2000, ((List<HeavyHitter>) current.get("denials")).get(0).getCount());
+    }
+
+    @Test
+    public void resourcesAreCutToTheirFirstPathSegments() {
+        assertEquals("/inventories/product1", HeavyHitters.prefix("/inventories/product1/items/3", 2));
+        assertEquals("/inventories", HeavyHitters.prefix("/inventories?page=2", 2));
+        assertEquals("/inventories", HeavyHitters.prefix("/inventories/product1", 1));
+        assertEquals("", HeavyHitters.prefix(null, 2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void countsRollOverToThePreviousWindow() {
+        heavyHitters.record("joe", "/inventories/product1/items/1", true);
+        heavyHitters.record("joe", "/inventories/product1/items/2", false);
+        heavyHitters.record("jack", "/inventories/product2", false);
+        Map<String, Object> current = (Map<String, Object>) heavyHitters.report().get("current");
+        assertEquals(3L, current.get("decisions"));
+        assertEquals("joe", ((List<HeavyHitter>) current.get("subjects")).get(0).getKey());
+        assertEquals("/inventories/product1", ((List<HeavyHitter>) current.get("resources")).get(0).getKey());
+        assertEquals(2, ((List<HeavyHitter>) current.get("denials")).size());
+        assertNull(heavyHitters.report().get("previous"));
+
+        clock.instant = clock.instant.plus(Duration.ofMinutes(6));
+        heavyHitters.record("jill", "/orders", true);
+        current = (Map<String, Object>) heavyHitters.report().get("current");
+        final Map<String, Object> previous = (Map<String, Object>) heavyHitters.report().get("previous");
+        assertEquals(1L, current.get("decisions"));
+        assertEquals(3L, previous.get("decisions"));
+
+        //
+        // a window without traffic leaves nothing to report as the previous one
+        //
+        clock.instant = clock.instant.plus(Duration.ofMinutes(11));
+        assertEquals(0L, ((Map<String, Object>) heavyHitters.report().get("current")).get("decisions"));
+        assertNull(heavyHitters.report().get("previous"));
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant instant = Instant.parse("2019-07-01T00:00:00Z");
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleBindingRequest;
+import io.github.erfangc.iam.authz.models.CreateOrUpdateRoleRequest;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.sync.RedisCommands;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.embedded.RedisServer;
+
+import java.util.function.BooleanSupplier;
+
+import static java.util.Collections.emptyList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates two IAM instances sharing one Redis: writes go through node A while node B serves decisions from its own cache
+ */
+public class PolicyChangeSubscriberTest {
+
+    private RedisServer redisServer;
+    private RedisClient redisClient;
+    private RolesService rolesService;
+    private RoleBindingsService roleBindingsService;
+    private EffectivePermissionsCache nodeBCache;
+    private AuthorizeService nodeB;
+    private PolicyChangeSubscriber nodeBSubscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        redisServer = new RedisServer(6379);
+        redisServer.start();
+        redisClient = RedisClient.create("redis://localhost:6379");
+        final PolicyChangePublisher nodeAPublisher = new PolicyChangePublisher(redisClient, new EffectivePermissionsCache(1000));
+        rolesService = new RolesService(redisClient, nodeAPublisher);
+        roleBindingsService = new RoleBindingsService(redisClient, nodeAPublisher);
+        nodeBCache = new EffectivePermissionsCache(1000);
+        nodeB = new AuthorizeService(redisClient, nodeBCache, new SimpleMeterRegistry());
+        nodeBSubscriber = new PolicyChangeSubscriber(redisClient, nodeBCache);
+        //
+        // reading the version on subscribe flushes the cache once, let it happen before anything is cached
+        //
+        await(() -> nodeBSubscriber.getPolicyVersion() >= 0);
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("admins")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("joe-as-user")));
+        roleBindingsService.createOrUpdateRoleBinding(new CreateOrUpdateRoleBindingRequest().setRoleBinding(RoleBindingProvider.forId("jack-as-admin")));
+    }
+
+    @After
+    public void tearDown() {
+        nodeBSubscriber.close();
+        final RedisCommands<String, String> sync = redisClient.connect().sync();
+        for (String key : sync.keys("*")) {
+            sync.del(key);
+        }
+        redisServer.stop();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private boolean allowed(String sub) {
+        return nodeB.authorizeRequest(new AccessRequest().setSub(sub).setResource("/inventories/product1").setAction("GET")).getAllowed();
+    }
+
+    @Test
+    public void roleChangeOnAnotherNodeEvictsOnlyBoundSubjects() throws InterruptedException {
+        assertTrue(allowed("joe"));
+        assertTrue(allowed("jack"));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        await(() -> nodeBCache.get("joe") == null);
+        assertNotNull(nodeBCache.get("jack"));
+        assertFalse(allowed("joe"));
+    }
+
+    @Test
+    public void bindingDeletedOnAnotherNode() throws InterruptedException {
+        assertTrue(allowed("joe"));
+        roleBindingsService.deleteRoleBinding("joe-as-user");
+        await(() -> nodeBCache.get("joe") == null);
+        assertFalse(allowed("joe"));
+    }
+
+    @Test
+    public void gapInVersionsFlushesEverything() throws InterruptedException {
+        final long version = Long.parseLong(redisClient.connect().sync().get(Namespaces.POLICY_VERSION_KEY));
+        //
+        // events from setUp are delivered asynchronously, one arriving late would evict what we are about to cache
+        //
+        await(() -> nodeBSubscriber.lastVersion() == version);
+        assertTrue(allowed("joe"));
+        assertTrue(allowed("jack"));
+        nodeBSubscriber.onMessage("{\"version\": " + (version + 1) + ", \"type\": \"ROLE\", \"roleId\": \"unrelated\"}");
+        assertEquals(2, nodeBCache.size());
+        nodeBSubscriber.onMessage("{\"version\": " + (version + 3) + ", \"type\": \"ROLE\", \"roleId\": \"unrelated\"}");
+        assertEquals(0, nodeBCache.size());
+    }
+
+    @Test
+    public void cacheIsBypassedWhileDisconnected() throws InterruptedException {
+        assertTrue(allowed("joe"));
+        nodeBSubscriber.onDisconnected();
+        assertNull(nodeBCache.get("joe"));
+        assertTrue(allowed("joe"));
+        assertEquals(0, nodeBCache.size());
+        nodeBSubscriber.onSubscribed();
+        await(() -> nodeBSubscriber.getPolicyVersion() >= 0);
+        assertTrue(allowed("joe"));
+        assertEquals(1, nodeBCache.size());
+    }
+
+    @Test
+    public void policyVersionIsSeededOnSubscribeAndAdvancedByEvents() throws InterruptedException {
+        final RedisCommands<String, String> sync = redisClient.connect().sync();
+        final long version = Long.parseLong(sync.get(Namespaces.POLICY_VERSION_KEY));
+        await(() -> nodeBSubscriber.getPolicyVersion() == version);
+        roleBindingsService.deleteRoleBinding("joe-as-user");
+        await(() -> nodeBSubscriber.getPolicyVersion() == version + 1);
+        nodeBSubscriber.onDisconnected();
+        assertEquals(-1, nodeBSubscriber.getPolicyVersion());
+        sync.incr(Namespaces.POLICY_VERSION_KEY);
+        nodeBSubscriber.onSubscribed();
+        await(() -> nodeBSubscriber.getPolicyVersion() == version + 2);
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.erfangc.iam.authz.services;
+
+import io.github.erfangc.iam.authz.models.Policy;
+import io.github.erfangc.iam.authz.models.Role;
+import io.github.erfangc.iam.authz.models.RoleBinding;
+import io.github.erfangc.iam.mocks.roles.RoleBindingProvider;
+import io.github.erfangc.iam.mocks.roles.RoleProvider;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Redis Streams are not available in embedded Redis, so the delta-apply logic of {@link PolicySnapshotStore} is tested here
+ * against {@link PolicySnapshot} directly
+ */
+public class PolicySnapshotTest {
+
+    private static PolicySnapshot initial() {
+        return PolicySnapshot.of(
+                10,
+                asList(RoleProvider.forId("users"), RoleProvider.forId("contractors"), RoleProvider.forId("admins")),
+                asList(
+                        RoleBindingProvider.forId("joe-as-user"),
+                        RoleBindingProvider.forId("joe-as-contractor"),
+                        RoleBindingProvider.forId("john-as-user")
+                )
+        );
+    }
+
+    private static boolean allowed(PolicySnapshot snapshot, String sub, String resource, String action) {
+        for (CompiledRole role : snapshot.effectivePermissions("user", sub).getRoles()) {
+            for (CompiledPolicy policy : role.getPolicies()) {
+                if (policy.matches(resource, action)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void initialState() {
+        final PolicySnapshot snapshot = initial();
+        assertEquals(10, snapshot.getVersion());
+        assertEquals(3, snapshot.roleCount());
+        assertEquals(3, snapshot.roleBindingCount());
+        assertTrue(allowed(snapshot, "joe", "/inventories/third-party-product1", "PUT"));
+        assertTrue(allowed(snapshot, "john", "/inventories/product1", "GET"));
+        assertFalse(allowed(snapshot, "john", "/inventories/third-party-product1", "PUT"));
+        assertFalse(allowed(snapshot, "nobody", "/inventories/product1", "GET"));
+    }
+
+    @Test
+    public void roleUpdateReachesEveryBoundPrincipal() {
+        final PolicySnapshot before = initial();
+        final Role users = RoleProvider.forId("users");
+        users.getPolicies().add(new Policy().setResource("/orders/*").setActions(singletonList("GET")));
+        final PolicySnapshot after = before.apply(singletonList(PolicyDelta.role(11, "users", users)));
+        assertEquals(11, after.getVersion());
+        assertTrue(allowed(after, "joe", "/orders/1", "GET"));
+        assertTrue(allowed(after, "john", "/orders/1", "GET"));
+        //
+        // the previous snapshot is untouched
+        //
+        assertFalse(allowed(before, "john", "/orders/1", "GET"));
+    }
+
+    @Test
+    public void roleBindingMovesBetweenPrincipals() {
+        final PolicySnapshot before = initial();
+        final RoleBinding moved = RoleBindingProvider.forId("joe-as-contractor").setPrincipalId("john");
+        final PolicySnapshot after = before.apply(singletonList(PolicyDelta.roleBinding(11, "joe-as-contractor", moved)));
+        assertFalse(allowed(after, "joe", "/inventories/third-party-product1", "PUT"));
+        assertTrue(allowed(after, "john", "/inventories/third-party-product1", "PUT"));
+        assertTrue(allowed(before, "joe", "/inventories/third-party-product1", "PUT"));
+        assertFalse(allowed(before, "john", "/inventories/third-party-product1", "PUT"));
+    }
+
+    @Test
+    public void deletes() {
+        final PolicySnapshot after = initial().apply(asList(
+                PolicyDelta.role(11, "contractors", null),
+                PolicyDelta.roleBinding(12, "john-as-user", null)
+        ));
+        assertEquals(12, after.getVersion());
+        assertEquals(2, after.roleCount());
+        assertEquals(2, after.roleBindingCount());
+        assertFalse(allowed(after, "joe", "/inventories/third-party-product1", "PUT"));
+        assertTrue(allowed(after, "joe", "/inventories/product1", "GET"));
+        assertFalse(allowed(after, "john", "/inventories/product1", "GET"));
+        //
+        // joe is still bound to contractors, recreating it must grant its permissions again
+        //
+        final PolicySnapshot recreated = after.apply(singletonList(PolicyDelta.role(13, "contractors", RoleProvider.forId("contractors"))));
+        assertTrue(allowed(recreated, "joe", "/inventories/third-party-product1", "PUT"));
+    }
+
+    @Test
+    public void replayedDeltasAreIgnored() {
+        final PolicySnapshot before = initial();
+        assertSame(before, before.apply(singletonList(PolicyDelta.role(9, "users", null))));
+        final PolicySnapshot after = before.apply(asList(
+                PolicyDelta.role(10, "users", null),
+                PolicyDelta.roleBinding(11, "jack-as-admin", RoleBindingProvider.forId("jack-as-admin"))
+        ));
+        assertEquals(11, after.getVersion());
+        assertTrue(allowed(after, "joe", "/inventories/product1", "GET"));
+        assertTrue(allowed(after, "jack", "/anything", "DELETE"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void missingVersionRequiresReload() {
+        initial().apply(singletonList(PolicyDelta.role(12, "users", null)));
+    }
+
+    @Test
+    public void deltaFromStreamEntry() throws Exception {
+        final Map<String, String> body = new HashMap<>();
+        body.put("version", "42");
+        body.put("type", "ROLE_BINDING");
+        body.put("id", "joe-as-user");
+        body.put("value", objectMapper.writeValueAsString(RoleBindingProvider.forId("joe-as-user")));
+        final PolicyDelta delta = PolicySnapshotStore.toDelta(body);
+        assertEquals(42, delta.getVersion());
+        assertEquals(PolicyChangeEvent.Type.ROLE_BINDING, delta.getType());
+        assertEquals("joe", delta.getRoleBinding().getPrincipalId());
+        body.remove("value");
+        body.put("type", "ROLE");
+        assertNull(PolicySnapshotStore.toDelta(body).getRole());
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.erfangc.iam.authz.services;
+
+import org.junit.Test;
+
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResourcePatternTest {
+
+    private static final String[] EXPRESSIONS = {
+            "*",
+            "/*",
+            "/inventories/*",
+            "/inventories/third-party-product1",
+            "/inventories/*/items",
+            "/inventories/*/items/*",
+            "*/items",
+            "/inventories/",
+            "/",
+            "",
+    };
+
+    private static final String[] RESOURCES = {
+            "",
+            "/",
+            "//",
+            "/inventories",
+            "/inventories/",
+            "/inventories/product1",
+            "/inventories/product1/",
+            "/inventories/product1/items",
+            "/inventories/product1/items/1",
+            "/inventories/a/b/items",
+            "/inventories/third-party-product1",
+            "/inventories//items",
+            "inventories/product1",
+            "/esoteric-resource/foobar",
+            "/items",
+    };
+
+    /**
+     * The regular expression {@link AuthorizeService} used to build for every policy on every request
+     */
+    private static boolean legacyMatches(String expression, String resource) {
+        final String regex = Stream
+                .of(expression.split("/"))
+                .map(token -> token.equals("*") ? ".*" : token)
+                .collect(joining("\\/"));
+        return resource.matches(regex);
+    }
+
+    @Test
+    public void singleStarFollowsLegacySemantics() {
+        for (String expression : EXPRESSIONS) {
+            final ResourcePattern pattern = ResourcePattern.compile(expression);
+            for (String resource : RESOURCES) {
+                assertEquals(
+                        "expression=" + expression + " resource=" + resource,
+                        legacyMatches(expression, resource),
+                        pattern.matches(resource)
+                );
+            }
+        }
+    }
+
+    @Test
+    public void doubleStarMatchesZeroOrMoreSegments() {
+        final ResourcePattern pattern = ResourcePattern.compile("/inventories/**");
+        assertTrue(pattern.matches("/inventories"));
+        assertTrue(pattern.matches("/inventories/product1"));
+        assertTrue(pattern.matches("/inventories/product1/items"));
+        assertFalse(pattern.matches("/inventoriesX"));
+        final ResourcePattern middle = ResourcePattern.compile("/inventories/**/items");
+        assertTrue(middle.matches("/inventories/items"));
+        assertTrue(middle.matches("/inventories/a/items"));
+        assertTrue(middle.matches("/inventories/a/b/items"));
+        assertFalse(middle.matches("/inventories/a/b/items/1"));
+        assertFalse(middle.matches("/inventories/a/b"));
+    }
+
+    @Test
+    public void literalsAreNotRegularExpressions() {
+        final ResourcePattern pattern = ResourcePattern.compile("/inventories/product.1");
+        assertTrue(pattern.matches("/inventories/product.1"));
+        assertFalse(pattern.matches("/inventories/productX1"));
+    }
+
+    @Test
+    public void nullResourceNeverMatches() {
+        assertFalse(ResourcePattern.compile("*").matches(null));
+    }
+}
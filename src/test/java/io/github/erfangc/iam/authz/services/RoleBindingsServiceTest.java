@@ -23,15 +23,17 @@ public class RoleBindingsServiceTest {
     private RedisServer redisServer;
     private RoleBindingsService roleBindingsService;
     private RedisClient redisClient;
+    private EffectivePermissionsCache cache;
 
     @Before
     public void setUp() throws Exception {
         redisServer = new RedisServer(6379);
         redisServer.start();
         redisClient = RedisClient.create("redis://localhost:6379");
-        RolesService rolesService = new RolesService(redisClient);
+        cache = new EffectivePermissionsCache(1000);
+        RolesService rolesService = new RolesService(redisClient, new PolicyChangePublisher(redisClient, cache));
         rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(forId("users")));
-        roleBindingsService = new RoleBindingsService(redisClient);
+        roleBindingsService = new RoleBindingsService(redisClient, new PolicyChangePublisher(redisClient, cache));
     }
 
     @After
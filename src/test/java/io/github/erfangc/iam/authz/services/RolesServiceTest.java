@@ -1,8 +1,11 @@
 package io.github.erfangc.iam.authz.services;
 
+import io.github.erfangc.iam.ApiException;
 import io.github.erfangc.iam.authz.models.*;
 import io.github.erfangc.iam.mocks.roles.RoleProvider;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.sync.RedisCommands;
 import org.junit.After;
 import org.junit.Before;
@@ -13,8 +16,16 @@ import redis.embedded.RedisServer;
 
 import java.util.UUID;
 
+import static io.github.erfangc.iam.Utilities.objectMapper;
+import static io.github.erfangc.iam.authz.services.Namespaces.POLICY_VERSION_KEY;
+import static io.github.erfangc.iam.authz.services.Namespaces.flatRoleKey;
+import static io.github.erfangc.iam.authz.services.Namespaces.roleKey;
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class RolesServiceTest {
@@ -24,17 +35,23 @@ public class RolesServiceTest {
     private RedisServer redisServer;
     private RolesService rolesService;
     private RedisClient redisClient;
+    private StatefulRedisConnection<String, String> connection;
+    private EffectivePermissionsCache cache;
+    private RoleStatistics roleStatistics;
 
     @Before
     public void setUp() throws Exception {
         redisServer = new RedisServer(6379);
         redisServer.start();
         redisClient = RedisClient.create("redis://localhost:6379");
-        rolesService = new RolesService(redisClient);
+        connection = redisClient.connect();
+        cache = new EffectivePermissionsCache(1000);
+        roleStatistics = new RoleStatistics();
+        rolesService = new RolesService(redisClient, new PolicyChangePublisher(redisClient, cache), roleStatistics);
     }
 
     private void deleteAllKeys() {
-        final RedisCommands<String, String> sync = redisClient.connect().sync();
+        final RedisCommands<String, String> sync = connection.sync();
         for (String key : sync.keys("*")) {
             sync.del(key);
         }
@@ -43,6 +60,7 @@ public class RolesServiceTest {
     @After
     public void tearDown() throws Exception {
         deleteAllKeys();
+        connection.close();
         redisServer.stop();
     }
 
@@ -82,10 +100,79 @@ public class RolesServiceTest {
     public void deleteRole() {
         final Role users = RoleProvider.forId("users");
         rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(users));
+        new CompiledRoles(roleStatistics).compile(users).match("/inventories/product1", "GET", ActionRegistry.bitOf("GET"));
+        assertTrue(roleStatistics.report().containsKey(users.getId()));
         //
         // now delete the role
         //
         final DeleteRoleResponse resp = rolesService.deleteRole(users.getId());
         assertEquals("Deleted", resp.getMessage());
+        assertFalse(roleStatistics.report().containsKey(users.getId()));
     }
-}
\ No newline at end of file
+
+    private Role flattened(String id) throws Exception {
+        final String json = connection.sync().get(flatRoleKey(id));
+        return json == null ? null : objectMapper.readValue(json, Role.class);
+    }
+
+    @Test
+    public void inheritedPoliciesAreFlattenedIntoInheritors() throws Exception {
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("workers").setInherits(singletonList("users"))));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(
+                new Role().setId("admins").setPolicies(emptyList()).setInherits(asList("workers", "users"))
+        ));
+        assertEquals(2, flattened("workers").getPolicies().size());
+        assertEquals(2, flattened("admins").getPolicies().size());
+        assertEquals(singletonList("users"), rolesService.getRole("workers").getRole().getInherits());
+        //
+        // changes anywhere up the chain are propagated to every role below
+        //
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setPolicies(emptyList())));
+        assertEquals(1, flattened("admins").getPolicies().size());
+        rolesService.deleteRole("workers");
+        assertNull(flattened("workers"));
+        assertTrue(flattened("admins").getPolicies().isEmpty());
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("workers")));
+        assertEquals(1, flattened("admins").getPolicies().size());
+    }
+
+    @Test
+    public void flattenedRolesAreNotWrittenFromDefinitionsChangedSinceTheyWereRead() throws Exception {
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("workers").setInherits(singletonList("users"))));
+        final RedisCommands<String, String> sync = connection.sync();
+        final String[] keys = {flatRoleKey("workers"), roleKey("workers"), roleKey("users")};
+        final String workers = sync.get(roleKey("workers"));
+        final String staleUsers = objectMapper.writeValueAsString(RoleProvider.forId("users").setPolicies(emptyList()));
+        //
+        // a flattening that read users before it was last changed, as an instance racing with the change would have
+        //
+        final LuaScript writeFlattened = new LuaScript("lua/write-flattened-role.lua");
+        assertEquals(0L, (long) writeFlattened.<Long>execute(sync, ScriptOutputType.INTEGER, keys, "{}", workers, staleUsers));
+        assertEquals(2, flattened("workers").getPolicies().size());
+        assertEquals(1L, (long) writeFlattened.<Long>execute(sync, ScriptOutputType.INTEGER, keys, "{}", workers, sync.get(roleKey("users"))));
+        assertNull(flattened("workers").getPolicies());
+    }
+
+    @Test
+    public void rolesWithoutAFlattenedFormAreFlattenedAndAnnouncedOnStart() throws Exception {
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        final RedisCommands<String, String> sync = connection.sync();
+        sync.del(flatRoleKey("users"));
+        final long version = Long.parseLong(sync.get(POLICY_VERSION_KEY));
+        new RolesService(redisClient, new PolicyChangePublisher(redisClient, cache));
+        assertEquals(1, flattened("users").getPolicies().size());
+        assertEquals(version + 1, Long.parseLong(sync.get(POLICY_VERSION_KEY)));
+    }
+
+    @Test
+    public void inheritanceCyclesAreRejected() {
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users")));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("workers").setInherits(singletonList("users"))));
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("admins").setInherits(singletonList("workers"))));
+        expectedException.expect(ApiException.class);
+        expectedException.expectMessage("users -> admins -> workers -> users");
+        rolesService.createOrUpdateRole(new CreateOrUpdateRoleRequest().setRole(RoleProvider.forId("users").setInherits(singletonList("admins"))));
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.erfangc.iam.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlightEventTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void eventsAreCommittedWithTheirFieldsWhileRecording() throws Exception {
+        final Path dump = temporaryFolder.getRoot().toPath().resolve("iam.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.github.erfangc.iam.Authorization").withoutThreshold();
+            recording.enable("io.github.erfangc.iam.AccessDecision").withoutThreshold();
+            recording.start();
+            FlightEvent.accessDecision().commit("joe", "/inventories/product1", "GET", "users", "allowed", 2);
+            FlightEvent.authorization().commit("joe", "/inventories/product1", "GET", null, "allowed", 3);
+            recording.stop();
+            recording.dump(dump);
+        }
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        assertEquals(2, events.size());
+        final RecordedEvent accessDecision = events.stream()
+                .filter(event -> event.getEventType().getName().equals("io.github.erfangc.iam.AccessDecision"))
+                .findFirst()
+                .get();
+        assertEquals("joe", accessDecision.getString("sub"));
+        assertEquals("users", accessDecision.getString("roleId"));
+        assertEquals("allowed", accessDecision.getString("outcome"));
+        assertEquals(2, accessDecision.getInt("evaluated"));
+    }
+
+    @Test
+    public void eventsAreNoOpsWhenNotRecording() throws Exception {
+        final Path dump = temporaryFolder.getRoot().toPath().resolve("iam.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.github.erfangc.iam.Authorization").withoutThreshold();
+            final FlightEvent event = FlightEvent.jwtVerification();
+            recording.start();
+            event.commit("joe", null, null, null, "verified", 0);
+            recording.stop();
+            recording.dump(dump);
+        }
+        assertTrue(RecordingFile.readAllEvents(dump).isEmpty());
+    }
+}